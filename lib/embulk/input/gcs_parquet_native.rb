@@ -0,0 +1,3 @@
+Embulk::JavaPlugin.register_input(
+  :gcs_parquet_native, "org.embulk.input.gcs.parquet.GcsParquetNativeInputPlugin",
+  File.expand_path('../../../../classpath', __FILE__))
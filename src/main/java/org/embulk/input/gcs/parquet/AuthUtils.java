@@ -58,6 +58,16 @@ class AuthUtils
     }
 
     static Storage newClient(final PluginTask task)
+    {
+        final Storage client = buildClient(task);
+        validate(client, task.getBucket());
+        return client;
+    }
+
+    /**
+     * Builds a client without verifying the credentials. See {@link ClientRegistry}.
+     */
+    static Storage buildClient(final PluginTask task)
     {
         try {
             final StorageOptions.Builder builder = StorageOptions.newBuilder();
@@ -72,12 +82,20 @@ class AuthUtils
                     // compute_engine does not need credentials
                     break;
             }
+            return builder.build().getService();
+        }
+        catch (IOException | GeneralSecurityException e) {
+            throw new ConfigException(e);
+        }
+    }
+
+    static void validate(final Storage client, final String bucket)
+    {
+        try {
             // test client to verify auth
-            final Storage client = builder.build().getService();
-            client.list(task.getBucket(), Storage.BlobListOption.pageSize(1));
-            return client;
+            client.list(bucket, Storage.BlobListOption.pageSize(1));
         }
-        catch (StorageException | IOException | GeneralSecurityException e) {
+        catch (StorageException e) {
             throw new ConfigException(e);
         }
     }
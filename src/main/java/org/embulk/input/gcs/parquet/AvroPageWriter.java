@@ -0,0 +1,256 @@
+package org.embulk.input.gcs.parquet;
+
+import org.apache.avro.LogicalType;
+import org.apache.avro.LogicalTypes;
+import org.apache.avro.generic.GenericEnumSymbol;
+import org.apache.avro.generic.GenericFixed;
+import org.apache.avro.generic.GenericRecord;
+import org.embulk.spi.Column;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.json.JsonParser;
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.type.Type;
+import org.embulk.spi.type.Types;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes Avro records decoded from Parquet straight into a {@link PageBuilder}.
+ */
+class AvroPageWriter
+{
+    private final PageBuilder pageBuilder;
+    private final List<Column> columns;
+    private final JsonParser jsonParser = new JsonParser();
+
+    private org.apache.avro.Schema recordSchema;
+    private ValueWriter[] writers;
+
+    AvroPageWriter(PageBuilder pageBuilder, org.embulk.spi.Schema schema)
+    {
+        this.pageBuilder = pageBuilder;
+        this.columns = schema.getColumns();
+    }
+
+    void write(GenericRecord record)
+    {
+        if (record.getSchema() != recordSchema) {
+            recordSchema = record.getSchema();
+            writers = newWriters(recordSchema);
+        }
+        for (int i = 0; i < writers.length; i++) {
+            writers[i].write(record);
+        }
+        pageBuilder.addRecord();
+    }
+
+    private ValueWriter[] newWriters(org.apache.avro.Schema schema)
+    {
+        ValueWriter[] result = new ValueWriter[columns.size()];
+        for (Column column : columns) {
+            org.apache.avro.Schema.Field field = schema.getField(column.getName());
+            if (field == null) {
+                result[column.getIndex()] = record -> pageBuilder.setNull(column);
+            }
+            else {
+                result[column.getIndex()] = newWriter(column, field.pos(), nonNull(field.schema()));
+            }
+        }
+        return result;
+    }
+
+    private ValueWriter newWriter(Column column, int pos, org.apache.avro.Schema fieldSchema)
+    {
+        Type type = column.getType();
+        LogicalType logicalType = fieldSchema.getLogicalType();
+        if (Types.BOOLEAN.equals(type)) {
+            return record -> {
+                Object v = record.get(pos);
+                if (v == null) {
+                    pageBuilder.setNull(column);
+                }
+                else {
+                    pageBuilder.setBoolean(column, (Boolean) v);
+                }
+            };
+        }
+        else if (Types.LONG.equals(type)) {
+            return record -> {
+                Object v = record.get(pos);
+                if (v == null) {
+                    pageBuilder.setNull(column);
+                }
+                else {
+                    pageBuilder.setLong(column, ((Number) v).longValue());
+                }
+            };
+        }
+        else if (Types.DOUBLE.equals(type)) {
+            if (logicalType instanceof LogicalTypes.Decimal) {
+                int scale = ((LogicalTypes.Decimal) logicalType).getScale();
+                return record -> {
+                    Object v = record.get(pos);
+                    if (v == null) {
+                        pageBuilder.setNull(column);
+                    }
+                    else {
+                        pageBuilder.setDouble(column, toDecimal(v, scale).doubleValue());
+                    }
+                };
+            }
+            return record -> {
+                Object v = record.get(pos);
+                if (v == null) {
+                    pageBuilder.setNull(column);
+                }
+                else {
+                    pageBuilder.setDouble(column, ((Number) v).doubleValue());
+                }
+            };
+        }
+        else if (Types.TIMESTAMP.equals(type)) {
+            String logicalName = logicalType == null ? "" : logicalType.getName();
+            return record -> {
+                Object v = record.get(pos);
+                if (v == null) {
+                    pageBuilder.setNull(column);
+                }
+                else {
+                    pageBuilder.setTimestamp(column, toTimestamp(((Number) v).longValue(), logicalName));
+                }
+            };
+        }
+        else if (Types.JSON.equals(type)) {
+            return record -> {
+                Object v = record.get(pos);
+                if (v == null) {
+                    pageBuilder.setNull(column);
+                }
+                else if (v instanceof CharSequence || v instanceof ByteBuffer) {
+                    // a JSON annotated string column
+                    pageBuilder.setJson(column, jsonParser.parse(toStringValue(v)));
+                }
+                else {
+                    pageBuilder.setJson(column, toJsonValue(v));
+                }
+            };
+        }
+        return record -> {
+            Object v = record.get(pos);
+            if (v == null) {
+                pageBuilder.setNull(column);
+            }
+            else {
+                pageBuilder.setString(column, toStringValue(v));
+            }
+        };
+    }
+
+    static Timestamp toTimestamp(long value, String logicalName)
+    {
+        switch (logicalName) {
+            case "date":
+                return Timestamp.ofEpochSecond(value * 86400L, 0L);
+            case "timestamp-micros":
+                return Timestamp.ofEpochSecond(Math.floorDiv(value, 1000000L), Math.floorMod(value, 1000000L) * 1000L);
+            default:
+                return Timestamp.ofEpochMilli(value);
+        }
+    }
+
+    private static org.apache.avro.Schema nonNull(org.apache.avro.Schema schema)
+    {
+        if (schema.getType() == org.apache.avro.Schema.Type.UNION) {
+            for (org.apache.avro.Schema branch : schema.getTypes()) {
+                if (branch.getType() != org.apache.avro.Schema.Type.NULL) {
+                    return branch;
+                }
+            }
+        }
+        return schema;
+    }
+
+    private static BigDecimal toDecimal(Object value, int scale)
+    {
+        if (value instanceof Number) {
+            return BigDecimal.valueOf(((Number) value).longValue(), scale);
+        }
+        return new BigDecimal(new BigInteger(toBytes(value)), scale);
+    }
+
+    private static byte[] toBytes(Object value)
+    {
+        if (value instanceof GenericFixed) {
+            return ((GenericFixed) value).bytes();
+        }
+        ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static String toStringValue(Object value)
+    {
+        if (value instanceof ByteBuffer || value instanceof GenericFixed) {
+            return new String(toBytes(value), StandardCharsets.UTF_8);
+        }
+        return value.toString();
+    }
+
+    static Value toJsonValue(Object value)
+    {
+        if (value == null) {
+            return ValueFactory.newNil();
+        }
+        else if (value instanceof GenericRecord) {
+            GenericRecord record = (GenericRecord) value;
+            Map<Value, Value> map = new LinkedHashMap<>();
+            for (org.apache.avro.Schema.Field field : record.getSchema().getFields()) {
+                map.put(ValueFactory.newString(field.name()), toJsonValue(record.get(field.pos())));
+            }
+            return ValueFactory.newMap(map);
+        }
+        else if (value instanceof Map) {
+            Map<Value, Value> map = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                map.put(ValueFactory.newString(entry.getKey().toString()), toJsonValue(entry.getValue()));
+            }
+            return ValueFactory.newMap(map);
+        }
+        else if (value instanceof Collection) {
+            List<Value> list = new ArrayList<>();
+            for (Object element : (Collection<?>) value) {
+                list.add(toJsonValue(element));
+            }
+            return ValueFactory.newArray(list);
+        }
+        else if (value instanceof Boolean) {
+            return ValueFactory.newBoolean((Boolean) value);
+        }
+        else if (value instanceof Float || value instanceof Double) {
+            return ValueFactory.newFloat(((Number) value).doubleValue());
+        }
+        else if (value instanceof Number) {
+            return ValueFactory.newInteger(((Number) value).longValue());
+        }
+        else if (value instanceof GenericEnumSymbol || value instanceof CharSequence) {
+            return ValueFactory.newString(value.toString());
+        }
+        return ValueFactory.newString(toStringValue(value));
+    }
+
+    private interface ValueWriter
+    {
+        void write(GenericRecord record);
+    }
+}
@@ -0,0 +1,224 @@
+package org.embulk.input.gcs.parquet;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.Storage;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+import org.embulk.spi.Exec;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+/**
+ * Lists the objects under a prefix with concurrent requests.
+ *
+ * <p>The prefix is split into shards by listing it with the "/" delimiter: the objects directly
+ * under it come with that listing, and its sub-prefixes are split the same way until there are
+ * enough shards for the threads. The remaining sub-prefixes are then listed concurrently, each
+ * shard in name order. Shards are disjoint, so sorting their objects by name gives the same order
+ * as a single listing of the prefix, which {@code last_path} relies on.
+ *
+ * <p>A prefix without sub-prefixes is listed by one thread as before.
+ */
+class BucketLister
+{
+    interface Task
+    {
+        // concurrent list requests; 1 lists the prefix page by page on one thread
+        @Config("list_parallelism")
+        @ConfigDefault("8")
+        int getListParallelism();
+    }
+
+    // prefixes are split until there are this many shards per thread, or up to this depth
+    private static final int SHARDS_PER_THREAD = 4;
+    private static final int MAX_SPLIT_DEPTH = 3;
+
+    // GCS lists objects in the order of the UTF-8 bytes of their names, which is code point order
+    static final Comparator<String> NAME_ORDER = BucketLister::compareNames;
+
+    // only what ListedObject keeps, so that pages of a large prefix are small
+    private static final Storage.BlobListOption FIELDS = Storage.BlobListOption.fields(
+            Storage.BlobField.SIZE, Storage.BlobField.GENERATION, Storage.BlobField.UPDATED);
+
+    private static final Logger LOG = Exec.getLogger(BucketLister.class);
+
+    private final Storage client;
+    private final String bucket;
+    private final Optional<String> lastPath;
+    private final Predicate<Blob> filter;
+
+    /**
+     * @param lastPath only objects after this name are listed
+     * @param filter objects to list
+     */
+    BucketLister(Storage client, String bucket, Optional<String> lastPath, Predicate<Blob> filter)
+    {
+        this.client = client;
+        this.bucket = bucket;
+        this.lastPath = lastPath;
+        this.filter = filter;
+    }
+
+    static class ListedObject
+    {
+        final String name;
+        final long size;
+        final long generation;
+        // milliseconds since the epoch
+        final long updateTime;
+
+        ListedObject(Blob blob)
+        {
+            this.name = blob.getName();
+            this.size = blob.getSize();
+            this.generation = blob.getGeneration();
+            this.updateTime = blob.getUpdateTime();
+        }
+    }
+
+    /**
+     * Returns the objects under {@code prefix}, in name order.
+     */
+    List<ListedObject> list(String prefix, int parallelism)
+    {
+        if (!overlaps(prefix)) {
+            return Collections.emptyList();
+        }
+        if (parallelism <= 1) {
+            return listShard(prefix);
+        }
+
+        long startedAt = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism,
+                new ThreadFactoryBuilder().setNameFormat("gcs-parquet-list-%d").setDaemon(true).build());
+        try {
+            List<ListedObject> objects = new ArrayList<>();
+            List<String> shards = Collections.singletonList(prefix);
+            for (int depth = 0; depth < MAX_SPLIT_DEPTH && !shards.isEmpty() && shards.size() < parallelism * SHARDS_PER_THREAD; depth++) {
+                List<Future<Split>> splits = new ArrayList<>();
+                for (String shard : shards) {
+                    splits.add(executor.submit(() -> split(shard)));
+                }
+                List<String> subPrefixes = new ArrayList<>();
+                for (Future<Split> future : splits) {
+                    Split split = future.get();
+                    objects.addAll(split.objects);
+                    subPrefixes.addAll(split.prefixes);
+                }
+                shards = subPrefixes;
+            }
+
+            List<Future<List<ListedObject>>> listings = new ArrayList<>();
+            for (String shard : shards) {
+                listings.add(executor.submit(() -> listShard(shard)));
+            }
+            for (Future<List<ListedObject>> listing : listings) {
+                objects.addAll(listing.get());
+            }
+            // concatenated sorted runs; merged in linear time
+            objects.sort(Comparator.comparing(object -> object.name, NAME_ORDER));
+            LOG.info("Listed {} objects of {} shards in {} ms", objects.size(), shards.size(), System.currentTimeMillis() - startedAt);
+            return objects;
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(ex);
+        }
+        catch (ExecutionException ex) {
+            throw Throwables.propagate(ex.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class Split
+    {
+        final List<ListedObject> objects = new ArrayList<>();
+        final List<String> prefixes = new ArrayList<>();
+    }
+
+    /**
+     * Lists the objects directly under {@code prefix} and its sub-prefixes.
+     */
+    private Split split(String prefix)
+    {
+        Split split = new Split();
+        // @see https://cloud.google.com/storage/docs/json_api/v1/objects/list
+        for (Blob blob : client.list(bucket, Storage.BlobListOption.prefix(prefix), Storage.BlobListOption.currentDirectory(), FIELDS).iterateAll()) {
+            if (blob.isDirectory()) {
+                if (overlaps(blob.getName())) {
+                    split.prefixes.add(blob.getName());
+                }
+            }
+            else if (accepts(blob)) {
+                split.objects.add(new ListedObject(blob));
+            }
+        }
+        return split;
+    }
+
+    /**
+     * Lists all objects under {@code prefix}.
+     */
+    private List<ListedObject> listShard(String prefix)
+    {
+        List<Storage.BlobListOption> options = new ArrayList<>();
+        options.add(Storage.BlobListOption.prefix(prefix));
+        options.add(FIELDS);
+        if (lastPath.isPresent() && lastPath.get().startsWith(prefix)) {
+            // starts after last_path
+            options.add(Storage.BlobListOption.pageToken(GcsParquetInput.base64Encode(lastPath.get())));
+        }
+        List<ListedObject> objects = new ArrayList<>();
+        for (Blob blob : client.list(bucket, options.toArray(new Storage.BlobListOption[0])).iterateAll()) {
+            if (accepts(blob)) {
+                objects.add(new ListedObject(blob));
+                LOG.debug("filename: {}", blob.getName());
+                LOG.debug("updated: {}", blob.getUpdateTime());
+            }
+        }
+        return objects;
+    }
+
+    private boolean accepts(Blob blob)
+    {
+        return (!lastPath.isPresent() || compareNames(blob.getName(), lastPath.get()) > 0) && filter.test(blob);
+    }
+
+    /**
+     * Returns true if some names under {@code prefix} are after {@code last_path}.
+     */
+    private boolean overlaps(String prefix)
+    {
+        return !lastPath.isPresent() || compareNames(prefix, lastPath.get()) > 0 || lastPath.get().startsWith(prefix);
+    }
+
+    static int compareNames(String a, String b)
+    {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int ca = a.codePointAt(i);
+            int cb = b.codePointAt(j);
+            if (ca != cb) {
+                return Integer.compare(ca, cb);
+            }
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+}
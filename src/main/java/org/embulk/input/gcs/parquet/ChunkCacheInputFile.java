@@ -0,0 +1,120 @@
+package org.embulk.input.gcs.parquet;
+
+import org.apache.parquet.io.InputFile;
+import org.apache.parquet.io.SeekableInputStream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An {@link InputFile} that reads the runs of column chunks of a plan through the
+ * {@link SharedCache}, so tasks that read the same row groups fetch them once.
+ *
+ * <p>A read in a run returns bytes of the cached run; other reads go to the file.
+ */
+class ChunkCacheInputFile
+        implements InputFile
+{
+    private final InputFile file;
+    private final SharedCache cache;
+    private final String id;
+    private final List<ReadAheadInputFile.Run> runs;
+
+    ChunkCacheInputFile(InputFile file, SharedCache cache, String id, List<List<ReadAheadInputFile.Run>> plan)
+    {
+        this.file = file;
+        this.cache = cache;
+        this.id = id;
+        this.runs = new ArrayList<>();
+        for (List<ReadAheadInputFile.Run> rowGroup : plan) {
+            runs.addAll(rowGroup);
+        }
+        runs.sort(Comparator.comparingLong(run -> run.offset));
+    }
+
+    @Override
+    public long getLength() throws IOException
+    {
+        return file.getLength();
+    }
+
+    @Override
+    public SeekableInputStream newStream() throws IOException
+    {
+        return new Stream(file.newStream());
+    }
+
+    @Override
+    public String toString()
+    {
+        return file.toString();
+    }
+
+    /**
+     * Returns the index of the first run that ends after {@code pos}.
+     */
+    private int search(long pos)
+    {
+        int low = 0;
+        int high = runs.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (runs.get(mid).end() <= pos) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private class Stream
+            extends PositionedInputStream
+    {
+        private final SeekableInputStream delegate;
+
+        Stream(SeekableInputStream delegate)
+        {
+            super(file);
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0) {
+                return 0;
+            }
+            int i = search(pos);
+            if (i < runs.size() && runs.get(i).offset <= pos) {
+                ReadAheadInputFile.Run run = runs.get(i);
+                byte[] data = cache.chunk(id, run.offset, run.length, () -> {
+                    byte[] bytes = new byte[run.length];
+                    delegate.seek(run.offset);
+                    delegate.readFully(bytes);
+                    return bytes;
+                });
+                int n = (int) Math.min(len, run.end() - pos);
+                System.arraycopy(data, (int) (pos - run.offset), b, off, n);
+                pos += n;
+                return n;
+            }
+            long limit = i < runs.size() ? runs.get(i).offset : Long.MAX_VALUE;
+            delegate.seek(pos);
+            int n = delegate.read(b, off, (int) Math.min(len, limit - pos));
+            if (n > 0) {
+                pos += n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            delegate.close();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.embulk.input.gcs.parquet;
+
+import com.google.cloud.storage.Storage;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.embulk.spi.unit.LocalFile;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * GCS clients shared by all tasks of the JVM.
+ *
+ * <p>Entries are keyed by credentials: the auth method, the service account and a digest of the
+ * contents of the key file, which is the same for all tasks of a transaction although each task
+ * gets its own copy of the file. A client keeps the access token of its credentials, so a token is
+ * fetched once rather than once per task. The key is computed once at transaction time and
+ * passed to the tasks, so the key file isn't hashed again for each file. Clients aren't verified
+ * here; {@link #validate} is called once at transaction time.
+ *
+ * <p>A JVM running transactions with many credentials keeps at most {@value #MAX_CLIENTS} clients,
+ * dropping the least recently used.
+ */
+class ClientRegistry
+{
+    interface Task
+    {
+        // digest of the credentials, set at transaction time
+        String getCredentialsKey();
+        void setCredentialsKey(String key);
+    }
+
+    static final int MAX_CLIENTS = 16;
+
+    private static final Cache<String, Storage> CLIENTS = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CLIENTS)
+            .build();
+
+    private ClientRegistry()
+    {
+    }
+
+    static Storage client(PluginTask task)
+    {
+        String key = task.getCredentialsKey();
+        if (key == null) {
+            // a task that wasn't configured by a transaction
+            key = credentialsKey(task);
+        }
+        try {
+            return CLIENTS.get(key, () -> AuthUtils.buildClient(task));
+        }
+        catch (ExecutionException | UncheckedExecutionException | ExecutionError ex) {
+            // e.g. the ConfigException of a key file that can't be read
+            throw Throwables.propagate(ex.getCause());
+        }
+    }
+
+    /**
+     * Makes {@code client} the client of the tasks whose credentials key is {@code credentialsKey}.
+     */
+    @VisibleForTesting
+    static void put(String credentialsKey, Storage client)
+    {
+        CLIENTS.put(credentialsKey, client);
+    }
+
+    /**
+     * Verifies the credentials of {@code task} against its bucket.
+     *
+     * @throws org.embulk.config.ConfigException if the bucket can't be listed
+     */
+    static void validate(PluginTask task)
+    {
+        AuthUtils.validate(client(task), task.getBucket());
+    }
+
+    static String credentialsKey(AuthUtils.Task task)
+    {
+        Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putString(task.getAuthMethod().name(), StandardCharsets.UTF_8).putByte((byte) 0);
+        hasher.putString(task.getServiceAccountEmail().orElse(""), StandardCharsets.UTF_8).putByte((byte) 0);
+        putContent(hasher, task.getJsonKeyfile());
+        putContent(hasher, task.getP12Keyfile());
+        return hasher.hash().toString();
+    }
+
+    private static void putContent(Hasher hasher, Optional<LocalFile> file)
+    {
+        if (file.isPresent()) {
+            byte[] content = file.get().getContent();
+            hasher.putInt(content.length).putBytes(content);
+        }
+        else {
+            hasher.putInt(-1);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.embulk.input.gcs.parquet;
+
+import org.apache.parquet.io.api.Binary;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams records decoded by a {@link ColumnBatchReader} in the {@code output_format}.
+ *
+ * <p>Timestamps are written as epoch numbers in the unit of the column, like the Avro encoder does.
+ *
+ * <p>Strings of dictionary encoded pages are encoded once per dictionary entry and row group, and
+ * copied into following rows that refer to the same entry.
+ */
+class ColumnBatchJsonInputStream
+        extends RecordInputStream
+{
+    private final ColumnBatchReader reader;
+    private final ColumnVector[] vectors;
+    // dictionary of each column the encoded values were made of, and the values encoded so far
+    private final Binary[][] dictionaries;
+    private final byte[][][] encodedValues;
+
+    private int lastRowGroup = -1;
+    private long rows;
+    private int row;
+    private int count;
+
+    /**
+     * @param reader a reader that starts at the row group of {@code start}
+     */
+    ColumnBatchJsonInputStream(ColumnBatchReader reader, RowWriter.OutputFormat format,
+                               Checkpoints checkpoints, Checkpoint start)
+    {
+        super(format, checkpoints, start);
+        this.reader = reader;
+        this.vectors = reader.getVectors();
+        List<String> names = new ArrayList<>();
+        for (ColumnVector vector : vectors) {
+            names.add(vector.name);
+        }
+        writer.setColumns(names);
+        this.dictionaries = new Binary[vectors.length][];
+        this.encodedValues = new byte[vectors.length][][];
+        this.rows = start.row;
+    }
+
+    @Override
+    protected boolean fill() throws IOException
+    {
+        if (row == count) {
+            count = reader.nextBatch();
+            row = 0;
+            if (count == 0) {
+                return false;
+            }
+            if (reader.getRowGroup() != lastRowGroup) {
+                // batches don't span row groups
+                lastRowGroup = reader.getRowGroup();
+                checkpoint(start.rowGroup + lastRowGroup, reader.getRowGroupStartingPos(), rows);
+            }
+        }
+        do {
+            writeRow(row++);
+            rows++;
+        }
+        while (row < count && !writer.isFull());
+        return true;
+    }
+
+    private void writeRow(int row)
+    {
+        writer.startRow(vectors.length);
+        for (int i = 0; i < vectors.length; i++) {
+            ColumnVector vector = vectors[i];
+            writer.column(i);
+            if (vector.nulls[row]) {
+                writer.writeNull();
+            }
+            else if (vector.booleans != null) {
+                writer.writeBoolean(vector.booleans[row]);
+            }
+            else if (vector.isDecimal()) {
+                writer.writeDecimal(vector.getDecimal(row));
+            }
+            else if (vector.longs != null) {
+                writer.writeLong(vector.longs[row]);
+            }
+            else if (vector.doubles != null) {
+                writer.writeDouble(vector.doubles[row]);
+            }
+            else if (vector.isTimestamp()) {
+                writer.writeLong(vector.getEpochMicros(row));
+            }
+            else if (vector.ids[row] >= 0) {
+                writer.writeRaw(encodedValue(i, vector.ids[row]));
+            }
+            else {
+                // binaries are UTF-8 strings; written without decoding them
+                writer.writeUtf8(vector.binaries[row].toByteBuffer());
+            }
+        }
+        writer.endRow();
+    }
+
+    private byte[] encodedValue(int column, int id)
+    {
+        Binary[] dictionary = vectors[column].getDictionary();
+        if (dictionaries[column] != dictionary) {
+            // the column chunk of a new row group
+            dictionaries[column] = dictionary;
+            encodedValues[column] = new byte[dictionary.length][];
+        }
+        byte[] encoded = encodedValues[column][id];
+        if (encoded == null) {
+            encoded = writer.encodeUtf8(dictionary[id].toByteBuffer());
+            encodedValues[column][id] = encoded;
+        }
+        return encoded;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        super.close();
+        reader.close();
+    }
+}
@@ -0,0 +1,80 @@
+package org.embulk.input.gcs.parquet;
+
+import org.embulk.spi.Column;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.json.JsonParser;
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.type.Type;
+import org.embulk.spi.type.Types;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Writes batches decoded by a {@link ColumnBatchReader} into a {@link PageBuilder}.
+ */
+class ColumnBatchPageWriter
+{
+    private final PageBuilder pageBuilder;
+    private final List<Column> columns;
+    private final JsonParser jsonParser = new JsonParser();
+
+    ColumnBatchPageWriter(PageBuilder pageBuilder, org.embulk.spi.Schema schema)
+    {
+        this.pageBuilder = pageBuilder;
+        this.columns = schema.getColumns();
+    }
+
+    void writeAll(ColumnBatchReader reader) throws IOException
+    {
+        ColumnVector[] vectors = new ColumnVector[columns.size()];
+        for (ColumnVector vector : reader.getVectors()) {
+            for (Column column : columns) {
+                if (column.getName().equals(vector.name)) {
+                    vectors[column.getIndex()] = vector;
+                }
+            }
+        }
+
+        int count;
+        while ((count = reader.nextBatch()) > 0) {
+            for (int row = 0; row < count; row++) {
+                for (Column column : columns) {
+                    ColumnVector vector = vectors[column.getIndex()];
+                    if (vector == null || vector.nulls[row]) {
+                        pageBuilder.setNull(column);
+                    }
+                    else {
+                        setValue(column, vector, row);
+                    }
+                }
+                pageBuilder.addRecord();
+            }
+        }
+    }
+
+    private void setValue(Column column, ColumnVector vector, int row)
+    {
+        Type type = column.getType();
+        if (Types.BOOLEAN.equals(type)) {
+            pageBuilder.setBoolean(column, vector.booleans[row]);
+        }
+        else if (Types.LONG.equals(type)) {
+            pageBuilder.setLong(column, vector.longs[row]);
+        }
+        else if (Types.DOUBLE.equals(type)) {
+            pageBuilder.setDouble(column, vector.isDecimal() ? vector.getDecimal(row).doubleValue() : vector.doubles[row]);
+        }
+        else if (Types.TIMESTAMP.equals(type)) {
+            long micros = vector.getEpochMicros(row);
+            pageBuilder.setTimestamp(column, Timestamp.ofEpochSecond(Math.floorDiv(micros, 1000000L), Math.floorMod(micros, 1000000L) * 1000L));
+        }
+        else if (Types.JSON.equals(type)) {
+            pageBuilder.setJson(column, jsonParser.parse(new String(vector.binaries[row].getBytes(), StandardCharsets.UTF_8)));
+        }
+        else {
+            pageBuilder.setString(column, vector.getString(row));
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.embulk.input.gcs.parquet;
+
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.column.ColumnReader;
+import org.apache.parquet.column.impl.ColumnReadStoreImpl;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.io.api.Converter;
+import org.apache.parquet.io.api.GroupConverter;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.Type;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Reads a flat Parquet file column by column.
+ *
+ * <p>Each row group is decoded through parquet-column's {@link ColumnReadStoreImpl} into
+ * {@link ColumnVector}s of up to {@code batchSize} rows, skipping Avro record materialization.
+ * Only files whose columns are all top-level, non-repeated primitives are supported; see
+ * {@link #supports(MessageType)}. Row groups are skipped by the file reader's filter, and the
+ * remaining rows are filtered batch by batch.
+ */
+class ColumnBatchReader
+        implements Closeable
+{
+    static final int DEFAULT_BATCH_SIZE = 4096;
+
+    private final ParquetFileReader fileReader;
+    private final MessageType schema;
+    private final String createdBy;
+    private final List<ColumnDescriptor> descriptors;
+    private final ColumnVector[] vectors;
+    private final ColumnVector[] outputVectors;
+    private final ColumnReader[] readers;
+    private final int batchSize;
+    private final FilterExpression.RowPredicate predicate;
+    private final int[] selection;
+    // hands the converter of each vector to the column readers, which pass it dictionaries
+    private final GroupConverter converter = new GroupConverter()
+    {
+        @Override
+        public Converter getConverter(int fieldIndex)
+        {
+            return vectors[fieldIndex].getConverter();
+        }
+
+        @Override
+        public void start()
+        {
+        }
+
+        @Override
+        public void end()
+        {
+        }
+    };
+
+    private int rowGroup = -1;
+    private long remainingInRowGroup;
+
+    /**
+     * @param schema the columns to decode
+     * @param outputSchema the columns returned by {@link #getVectors()}; a subset of {@code schema}
+     * @param filter rows that don't match are dropped from batches
+     */
+    ColumnBatchReader(ParquetFileReader fileReader, MessageType schema, MessageType outputSchema,
+                      Optional<FilterExpression> filter, int batchSize)
+    {
+        this.fileReader = fileReader;
+        this.schema = schema;
+        this.createdBy = fileReader.getFooter().getFileMetaData().getCreatedBy();
+        this.descriptors = schema.getColumns();
+        this.batchSize = batchSize;
+        this.vectors = new ColumnVector[descriptors.size()];
+        this.readers = new ColumnReader[descriptors.size()];
+        List<ColumnVector> outputs = new ArrayList<>();
+        for (int i = 0; i < vectors.length; i++) {
+            ColumnDescriptor descriptor = descriptors.get(i);
+            vectors[i] = new ColumnVector(descriptor, schema.getType(descriptor.getPath()).asPrimitiveType(), batchSize);
+            if (outputSchema.containsField(vectors[i].name)) {
+                outputs.add(vectors[i]);
+            }
+        }
+        this.outputVectors = outputs.toArray(new ColumnVector[0]);
+        this.predicate = filter.map(f -> f.bind(vectors)).orElse(null);
+        this.selection = predicate == null ? null : new int[batchSize];
+    }
+
+    static boolean supports(MessageType schema)
+    {
+        for (Type field : schema.getFields()) {
+            if (!field.isPrimitive() || field.isRepetition(Type.Repetition.REPEATED)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    MessageType getSchema()
+    {
+        return schema;
+    }
+
+    ColumnVector[] getVectors()
+    {
+        return outputVectors;
+    }
+
+    /**
+     * Returns the index of the row group of the last batch among the row groups that are read.
+     */
+    int getRowGroup()
+    {
+        return rowGroup;
+    }
+
+    /**
+     * Returns the file position of the row group of the last batch.
+     */
+    long getRowGroupStartingPos()
+    {
+        return fileReader.getRowGroups().get(rowGroup).getStartingPos();
+    }
+
+    /**
+     * Decodes the next batch into {@link #getVectors()}.
+     *
+     * @return the number of rows in the batch, or 0 at the end of the file
+     */
+    int nextBatch() throws IOException
+    {
+        while (true) {
+            while (remainingInRowGroup == 0) {
+                PageReadStore pages = fileReader.readNextRowGroup();
+                if (pages == null) {
+                    return 0;
+                }
+                rowGroup++;
+                ColumnReadStoreImpl store = new ColumnReadStoreImpl(pages, converter, schema, createdBy);
+                for (int i = 0; i < readers.length; i++) {
+                    readers[i] = store.getColumnReader(descriptors.get(i));
+                }
+                remainingInRowGroup = pages.getRowCount();
+            }
+            int count = (int) Math.min(batchSize, remainingInRowGroup);
+            for (int i = 0; i < vectors.length; i++) {
+                vectors[i].decode(readers[i], count);
+            }
+            remainingInRowGroup -= count;
+            if (predicate == null) {
+                return count;
+            }
+            int selected = select(count);
+            if (selected > 0) {
+                return selected;
+            }
+        }
+    }
+
+    private int select(int count)
+    {
+        int selected = 0;
+        for (int row = 0; row < count; row++) {
+            if (predicate.test(row)) {
+                selection[selected++] = row;
+            }
+        }
+        if (selected < count) {
+            for (ColumnVector vector : vectors) {
+                vector.compact(selection, selected);
+            }
+        }
+        return selected;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        fileReader.close();
+    }
+}
@@ -0,0 +1,270 @@
+package org.embulk.input.gcs.parquet;
+
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.column.ColumnReader;
+import org.apache.parquet.column.Dictionary;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.PrimitiveConverter;
+import org.apache.parquet.schema.OriginalType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A batch of decoded values of one flat Parquet column.
+ *
+ * <p>Values are kept in a primitive array that matches the physical type, so decoding a batch does
+ * not box or allocate per value. {@code nulls} holds the definition level check of each row.
+ *
+ * <p>Binary values of dictionary encoded pages are not decoded per row: the dictionary of the
+ * column chunk is decoded once, and {@code ids} holds the dictionary id of each row, so that
+ * consumers can convert each distinct value once per row group.
+ */
+class ColumnVector
+{
+    private static final long JULIAN_DAY_OF_EPOCH = 2440588L;
+    private static final long NANOS_PER_DAY = 86400L * 1000000000L;
+
+    final String name;
+    final PrimitiveType primitiveType;
+    final PrimitiveTypeName type;
+    final OriginalType originalType;
+    final int scale;
+
+    final boolean[] nulls;
+    final boolean[] booleans;
+    final long[] longs;
+    final double[] doubles;
+    final Binary[] binaries;
+    // dictionary id of each binary value, or -1 if its page isn't dictionary encoded
+    final int[] ids;
+
+    private final int maxDefinitionLevel;
+    private final PrimitiveConverter converter;
+
+    // values of the dictionary of the current column chunk
+    private Binary[] dictionary;
+    private String[] dictionaryStrings;
+    // row the converter writes to
+    private int position;
+
+    ColumnVector(ColumnDescriptor descriptor, PrimitiveType primitiveType, int capacity)
+    {
+        this.name = primitiveType.getName();
+        this.primitiveType = primitiveType;
+        this.type = descriptor.getType();
+        this.originalType = primitiveType.getOriginalType();
+        this.scale = primitiveType.getDecimalMetadata() == null ? 0 : primitiveType.getDecimalMetadata().getScale();
+        this.maxDefinitionLevel = descriptor.getMaxDefinitionLevel();
+        this.nulls = new boolean[capacity];
+        this.booleans = type == PrimitiveTypeName.BOOLEAN ? new boolean[capacity] : null;
+        this.longs = type == PrimitiveTypeName.INT32 || type == PrimitiveTypeName.INT64 ? new long[capacity] : null;
+        this.doubles = type == PrimitiveTypeName.FLOAT || type == PrimitiveTypeName.DOUBLE ? new double[capacity] : null;
+        this.binaries = booleans == null && longs == null && doubles == null ? new Binary[capacity] : null;
+        this.ids = binaries == null ? null : new int[capacity];
+        this.converter = binaries == null ? new PrimitiveConverter() {} : new BinaryConverter();
+    }
+
+    /**
+     * Returns the converter the column reader of this column is created with.
+     */
+    PrimitiveConverter getConverter()
+    {
+        return converter;
+    }
+
+    /**
+     * Returns the decoded dictionary that {@code ids} refer to. A new array is returned for each
+     * column chunk.
+     */
+    Binary[] getDictionary()
+    {
+        return dictionary;
+    }
+
+    /**
+     * Decodes the next {@code count} values of a column chunk.
+     */
+    void decode(ColumnReader reader, int count)
+    {
+        switch (type) {
+            case BOOLEAN:
+                for (int i = 0; i < count; i++) {
+                    if (!(nulls[i] = reader.getCurrentDefinitionLevel() < maxDefinitionLevel)) {
+                        booleans[i] = reader.getBoolean();
+                    }
+                    reader.consume();
+                }
+                break;
+            case INT32:
+                for (int i = 0; i < count; i++) {
+                    if (!(nulls[i] = reader.getCurrentDefinitionLevel() < maxDefinitionLevel)) {
+                        longs[i] = reader.getInteger();
+                    }
+                    reader.consume();
+                }
+                break;
+            case INT64:
+                for (int i = 0; i < count; i++) {
+                    if (!(nulls[i] = reader.getCurrentDefinitionLevel() < maxDefinitionLevel)) {
+                        longs[i] = reader.getLong();
+                    }
+                    reader.consume();
+                }
+                break;
+            case FLOAT:
+                for (int i = 0; i < count; i++) {
+                    if (!(nulls[i] = reader.getCurrentDefinitionLevel() < maxDefinitionLevel)) {
+                        doubles[i] = reader.getFloat();
+                    }
+                    reader.consume();
+                }
+                break;
+            case DOUBLE:
+                for (int i = 0; i < count; i++) {
+                    if (!(nulls[i] = reader.getCurrentDefinitionLevel() < maxDefinitionLevel)) {
+                        doubles[i] = reader.getDouble();
+                    }
+                    reader.consume();
+                }
+                break;
+            default:
+                for (int i = 0; i < count; i++) {
+                    if (!(nulls[i] = reader.getCurrentDefinitionLevel() < maxDefinitionLevel)) {
+                        // the converter gets the dictionary id instead of the value on dictionary pages
+                        position = i;
+                        reader.writeCurrentValueToConverter();
+                    }
+                    reader.consume();
+                }
+                break;
+        }
+    }
+
+    /**
+     * Moves the rows listed in {@code rows} (ascending) to the head of the batch.
+     */
+    void compact(int[] rows, int count)
+    {
+        for (int i = 0; i < count; i++) {
+            int row = rows[i];
+            nulls[i] = nulls[row];
+            if (booleans != null) {
+                booleans[i] = booleans[row];
+            }
+            else if (longs != null) {
+                longs[i] = longs[row];
+            }
+            else if (doubles != null) {
+                doubles[i] = doubles[row];
+            }
+            else {
+                binaries[i] = binaries[row];
+                ids[i] = ids[row];
+            }
+        }
+    }
+
+    boolean isTimestamp()
+    {
+        return type == PrimitiveTypeName.INT96
+                || originalType == OriginalType.DATE
+                || originalType == OriginalType.TIMESTAMP_MILLIS
+                || originalType == OriginalType.TIMESTAMP_MICROS;
+    }
+
+    boolean isDecimal()
+    {
+        return originalType == OriginalType.DECIMAL;
+    }
+
+    boolean isString()
+    {
+        return binaries != null && !isTimestamp() && !isDecimal();
+    }
+
+    /**
+     * Returns the value of a timestamp column as microseconds since the epoch.
+     */
+    long getEpochMicros(int i)
+    {
+        if (type == PrimitiveTypeName.INT96) {
+            // Impala style: nanoseconds of the day followed by the julian day, little endian
+            ByteBuffer buf = binaries[i].toByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+            long nanosOfDay = buf.getLong();
+            long julianDay = buf.getInt();
+            return ((julianDay - JULIAN_DAY_OF_EPOCH) * NANOS_PER_DAY + nanosOfDay) / 1000L;
+        }
+        else if (originalType == OriginalType.DATE) {
+            return longs[i] * 86400L * 1000000L;
+        }
+        else if (originalType == OriginalType.TIMESTAMP_MILLIS) {
+            return longs[i] * 1000L;
+        }
+        return longs[i];
+    }
+
+    /**
+     * Returns the value of a string column, decoded once per dictionary entry.
+     */
+    String getString(int i)
+    {
+        int id = ids[i];
+        if (id < 0) {
+            return new String(binaries[i].getBytes(), StandardCharsets.UTF_8);
+        }
+        String value = dictionaryStrings[id];
+        if (value == null) {
+            value = new String(binaries[i].getBytes(), StandardCharsets.UTF_8);
+            dictionaryStrings[id] = value;
+        }
+        return value;
+    }
+
+    BigDecimal getDecimal(int i)
+    {
+        if (longs != null) {
+            return BigDecimal.valueOf(longs[i], scale);
+        }
+        return new BigDecimal(new BigInteger(binaries[i].getBytes()), scale);
+    }
+
+    private class BinaryConverter
+            extends PrimitiveConverter
+    {
+        @Override
+        public boolean hasDictionarySupport()
+        {
+            return true;
+        }
+
+        @Override
+        public void setDictionary(Dictionary values)
+        {
+            dictionary = new Binary[values.getMaxId() + 1];
+            for (int id = 0; id < dictionary.length; id++) {
+                dictionary[id] = values.decodeToBinary(id);
+            }
+            dictionaryStrings = new String[dictionary.length];
+        }
+
+        @Override
+        public void addValueFromDictionary(int id)
+        {
+            binaries[position] = dictionary[id];
+            ids[position] = id;
+        }
+
+        @Override
+        public void addBinary(Binary value)
+        {
+            binaries[position] = value;
+            ids[position] = -1;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package org.embulk.input.gcs.parquet;
+
+import java.math.BigDecimal;
+
+/**
+ * Writes rows as comma-separated values in column order, one per line, without a header.
+ *
+ * <p>Strings are always quoted, with quotes doubled, so an empty string is {@code ""} and a null is
+ * an empty field. Nested values are written as quoted JSON text.
+ */
+class CsvRowWriter
+        extends RowWriter
+{
+    // only quotes are escaped, by doubling them
+    private static final byte[] QUOTES = new byte[128];
+
+    static {
+        QUOTES['"'] = '"';
+    }
+
+    // nested values are written here, then quoted
+    private final JsonRowWriter nested = new JsonRowWriter(0, false, true);
+    private int depth;
+
+    CsvRowWriter(long offset, boolean resumed)
+    {
+        super(offset, resumed);
+    }
+
+    @Override
+    protected void writeRowSeparator()
+    {
+        writeByte('\n');
+    }
+
+    @Override
+    protected void beginRow(int columns)
+    {
+    }
+
+    @Override
+    void column(int index)
+    {
+        if (index > 0) {
+            writeByte(',');
+        }
+    }
+
+    @Override
+    void endRow()
+    {
+    }
+
+    @Override
+    void writeNull()
+    {
+        if (depth > 0) {
+            nested.writeNull();
+        }
+    }
+
+    @Override
+    void writeBoolean(boolean value)
+    {
+        if (depth > 0) {
+            nested.writeBoolean(value);
+            return;
+        }
+        writeAscii(value ? "true" : "false");
+    }
+
+    @Override
+    void writeLong(long value)
+    {
+        if (depth > 0) {
+            nested.writeLong(value);
+            return;
+        }
+        writeDigits(value);
+    }
+
+    @Override
+    void writeFloat(float value)
+    {
+        if (depth > 0) {
+            nested.writeFloat(value);
+            return;
+        }
+        writeAscii(Float.toString(value));
+    }
+
+    @Override
+    void writeDouble(double value)
+    {
+        if (depth > 0) {
+            nested.writeDouble(value);
+            return;
+        }
+        writeAscii(Double.toString(value));
+    }
+
+    @Override
+    void writeDecimal(BigDecimal value)
+    {
+        if (depth > 0) {
+            nested.writeDecimal(value);
+            return;
+        }
+        writeAscii(value.toString());
+    }
+
+    @Override
+    void writeUtf8(byte[] bytes, int off, int len)
+    {
+        if (depth > 0) {
+            nested.writeUtf8(bytes, off, len);
+            return;
+        }
+        writeByte('"');
+        writeUtf8Bytes(bytes, off, len, QUOTES);
+        writeByte('"');
+    }
+
+    @Override
+    void writeString(CharSequence value)
+    {
+        if (depth > 0) {
+            nested.writeString(value);
+            return;
+        }
+        writeByte('"');
+        writeChars(value, QUOTES);
+        writeByte('"');
+    }
+
+    @Override
+    void writeLatin1(byte[] bytes, int off, int len)
+    {
+        if (depth > 0) {
+            nested.writeLatin1(bytes, off, len);
+            return;
+        }
+        writeByte('"');
+        writeLatin1Chars(bytes, off, len, QUOTES);
+        writeByte('"');
+    }
+
+    @Override
+    void startArray(int size)
+    {
+        depth++;
+        nested.startArray(size);
+    }
+
+    @Override
+    void element(int index)
+    {
+        nested.element(index);
+    }
+
+    @Override
+    void endArray()
+    {
+        nested.endArray();
+        endNested();
+    }
+
+    @Override
+    void startMap(int size)
+    {
+        depth++;
+        nested.startMap(size);
+    }
+
+    @Override
+    void key(int index, CharSequence key)
+    {
+        nested.key(index, key);
+    }
+
+    @Override
+    void endMap()
+    {
+        nested.endMap();
+        endNested();
+    }
+
+    @Override
+    protected RowWriter newWriter()
+    {
+        return new CsvRowWriter(0, false);
+    }
+
+    @Override
+    protected void writeEscape(int c)
+    {
+        require(2);
+        out[pos++] = (byte) c;
+        out[pos++] = (byte) c;
+    }
+
+    private void endNested()
+    {
+        if (--depth == 0) {
+            byte[] json = nested.drainAll();
+            writeByte('"');
+            writeUtf8Bytes(json, 0, json.length, QUOTES);
+            writeByte('"');
+        }
+    }
+}
@@ -3,29 +3,40 @@ package org.embulk.input.gcs.parquet;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonValue;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import org.embulk.config.Config;
 import org.embulk.config.ConfigDefault;
 import org.embulk.config.ConfigSource;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.AbstractList;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
-
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The files of a transaction and their tasks, in a layout that stays small for millions of files.
+ *
+ * <p>Paths are front-coded, each storing only what differs from the path before it, in blocks of
+ * {@link #BLOCK_SIZE} that are deflated on their own, so reading one path decompresses only its
+ * block. Sizes and byte ranges are primitive arrays indexed by entry, and tasks are the offsets of
+ * their first entries in the order of entries, which is the listing order unless a
+ * {@link TaskPlanner} reordered them. The task source holds the list as a single binary value;
+ * see {@link #toBytes()}.
+ */
 public class FileList
 {
     public interface Task
@@ -48,14 +59,25 @@ public class FileList
     {
         private int index;
         private long size;
+        private long start;
+        private long end;
+
+        public Entry(int index, long size)
+        {
+            this(index, size, 0L, -1L);
+        }
 
         @JsonCreator
         public Entry(
                 @JsonProperty("index") int index,
-                @JsonProperty("size") long size)
+                @JsonProperty("size") long size,
+                @JsonProperty("start") long start,
+                @JsonProperty("end") long end)
         {
             this.index = index;
             this.size = size;
+            this.start = start;
+            this.end = end;
         }
 
         @JsonProperty("index")
@@ -69,21 +91,49 @@ public class FileList
         {
             return size;
         }
+
+        // byte range of the row groups to read; see RowGroupSplitter
+        @JsonProperty("start")
+        public long getStart()
+        {
+            return start;
+        }
+
+        @JsonProperty("end")
+        public long getEnd()
+        {
+            return end;
+        }
+
+        @JsonIgnore
+        public boolean isWholeFile()
+        {
+            return end < 0;
+        }
     }
 
     public static class Builder
     {
-        private final ByteArrayOutputStream binary;
-        private final OutputStream stream;
-        private final List<Entry> entries = new ArrayList<>();
+        private final ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        // front-coded paths of the current block, compressed into binary when it is full
+        private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+        private final DataOutputStream blockOutput = new DataOutputStream(block);
+        private byte[] previous = new byte[0];
+        private int[] blockOffsets = new int[16];
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final byte[] deflateBuffer = new byte[BUFFER_SIZE];
+
+        private int count = 0;
+        private long[] sizes = new long[1024];
+        // allocated when the first range is added
+        private long[] starts = null;
+        private long[] ends = null;
         private String last = null;
 
         private int limitCount = Integer.MAX_VALUE;
         private long minTaskSize = 1;
         private Pattern pathMatchPattern;
 
-        private final ByteBuffer castBuffer = ByteBuffer.allocate(4);
-
         public Builder(Task task)
         {
             this();
@@ -102,13 +152,6 @@ public class FileList
 
         public Builder()
         {
-            binary = new ByteArrayOutputStream();
-            try {
-                stream = new BufferedOutputStream(new GZIPOutputStream(binary));
-            }
-            catch (IOException ex) {
-                throw Throwables.propagate(ex);
-            }
         }
 
         public Builder limitTotalFileCount(int limitCount)
@@ -131,7 +174,7 @@ public class FileList
 
         public int size()
         {
-            return entries.size();
+            return count;
         }
 
         public boolean needsMore()
@@ -141,6 +184,12 @@ public class FileList
 
         // returns true if this file is used
         public synchronized boolean add(String path, long size)
+        {
+            return add(path, size, 0L, -1L);
+        }
+
+        // adds the row groups of a file in the byte range [start, end)
+        public synchronized boolean add(String path, long size, long start, long end)
         {
             // TODO throw IllegalStateException if stream is already closed
 
@@ -152,18 +201,38 @@ public class FileList
                 return false;
             }
 
-            int index = entries.size();
-            entries.add(new Entry(index, size));
+            if (count == sizes.length) {
+                sizes = Arrays.copyOf(sizes, count * 2);
+                if (starts != null) {
+                    starts = grow(starts, count * 2, 0L);
+                    ends = grow(ends, count * 2, -1L);
+                }
+            }
+            if (starts == null && (start != 0L || end != -1L)) {
+                starts = grow(new long[0], sizes.length, 0L);
+                ends = grow(new long[0], sizes.length, -1L);
+            }
+            sizes[count] = size;
+            if (starts != null) {
+                starts[count] = start;
+                ends[count] = end;
+            }
 
             byte[] data = path.getBytes(StandardCharsets.UTF_8);
-            castBuffer.putInt(0, data.length);
+            int shared = count % BLOCK_SIZE == 0 ? 0 : sharedPrefix(previous, data);
             try {
-                stream.write(castBuffer.array());
-                stream.write(data);
+                writeVarLong(blockOutput, shared);
+                writeVarLong(blockOutput, data.length - shared);
+                blockOutput.write(data, shared, data.length - shared);
             }
             catch (IOException ex) {
                 throw Throwables.propagate(ex);
             }
+            previous = data;
+            count++;
+            if (count % BLOCK_SIZE == 0) {
+                flushBlock();
+            }
 
             last = path;
             return true;
@@ -171,53 +240,204 @@ public class FileList
 
         public synchronized FileList build()
         {
-            try {
-                stream.close();
+            if (block.size() > 0) {
+                flushBlock();
             }
-            catch (IOException ex) {
-                throw Throwables.propagate(ex);
+            deflater.end();
+            int blockCount = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            int[] blocks = Arrays.copyOf(blockOffsets, blockCount + 1);
+            blocks[blockCount] = binary.size();
+            return new FileList(count, binary.toByteArray(), blocks, Arrays.copyOf(sizes, count),
+                    starts == null ? null : Arrays.copyOf(starts, count),
+                    ends == null ? null : Arrays.copyOf(ends, count),
+                    null, getSplits(), Optional.ofNullable(last));
+        }
+
+        // deflates the block on its own, after its uncompressed length
+        private void flushBlock()
+        {
+            int b = (count - 1) / BLOCK_SIZE;
+            if (b + 1 >= blockOffsets.length) {
+                blockOffsets = Arrays.copyOf(blockOffsets, blockOffsets.length * 2);
+            }
+            blockOffsets[b] = binary.size();
+            byte[] raw = block.toByteArray();
+            binary.write(raw.length >>> 24);
+            binary.write(raw.length >>> 16);
+            binary.write(raw.length >>> 8);
+            binary.write(raw.length);
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+            while (!deflater.finished()) {
+                int n = deflater.deflate(deflateBuffer);
+                binary.write(deflateBuffer, 0, n);
             }
-            return new FileList(binary.toByteArray(), getSplits(entries), Optional.ofNullable(last));
+            block.reset();
         }
 
-        private List<List<Entry>> getSplits(List<Entry> all)
+        // returns the index of the first entry of each task, followed by the number of entries
+        private int[] getSplits()
         {
-            List<List<Entry>> tasks = new ArrayList<>();
+            int[] offsets = new int[16];
+            int tasks = 0;
             long currentTaskSize = 0;
-            List<Entry> currentTask = new ArrayList<>();
-            for (Entry entry : all) {
-                currentTask.add(entry);
-                currentTaskSize += entry.getSize();  // TODO consider to multiply the size by cost_per_byte, and add cost_per_file
-                if (currentTaskSize >= minTaskSize) {
-                    tasks.add(currentTask);
-                    currentTask = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                currentTaskSize += sizes[i];  // see TaskPlanner for tasks balanced by cost
+                if (currentTaskSize >= minTaskSize || i + 1 == count) {
+                    if (tasks + 2 > offsets.length) {
+                        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                    }
+                    offsets[++tasks] = i + 1;
                     currentTaskSize = 0;
                 }
             }
-            if (!currentTask.isEmpty()) {
-                tasks.add(currentTask);
+            return Arrays.copyOf(offsets, tasks + 1);
+        }
+
+        private static long[] grow(long[] array, int length, long fill)
+        {
+            long[] grown = Arrays.copyOf(array, length);
+            Arrays.fill(grown, array.length, length, fill);
+            return grown;
+        }
+
+        private static int sharedPrefix(byte[] a, byte[] b)
+        {
+            int n = Math.min(a.length, b.length);
+            int i = 0;
+            while (i < n && a[i] == b[i]) {
+                i++;
             }
-            return tasks;
+            return i;
         }
     }
 
+    // paths are stored in blocks of this many entries, so that reading one decompresses only its block
+    static final int BLOCK_SIZE = 128;
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAGIC = 0x47464c32;  // "GFL2"
+
+    private final int count;
     private final byte[] data;
-    private final List<List<Entry>> tasks;
+    // offset of each block in data, followed by the length of data
+    private final int[] blocks;
+    private final long[] sizes;
+    // null if all entries are whole files
+    private final long[] starts;
+    private final long[] ends;
+    // indexes of entries in the order of tasks; null if they are in the order they were added
+    private final int[] order;
+    // position in order of the first entry of each task, followed by the number of entries
+    private final int[] tasks;
     private final Optional<String> last;
 
-    @JsonCreator
-    @Deprecated
-    public FileList(
-            @JsonProperty("data") byte[] data,
-            @JsonProperty("tasks") List<List<Entry>> tasks,
-            @JsonProperty("last") Optional<String> last)
+    private FileList(int count, byte[] data, int[] blocks, long[] sizes, long[] starts, long[] ends, int[] order, int[] tasks, Optional<String> last)
     {
-        this.data = data.clone();
+        this.count = count;
+        this.data = data;
+        this.blocks = blocks;
+        this.sizes = sizes;
+        this.starts = starts;
+        this.ends = ends;
+        this.order = order;
         this.tasks = tasks;
         this.last = last;
     }
 
-    @JsonIgnore
+    /**
+     * Serializes the list into the task source as one binary value, instead of a JSON object
+     * per entry. Sizes, ranges and task offsets are written as variable-length integers.
+     */
+    @JsonValue
+    public byte[] toBytes()
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + count * 4 + 64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(count);
+            out.writeInt(data.length);
+            out.write(data);
+            for (int offset : blocks) {
+                out.writeInt(offset);
+            }
+            for (long size : sizes) {
+                writeVarLong(out, size);
+            }
+            out.writeBoolean(starts != null);
+            if (starts != null) {
+                for (int i = 0; i < count; i++) {
+                    writeVarLong(out, starts[i]);
+                    // -1 for whole files
+                    writeVarLong(out, ends[i] + 1);
+                }
+            }
+            out.writeBoolean(order != null);
+            if (order != null) {
+                for (int index : order) {
+                    writeVarLong(out, index);
+                }
+            }
+            out.writeInt(tasks.length);
+            for (int i = 1; i < tasks.length; i++) {
+                writeVarLong(out, tasks[i] - tasks[i - 1]);
+            }
+            out.writeBoolean(last.isPresent());
+            if (last.isPresent()) {
+                out.writeUTF(last.get());
+            }
+        }
+        catch (IOException ex) {
+            throw Throwables.propagate(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    @JsonCreator(mode = JsonCreator.Mode.DELEGATING)
+    public static FileList fromBytes(byte[] bytes)
+    {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            Preconditions.checkArgument(in.readInt() == MAGIC, "Unexpected file list format");
+            int count = in.readInt();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            int[] blocks = new int[(count + BLOCK_SIZE - 1) / BLOCK_SIZE + 1];
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i] = in.readInt();
+            }
+            long[] sizes = new long[count];
+            for (int i = 0; i < count; i++) {
+                sizes[i] = readVarLong(in);
+            }
+            long[] starts = null;
+            long[] ends = null;
+            if (in.readBoolean()) {
+                starts = new long[count];
+                ends = new long[count];
+                for (int i = 0; i < count; i++) {
+                    starts[i] = readVarLong(in);
+                    ends[i] = readVarLong(in) - 1;
+                }
+            }
+            int[] order = null;
+            if (in.readBoolean()) {
+                order = new int[count];
+                for (int i = 0; i < count; i++) {
+                    order[i] = (int) readVarLong(in);
+                }
+            }
+            int[] tasks = new int[in.readInt()];
+            for (int i = 1; i < tasks.length; i++) {
+                tasks[i] = tasks[i - 1] + (int) readVarLong(in);
+            }
+            Optional<String> last = in.readBoolean() ? Optional.of(in.readUTF()) : Optional.empty();
+            return new FileList(count, data, blocks, sizes, starts, ends, order, tasks, last);
+        }
+        catch (IOException ex) {
+            throw Throwables.propagate(ex);
+        }
+    }
+
     public Optional<String> getLastPath(Optional<String> lastLastPath)
     {
         if (last.isPresent()) {
@@ -226,113 +446,196 @@ public class FileList
         return lastLastPath;
     }
 
-    @JsonIgnore
     public int getTaskCount()
     {
-        return tasks.size();
+        return tasks.length - 1;
+    }
+
+    /**
+     * Returns the number of entries of all tasks.
+     */
+    public int getEntryCount()
+    {
+        return count;
+    }
+
+    /**
+     * Returns a list of the same entries assigned to other tasks.
+     *
+     * @param order indexes of all entries, grouped by task
+     * @param tasks position in {@code order} of the first entry of each task, followed by the number of entries
+     */
+    FileList reassign(int[] order, int[] tasks)
+    {
+        Preconditions.checkArgument(order.length == count && tasks[0] == 0 && tasks[tasks.length - 1] == count, "Tasks must cover all entries");
+        return new FileList(count, data, blocks, sizes, starts, ends, order, tasks, last);
     }
 
-    @JsonIgnore
     public List<String> get(int i)
     {
-        return new EntryList(data, tasks.get(i));
+        return new EntryList(data, blocks, order, tasks[i], tasks[i + 1]);
     }
 
-    @JsonProperty("data")
-    @Deprecated
-    public byte[] getData()
+    public List<Entry> getEntries(int i)
     {
-        return data.clone();
+        int from = tasks[i];
+        int to = tasks[i + 1];
+        return new AbstractList<Entry>()
+        {
+            @Override
+            public Entry get(int j)
+            {
+                int index = entryIndex(order, from + Preconditions.checkElementIndex(j, to - from));
+                return starts == null
+                        ? new Entry(index, sizes[index])
+                        : new Entry(index, sizes[index], starts[index], ends[index]);
+            }
+
+            @Override
+            public int size()
+            {
+                return to - from;
+            }
+        };
+    }
+
+    private static int entryIndex(int[] order, int position)
+    {
+        return order == null ? position : order[position];
     }
 
-    @JsonProperty("tasks")
-    @Deprecated
-    public List<List<Entry>> getTasks()
+    static void writeVarLong(DataOutput out, long value) throws IOException
     {
-        return tasks;
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
     }
 
-    @JsonProperty("last")
-    @Deprecated
-    public Optional<String> getLast()
+    static long readVarLong(DataInput in) throws IOException
     {
-        return last;
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
     }
 
+    /**
+     * The paths of the entries of a task. The block of the last path read is kept decompressed
+     * and decoded, so paths in the same block, read in any order, cost only their {@code String}.
+     */
     private static class EntryList
             extends AbstractList<String>
     {
         private final byte[] data;
-        private final List<Entry> entries;
-        private InputStream stream;
-        private int current;
-
-        private final ByteBuffer castBuffer = ByteBuffer.allocate(4);
-
-        public EntryList(byte[] data, List<Entry> entries)
+        private final int[] blocks;
+        private final int[] order;
+        private final int from;
+        private final int to;
+
+        private int current = -1;
+        private byte[] raw = new byte[BUFFER_SIZE];
+        // paths of the current block, one after another
+        private byte[] paths = new byte[BUFFER_SIZE];
+        private final int[] positions = new int[BLOCK_SIZE + 1];
+
+        EntryList(byte[] data, int[] blocks, int[] order, int from, int to)
         {
             this.data = data;
-            this.entries = entries;
-            try {
-                this.stream = new BufferedInputStream(new GZIPInputStream(new ByteArrayInputStream(data)));
-            }
-            catch (IOException ex) {
-                throw Throwables.propagate(ex);
-            }
-            this.current = 0;
+            this.blocks = blocks;
+            this.order = order;
+            this.from = from;
+            this.to = to;
         }
 
         @Override
         public synchronized String get(int i)
         {
-            Entry e = entries.get(i);
-            if (e.getIndex() < current) {
-                // rewind to the head
-                try {
-                    stream.close();
-                    stream = new BufferedInputStream(new GZIPInputStream(new ByteArrayInputStream(data)));
-                }
-                catch (IOException ex) {
-                    throw Throwables.propagate(ex);
-                }
-                current = 0;
+            int index = entryIndex(order, from + Preconditions.checkElementIndex(i, to - from));
+            if (index / BLOCK_SIZE != current) {
+                load(index / BLOCK_SIZE);
             }
-
-            while (current < e.getIndex()) {
-                readNext();
-            }
-            // now current == e.getIndex()
-            return readNextString();
+            int j = index % BLOCK_SIZE;
+            return new String(paths, positions[j], positions[j + 1] - positions[j], StandardCharsets.UTF_8);
         }
 
         @Override
         public int size()
         {
-            return entries.size();
+            return to - from;
         }
 
-        private byte[] readNext()
+        private void load(int b)
         {
+            int offset = blocks[b];
+            int length = ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16) | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+            if (raw.length < length) {
+                raw = new byte[Math.max(length, raw.length * 2)];
+            }
+            Inflater inflater = new Inflater(true);
             try {
-                int n = stream.read(castBuffer.array());
-                Preconditions.checkArgument(n == castBuffer.capacity(), "Unexpected stream close, expecting %s bytes, but received %s bytes", castBuffer.capacity(), n);
-                int len = castBuffer.getInt(0);
-                byte[] b = new byte[len];  // here should be able to use a pooled buffer because read data is ignored if readNextString doesn't call this method
-                n = stream.read(b);
-                Preconditions.checkArgument(n == len, "Unexpected stream close, expecting %s bytes, but received %s bytes", castBuffer.capacity(), n);
-
-                current++;
-
-                return b;
+                inflater.setInput(data, offset + 4, blocks[b + 1] - offset - 4);
+                int n = 0;
+                while (n < length) {
+                    int read = inflater.inflate(raw, n, length - n);
+                    Preconditions.checkArgument(read > 0, "Unexpected end of block %s, expecting %s bytes, but received %s bytes", b, length, n);
+                    n += read;
+                }
             }
-            catch (IOException ex) {
+            catch (DataFormatException ex) {
                 throw Throwables.propagate(ex);
             }
+            finally {
+                inflater.end();
+            }
+
+            // restores each path from the shared prefix of the path before it and its suffix
+            int cursor = 0;
+            int position = 0;
+            int j = 0;
+            for (; cursor < length; j++) {
+                int shared = readVarInt(raw, cursor);
+                cursor += varIntLength(shared);
+                int suffix = readVarInt(raw, cursor);
+                cursor += varIntLength(suffix);
+                if (position + shared + suffix > paths.length) {
+                    paths = Arrays.copyOf(paths, Math.max(position + shared + suffix, paths.length * 2));
+                }
+                System.arraycopy(paths, j == 0 ? 0 : positions[j - 1], paths, position, shared);
+                System.arraycopy(raw, cursor, paths, position + shared, suffix);
+                cursor += suffix;
+                positions[j] = position;
+                position += shared + suffix;
+            }
+            positions[j] = position;
+            current = b;
         }
 
-        private String readNextString()
+        private static int readVarInt(byte[] b, int offset)
         {
-            return new String(readNext(), StandardCharsets.UTF_8);
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte v = b[offset++];
+                value |= (v & 0x7f) << shift;
+                if (v >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        private static int varIntLength(int value)
+        {
+            int n = 1;
+            while ((value & ~0x7f) != 0) {
+                value >>>= 7;
+                n++;
+            }
+            return n;
         }
     }
 }
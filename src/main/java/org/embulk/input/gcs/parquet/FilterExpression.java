@@ -0,0 +1,719 @@
+package org.embulk.input.gcs.parquet;
+
+import org.apache.parquet.filter2.predicate.FilterApi;
+import org.apache.parquet.filter2.predicate.FilterPredicate;
+import org.apache.parquet.filter2.predicate.Operators;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.OriginalType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.Type;
+import org.embulk.config.ConfigException;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A row filter written in a small SQL-like syntax, for example
+ * {@code event_date >= '2026-01-01' AND country IN ('DE', 'FR')}.
+ *
+ * <p>Supported are {@code = != <> < <= > >=}, {@code IN (...)}, {@code IS [NOT] NULL},
+ * {@code AND}, {@code OR}, {@code NOT} and parentheses. Literals are converted to the physical type
+ * of the column in each file, so {@code DATE} and {@code TIMESTAMP_*} columns accept ISO-8601 strings.
+ * Comparisons never match null values, with or without {@code NOT}: as in SQL, a comparison with
+ * null is unknown and so is its negation, so {@code NOT (x = 1)} doesn't match a null {@code x}.
+ * {@code NOT} is pushed down to the conditions by De Morgan's laws, which hold in this
+ * three-valued logic, and each condition is replaced by its negation.
+ */
+class FilterExpression
+{
+    private final Node root;
+
+    private FilterExpression(Node root)
+    {
+        this.root = root;
+    }
+
+    static FilterExpression parse(String expression)
+    {
+        Parser parser = new Parser(expression);
+        Node root = parser.parseOr();
+        parser.expectEnd();
+        return new FilterExpression(root);
+    }
+
+    /**
+     * Names of the columns the expression refers to.
+     */
+    Set<String> getColumns()
+    {
+        Set<String> columns = new LinkedHashSet<>();
+        root.collectColumns(columns);
+        return columns;
+    }
+
+    /**
+     * Compiles the expression to a predicate that parquet evaluates against row group statistics,
+     * dictionary pages and records.
+     */
+    FilterPredicate toPredicate(MessageType schema)
+    {
+        return root.toPredicate(schema);
+    }
+
+    /**
+     * Binds the expression to decoded column vectors for row-level evaluation.
+     */
+    RowPredicate bind(ColumnVector[] vectors)
+    {
+        return root.bind(vectors);
+    }
+
+    interface RowPredicate
+    {
+        boolean test(int row);
+    }
+
+    private enum Operator
+    {
+        EQ, NOT_EQ, LT, LT_EQ, GT, GT_EQ;
+
+        Operator negate()
+        {
+            switch (this) {
+                case EQ:
+                    return NOT_EQ;
+                case NOT_EQ:
+                    return EQ;
+                case LT:
+                    return GT_EQ;
+                case LT_EQ:
+                    return GT;
+                case GT:
+                    return LT_EQ;
+                default:
+                    return LT;
+            }
+        }
+
+        boolean matches(int cmp)
+        {
+            switch (this) {
+                case EQ:
+                    return cmp == 0;
+                case NOT_EQ:
+                    return cmp != 0;
+                case LT:
+                    return cmp < 0;
+                case LT_EQ:
+                    return cmp <= 0;
+                case GT:
+                    return cmp > 0;
+                default:
+                    return cmp >= 0;
+            }
+        }
+    }
+
+    private interface Node
+    {
+        void collectColumns(Set<String> columns);
+
+        FilterPredicate toPredicate(MessageType schema);
+
+        RowPredicate bind(ColumnVector[] vectors);
+
+        /**
+         * Returns the node that matches the rows for which this node is false, but not those for
+         * which it is unknown.
+         */
+        Node negate();
+    }
+
+    private static class And
+            implements Node
+    {
+        private final Node left;
+        private final Node right;
+
+        And(Node left, Node right)
+        {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public void collectColumns(Set<String> columns)
+        {
+            left.collectColumns(columns);
+            right.collectColumns(columns);
+        }
+
+        @Override
+        public FilterPredicate toPredicate(MessageType schema)
+        {
+            return FilterApi.and(left.toPredicate(schema), right.toPredicate(schema));
+        }
+
+        @Override
+        public RowPredicate bind(ColumnVector[] vectors)
+        {
+            RowPredicate l = left.bind(vectors);
+            RowPredicate r = right.bind(vectors);
+            return row -> l.test(row) && r.test(row);
+        }
+
+        @Override
+        public Node negate()
+        {
+            return new Or(left.negate(), right.negate());
+        }
+    }
+
+    private static class Or
+            implements Node
+    {
+        private final Node left;
+        private final Node right;
+
+        Or(Node left, Node right)
+        {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public void collectColumns(Set<String> columns)
+        {
+            left.collectColumns(columns);
+            right.collectColumns(columns);
+        }
+
+        @Override
+        public FilterPredicate toPredicate(MessageType schema)
+        {
+            return FilterApi.or(left.toPredicate(schema), right.toPredicate(schema));
+        }
+
+        @Override
+        public RowPredicate bind(ColumnVector[] vectors)
+        {
+            RowPredicate l = left.bind(vectors);
+            RowPredicate r = right.bind(vectors);
+            return row -> l.test(row) || r.test(row);
+        }
+
+        @Override
+        public Node negate()
+        {
+            return new And(left.negate(), right.negate());
+        }
+    }
+
+    private static class IsNull
+            implements Node
+    {
+        private final String column;
+        // IS NOT NULL
+        private final boolean not;
+
+        IsNull(String column, boolean not)
+        {
+            this.column = column;
+            this.not = not;
+        }
+
+        @Override
+        public void collectColumns(Set<String> columns)
+        {
+            columns.add(column);
+        }
+
+        @Override
+        public FilterPredicate toPredicate(MessageType schema)
+        {
+            PrimitiveType type = resolve(schema, column);
+            switch (type.getPrimitiveTypeName()) {
+                case BOOLEAN:
+                    return isNull(FilterApi.booleanColumn(column));
+                case INT32:
+                    return isNull(FilterApi.intColumn(column));
+                case INT64:
+                    return isNull(FilterApi.longColumn(column));
+                case FLOAT:
+                    return isNull(FilterApi.floatColumn(column));
+                case DOUBLE:
+                    return isNull(FilterApi.doubleColumn(column));
+                default:
+                    return isNull(FilterApi.binaryColumn(column));
+            }
+        }
+
+        private <T extends Comparable<T>, C extends Operators.Column<T> & Operators.SupportsEqNotEq> FilterPredicate isNull(C column)
+        {
+            return not ? FilterApi.notEq(column, null) : FilterApi.eq(column, null);
+        }
+
+        @Override
+        public RowPredicate bind(ColumnVector[] vectors)
+        {
+            ColumnVector vector = find(vectors, column);
+            return row -> vector.nulls[row] != not;
+        }
+
+        @Override
+        public Node negate()
+        {
+            return new IsNull(column, !not);
+        }
+    }
+
+    private static class Compare
+            implements Node
+    {
+        private final String column;
+        private final Operator op;
+        private final Object literal;
+
+        Compare(String column, Operator op, Object literal)
+        {
+            this.column = column;
+            this.op = op;
+            this.literal = literal;
+        }
+
+        @Override
+        public void collectColumns(Set<String> columns)
+        {
+            columns.add(column);
+        }
+
+        @Override
+        public FilterPredicate toPredicate(MessageType schema)
+        {
+            PrimitiveType type = resolve(schema, column);
+            Object value = convert(type, column, literal);
+            switch (type.getPrimitiveTypeName()) {
+                case BOOLEAN:
+                    Operators.BooleanColumn booleanColumn = FilterApi.booleanColumn(column);
+                    if (op == Operator.EQ) {
+                        return FilterApi.eq(booleanColumn, (Boolean) value);
+                    }
+                    if (op == Operator.NOT_EQ) {
+                        return FilterApi.and(FilterApi.notEq(booleanColumn, (Boolean) value), FilterApi.notEq(booleanColumn, (Boolean) null));
+                    }
+                    throw new ConfigException(String.format("Filter column '%s' is boolean and supports only = and !=", column));
+                case INT32:
+                    return compare(FilterApi.intColumn(column), op, (Integer) value);
+                case INT64:
+                    return compare(FilterApi.longColumn(column), op, (Long) value);
+                case FLOAT:
+                    return compare(FilterApi.floatColumn(column), op, (Float) value);
+                case DOUBLE:
+                    return compare(FilterApi.doubleColumn(column), op, (Double) value);
+                default:
+                    return compare(FilterApi.binaryColumn(column), op, (Binary) value);
+            }
+        }
+
+        @Override
+        public RowPredicate bind(ColumnVector[] vectors)
+        {
+            ColumnVector vector = find(vectors, column);
+            Object value = convert(vector.primitiveType, column, literal);
+            if (vector.booleans != null) {
+                boolean b = (Boolean) value;
+                return row -> !vector.nulls[row] && op.matches(Boolean.compare(vector.booleans[row], b));
+            }
+            else if (vector.longs != null) {
+                long l = ((Number) value).longValue();
+                return row -> !vector.nulls[row] && op.matches(Long.compare(vector.longs[row], l));
+            }
+            else if (vector.doubles != null) {
+                double d = ((Number) value).doubleValue();
+                return row -> !vector.nulls[row] && op.matches(Double.compare(vector.doubles[row], d));
+            }
+            Binary binary = (Binary) value;
+            return row -> !vector.nulls[row] && op.matches(compareUnsigned(vector.binaries[row], binary));
+        }
+
+        @Override
+        public Node negate()
+        {
+            // still never matches null
+            return new Compare(column, op.negate(), literal);
+        }
+
+        private static <T extends Comparable<T>, C extends Operators.Column<T> & Operators.SupportsLtGt> FilterPredicate compare(C column, Operator op, T value)
+        {
+            switch (op) {
+                case EQ:
+                    return FilterApi.eq(column, value);
+                case NOT_EQ:
+                    return FilterApi.and(FilterApi.notEq(column, value), FilterApi.notEq(column, null));
+                case LT:
+                    return FilterApi.lt(column, value);
+                case LT_EQ:
+                    return FilterApi.ltEq(column, value);
+                case GT:
+                    return FilterApi.gt(column, value);
+                default:
+                    return FilterApi.gtEq(column, value);
+            }
+        }
+    }
+
+    private static PrimitiveType resolve(MessageType schema, String column)
+    {
+        if (!schema.containsField(column)) {
+            throw new ConfigException(String.format("Filter column '%s' doesn't exist in schema %s", column, schema));
+        }
+        Type type = schema.getType(column);
+        if (!type.isPrimitive() || type.isRepetition(Type.Repetition.REPEATED)) {
+            throw new ConfigException(String.format("Filter column '%s' must be a non-repeated primitive column", column));
+        }
+        return type.asPrimitiveType();
+    }
+
+    private static ColumnVector find(ColumnVector[] vectors, String column)
+    {
+        for (ColumnVector vector : vectors) {
+            if (vector.name.equals(column)) {
+                return vector;
+            }
+        }
+        throw new ConfigException(String.format("Filter column '%s' is not read", column));
+    }
+
+    /**
+     * Converts a literal to the Java type parquet uses for the physical type of the column.
+     */
+    static Object convert(PrimitiveType type, String column, Object literal)
+    {
+        OriginalType originalType = type.getOriginalType();
+        try {
+            switch (type.getPrimitiveTypeName()) {
+                case BOOLEAN:
+                    if (literal instanceof Boolean) {
+                        return literal;
+                    }
+                    break;
+                case INT32:
+                    if (originalType == OriginalType.DATE && literal instanceof String) {
+                        return Math.toIntExact(LocalDate.parse((String) literal).toEpochDay());
+                    }
+                    if (originalType == OriginalType.DECIMAL && literal instanceof BigDecimal) {
+                        return unscaled(type, (BigDecimal) literal).intValueExact();
+                    }
+                    if (literal instanceof BigDecimal) {
+                        return ((BigDecimal) literal).intValueExact();
+                    }
+                    break;
+                case INT64:
+                    if (originalType == OriginalType.TIMESTAMP_MILLIS && literal instanceof String) {
+                        return parseInstant((String) literal).toEpochMilli();
+                    }
+                    if (originalType == OriginalType.TIMESTAMP_MICROS && literal instanceof String) {
+                        Instant instant = parseInstant((String) literal);
+                        return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1000000L), instant.getNano() / 1000L);
+                    }
+                    if (originalType == OriginalType.DECIMAL && literal instanceof BigDecimal) {
+                        return unscaled(type, (BigDecimal) literal).longValueExact();
+                    }
+                    if (literal instanceof BigDecimal) {
+                        return ((BigDecimal) literal).longValueExact();
+                    }
+                    break;
+                case FLOAT:
+                    if (literal instanceof BigDecimal) {
+                        return ((BigDecimal) literal).floatValue();
+                    }
+                    break;
+                case DOUBLE:
+                    if (literal instanceof BigDecimal) {
+                        return ((BigDecimal) literal).doubleValue();
+                    }
+                    break;
+                case BINARY:
+                case FIXED_LEN_BYTE_ARRAY:
+                    if (originalType != OriginalType.DECIMAL && literal instanceof String) {
+                        return Binary.fromString((String) literal);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        catch (ArithmeticException | DateTimeParseException ex) {
+            throw new ConfigException(String.format("Invalid filter value %s for column '%s' of type %s", literal, column, type), ex);
+        }
+        throw new ConfigException(String.format("Filter value %s can't be compared with column '%s' of type %s", literal, column, type));
+    }
+
+    private static BigInteger unscaled(PrimitiveType type, BigDecimal value)
+    {
+        return value.setScale(type.getDecimalMetadata().getScale()).unscaledValue();
+    }
+
+    private static Instant parseInstant(String value)
+    {
+        if (value.length() == 10) {
+            return LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toInstant();
+        }
+        if (value.endsWith("Z") || value.matches(".*[+-]\\d\\d:\\d\\d$")) {
+            return OffsetDateTime.parse(value).toInstant();
+        }
+        return LocalDateTime.parse(value.replace(' ', 'T')).toInstant(ZoneOffset.UTC);
+    }
+
+    static int compareUnsigned(Binary left, Binary right)
+    {
+        byte[] a = left.getBytesUnsafe();
+        byte[] b = right.getBytesUnsafe();
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    private static class Parser
+    {
+        private final String text;
+        private final List<String> tokens;
+        private int position;
+
+        Parser(String text)
+        {
+            this.text = text;
+            this.tokens = tokenize(text);
+        }
+
+        Node parseOr()
+        {
+            Node node = parseAnd();
+            while (acceptKeyword("OR")) {
+                node = new Or(node, parseAnd());
+            }
+            return node;
+        }
+
+        private Node parseAnd()
+        {
+            Node node = parseNot();
+            while (acceptKeyword("AND")) {
+                node = new And(node, parseNot());
+            }
+            return node;
+        }
+
+        private Node parseNot()
+        {
+            if (acceptKeyword("NOT")) {
+                return parseNot().negate();
+            }
+            if (accept("(")) {
+                Node node = parseOr();
+                expect(")");
+                return node;
+            }
+            return parseCondition();
+        }
+
+        private Node parseCondition()
+        {
+            String column = identifier(next());
+            if (acceptKeyword("IS")) {
+                boolean not = acceptKeyword("NOT");
+                expectKeyword("NULL");
+                return new IsNull(column, not);
+            }
+            boolean notIn = acceptKeyword("NOT");
+            if (acceptKeyword("IN")) {
+                expect("(");
+                Node node = new Compare(column, Operator.EQ, literal(next()));
+                while (accept(",")) {
+                    node = new Or(node, new Compare(column, Operator.EQ, literal(next())));
+                }
+                expect(")");
+                return notIn ? node.negate() : node;
+            }
+            if (notIn) {
+                throw error("IN");
+            }
+            Operator op = operator(next());
+            return new Compare(column, op, literal(next()));
+        }
+
+        void expectEnd()
+        {
+            if (position < tokens.size()) {
+                throw error("end of expression");
+            }
+        }
+
+        private String next()
+        {
+            if (position >= tokens.size()) {
+                throw error("more tokens");
+            }
+            return tokens.get(position++);
+        }
+
+        private boolean accept(String token)
+        {
+            if (position < tokens.size() && tokens.get(position).equals(token)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean acceptKeyword(String keyword)
+        {
+            if (position < tokens.size() && tokens.get(position).equalsIgnoreCase(keyword)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String token)
+        {
+            if (!accept(token)) {
+                throw error("'" + token + "'");
+            }
+        }
+
+        private void expectKeyword(String keyword)
+        {
+            if (!acceptKeyword(keyword)) {
+                throw error(keyword);
+            }
+        }
+
+        private ConfigException error(String expected)
+        {
+            String found = position < tokens.size() ? "'" + tokens.get(position) + "'" : "end of expression";
+            return new ConfigException(String.format("Invalid filter '%s': expected %s but found %s", text, expected, found));
+        }
+
+        private String identifier(String token)
+        {
+            if (token.startsWith("`") || token.startsWith("\"")) {
+                return token.substring(1, token.length() - 1);
+            }
+            if (!Character.isLetter(token.charAt(0)) && token.charAt(0) != '_') {
+                position--;
+                throw error("a column name");
+            }
+            return token;
+        }
+
+        private Operator operator(String token)
+        {
+            switch (token) {
+                case "=":
+                case "==":
+                    return Operator.EQ;
+                case "!=":
+                case "<>":
+                    return Operator.NOT_EQ;
+                case "<":
+                    return Operator.LT;
+                case "<=":
+                    return Operator.LT_EQ;
+                case ">":
+                    return Operator.GT;
+                case ">=":
+                    return Operator.GT_EQ;
+                default:
+                    position--;
+                    throw error("a comparison operator");
+            }
+        }
+
+        private Object literal(String token)
+        {
+            if (token.startsWith("'")) {
+                return token.substring(1, token.length() - 1).replace("''", "'");
+            }
+            String lower = token.toLowerCase(Locale.ENGLISH);
+            if (lower.equals("true") || lower.equals("false")) {
+                return Boolean.valueOf(lower);
+            }
+            try {
+                return new BigDecimal(token);
+            }
+            catch (NumberFormatException ex) {
+                position--;
+                throw error("a literal");
+            }
+        }
+
+        private static List<String> tokenize(String text)
+        {
+            List<String> tokens = new ArrayList<>();
+            int i = 0;
+            while (i < text.length()) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                }
+                else if (c == '\'' || c == '`' || c == '"') {
+                    int end = i + 1;
+                    while (true) {
+                        if (end >= text.length()) {
+                            throw new ConfigException(String.format("Invalid filter '%s': unterminated quote", text));
+                        }
+                        if (text.charAt(end) == c) {
+                            if (c == '\'' && end + 1 < text.length() && text.charAt(end + 1) == '\'') {
+                                end += 2;
+                                continue;
+                            }
+                            break;
+                        }
+                        end++;
+                    }
+                    tokens.add(text.substring(i, end + 1));
+                    i = end + 1;
+                }
+                else if (c == '(' || c == ')' || c == ',') {
+                    tokens.add(String.valueOf(c));
+                    i++;
+                }
+                else if (c == '=' || c == '!' || c == '<' || c == '>') {
+                    int end = i + 1;
+                    if (end < text.length() && (text.charAt(end) == '=' || (c == '<' && text.charAt(end) == '>'))) {
+                        end++;
+                    }
+                    tokens.add(text.substring(i, end));
+                    i = end;
+                }
+                else {
+                    int end = i;
+                    while (end < text.length() && !Character.isWhitespace(text.charAt(end)) && "()'`\",=!<>".indexOf(text.charAt(end)) < 0) {
+                        end++;
+                    }
+                    tokens.add(text.substring(i, end));
+                    i = end;
+                }
+            }
+            return tokens;
+        }
+    }
+}
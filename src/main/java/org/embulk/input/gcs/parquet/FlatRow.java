@@ -0,0 +1,230 @@
+package org.embulk.input.gcs.parquet;
+
+import org.apache.parquet.column.Dictionary;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.Converter;
+import org.apache.parquet.io.api.GroupConverter;
+import org.apache.parquet.io.api.PrimitiveConverter;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.OriginalType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.apache.parquet.schema.Type;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A record of a flat Parquet schema, reused for all records of a reader.
+ *
+ * <p>Values are kept in slots typed by the physical type of each column, so that reading a record
+ * neither allocates a record nor boxes its values: booleans and integers in {@code long}s, floating
+ * point numbers in {@code double}s, and binaries as the {@link Binary} of the page or of the
+ * dictionary, which is decoded once per column chunk. A record is valid until the next one is read.
+ *
+ * <p>Only schemas whose columns are all top-level, non-repeated primitives are supported; see
+ * {@link #supports(MessageType)}.
+ */
+class FlatRow
+{
+    private final List<String> names;
+    private final PrimitiveTypeName[] types;
+    private final boolean[] strings;
+
+    private final boolean[] nulls;
+    private final long[] longs;
+    private final double[] doubles;
+    private final Binary[] binaries;
+
+    private final GroupConverter converter;
+
+    FlatRow(MessageType schema)
+    {
+        int size = schema.getFieldCount();
+        List<String> columnNames = new ArrayList<>();
+        this.types = new PrimitiveTypeName[size];
+        this.strings = new boolean[size];
+        this.nulls = new boolean[size];
+        this.longs = new long[size];
+        this.doubles = new double[size];
+        this.binaries = new Binary[size];
+        Converter[] converters = new Converter[size];
+        for (int i = 0; i < size; i++) {
+            PrimitiveType field = schema.getType(i).asPrimitiveType();
+            columnNames.add(field.getName());
+            types[i] = field.getPrimitiveTypeName();
+            // the same as AvroSchemaConverter: other binaries are Avro bytes
+            strings[i] = types[i] == PrimitiveTypeName.BINARY
+                    && (field.getOriginalType() == OriginalType.UTF8 || field.getOriginalType() == OriginalType.ENUM);
+            converters[i] = new FieldConverter(i);
+        }
+        this.names = Collections.unmodifiableList(columnNames);
+        this.converter = new GroupConverter()
+        {
+            @Override
+            public Converter getConverter(int fieldIndex)
+            {
+                return converters[fieldIndex];
+            }
+
+            @Override
+            public void start()
+            {
+                // a column without a value is null
+                Arrays.fill(nulls, true);
+            }
+
+            @Override
+            public void end()
+            {
+            }
+        };
+    }
+
+    /**
+     * Returns true if records of {@code schema} can be read into a {@link FlatRow}. INT96 columns
+     * are not supported, like Avro doesn't.
+     */
+    static boolean supports(MessageType schema)
+    {
+        for (Type field : schema.getFields()) {
+            if (!field.isPrimitive() || field.isRepetition(Type.Repetition.REPEATED)
+                    || field.asPrimitiveType().getPrimitiveTypeName() == PrimitiveTypeName.INT96) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    GroupConverter getConverter()
+    {
+        return converter;
+    }
+
+    List<String> getNames()
+    {
+        return names;
+    }
+
+    PrimitiveTypeName getType(int i)
+    {
+        return types[i];
+    }
+
+    /**
+     * Returns true if the binary column {@code i} holds UTF-8 strings rather than bytes.
+     */
+    boolean isString(int i)
+    {
+        return strings[i];
+    }
+
+    boolean isNull(int i)
+    {
+        return nulls[i];
+    }
+
+    boolean getBoolean(int i)
+    {
+        return longs[i] != 0;
+    }
+
+    /**
+     * Returns the value of an INT32 or INT64 column.
+     */
+    long getLong(int i)
+    {
+        return longs[i];
+    }
+
+    /**
+     * Returns the value of a FLOAT or DOUBLE column.
+     */
+    double getDouble(int i)
+    {
+        return doubles[i];
+    }
+
+    Binary getBinary(int i)
+    {
+        return binaries[i];
+    }
+
+    private class FieldConverter
+            extends PrimitiveConverter
+    {
+        private final int index;
+        private Binary[] dictionary;
+
+        FieldConverter(int index)
+        {
+            this.index = index;
+        }
+
+        @Override
+        public boolean hasDictionarySupport()
+        {
+            return types[index] == PrimitiveTypeName.BINARY || types[index] == PrimitiveTypeName.FIXED_LEN_BYTE_ARRAY;
+        }
+
+        @Override
+        public void setDictionary(Dictionary values)
+        {
+            dictionary = new Binary[values.getMaxId() + 1];
+            for (int id = 0; id < dictionary.length; id++) {
+                dictionary[id] = values.decodeToBinary(id);
+            }
+        }
+
+        @Override
+        public void addValueFromDictionary(int id)
+        {
+            nulls[index] = false;
+            binaries[index] = dictionary[id];
+        }
+
+        @Override
+        public void addBinary(Binary value)
+        {
+            nulls[index] = false;
+            binaries[index] = value;
+        }
+
+        @Override
+        public void addBoolean(boolean value)
+        {
+            nulls[index] = false;
+            longs[index] = value ? 1 : 0;
+        }
+
+        @Override
+        public void addInt(int value)
+        {
+            nulls[index] = false;
+            longs[index] = value;
+        }
+
+        @Override
+        public void addLong(long value)
+        {
+            nulls[index] = false;
+            longs[index] = value;
+        }
+
+        @Override
+        public void addFloat(float value)
+        {
+            nulls[index] = false;
+            doubles[index] = value;
+        }
+
+        @Override
+        public void addDouble(double value)
+        {
+            nulls[index] = false;
+            doubles[index] = value;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.embulk.input.gcs.parquet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.hadoop.api.ReadSupport;
+import org.apache.parquet.io.api.GroupConverter;
+import org.apache.parquet.io.api.RecordMaterializer;
+import org.apache.parquet.schema.MessageType;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link ReadSupport} that reads the given top-level columns of a flat file into one
+ * {@link FlatRow} per reader.
+ */
+class FlatRowReadSupport
+        extends ReadSupport<FlatRow>
+{
+    private final List<String> columns;
+
+    /**
+     * @param columns columns to read, or empty to read all columns
+     */
+    FlatRowReadSupport(List<String> columns)
+    {
+        this.columns = columns;
+    }
+
+    @Override
+    public ReadContext init(Configuration configuration,
+                            Map<String, String> keyValueMetaData,
+                            MessageType fileSchema)
+    {
+        return new ReadContext(ParquetUtils.project(fileSchema, columns));
+    }
+
+    @Override
+    public RecordMaterializer<FlatRow> prepareForRead(Configuration configuration,
+                                                      Map<String, String> keyValueMetaData,
+                                                      MessageType fileSchema,
+                                                      ReadContext readContext)
+    {
+        FlatRow row = new FlatRow(readContext.getRequestedSchema());
+        return new RecordMaterializer<FlatRow>()
+        {
+            @Override
+            public FlatRow getCurrentRecord()
+            {
+                return row;
+            }
+
+            @Override
+            public GroupConverter getRootConverter()
+            {
+                return row.getConverter();
+            }
+        };
+    }
+}
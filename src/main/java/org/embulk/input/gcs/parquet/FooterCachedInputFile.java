@@ -0,0 +1,122 @@
+package org.embulk.input.gcs.parquet;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import org.apache.parquet.io.InputFile;
+import org.apache.parquet.io.SeekableInputStream;
+
+import java.io.IOException;
+
+/**
+ * An {@link InputFile} whose length and tail are known in advance.
+ *
+ * <p>Reads of the tail, which is where parquet reads the footer from, are served from memory. The
+ * file is opened on GCS only when data pages are read, and without looking up its status.
+ * Data pages are read from the generation the tail was read from.
+ */
+class FooterCachedInputFile
+        implements InputFile
+{
+    private final GcsInputFile file;
+    private final long length;
+    private final byte[] tail;
+
+    FooterCachedInputFile(Storage client, String bucket, String key, FooterPrefetcher.Footer footer)
+    {
+        this.file = new GcsInputFile(client, BlobId.of(bucket, key, footer.getGeneration()), footer.getLength());
+        this.length = footer.getLength();
+        this.tail = footer.getTail();
+    }
+
+    BlobId getBlobId()
+    {
+        return file.getBlobId();
+    }
+
+    @Override
+    public long getLength()
+    {
+        return length;
+    }
+
+    @Override
+    public SeekableInputStream newStream()
+    {
+        return new Stream();
+    }
+
+    @Override
+    public String toString()
+    {
+        return file.toString();
+    }
+
+    private class Stream
+            extends PositionedInputStream
+    {
+        private final long tailStart = length - tail.length;
+        private SeekableInputStream delegate;
+
+        Stream()
+        {
+            super(file);
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if (pos >= tailStart) {
+                if (pos >= length) {
+                    return -1;
+                }
+                return tail[(int) (pos++ - tailStart)] & 0xff;
+            }
+            int b = delegate().read();
+            if (b >= 0) {
+                pos++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos >= tailStart) {
+                int n = (int) Math.min(len, length - pos);
+                if (n <= 0) {
+                    return -1;
+                }
+                System.arraycopy(tail, (int) (pos - tailStart), b, off, n);
+                pos += n;
+                return n;
+            }
+            int n = delegate().read(b, off, (int) Math.min(len, tailStart - pos));
+            if (n > 0) {
+                pos += n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (delegate != null) {
+                delegate.close();
+            }
+        }
+
+        private SeekableInputStream delegate() throws IOException
+        {
+            if (delegate == null) {
+                delegate = file.newStream();
+            }
+            if (delegate.getPos() != pos) {
+                delegate.seek(pos);
+            }
+            return delegate;
+        }
+    }
+}
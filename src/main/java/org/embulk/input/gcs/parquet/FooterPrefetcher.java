@@ -0,0 +1,230 @@
+package org.embulk.input.gcs.parquet;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Throwables;
+import org.apache.parquet.io.SeekableInputStream;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+import org.embulk.spi.DataException;
+import org.embulk.spi.Exec;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Fetches the footers of all listed files concurrently at transaction time.
+ *
+ * <p>The serialized footer is shipped to tasks in the task source as the tail of the file, so
+ * tasks parse it from memory through {@link FooterCachedInputFile} instead of reading it from GCS
+ * again, including when a stream is reopened after a failure. Footers of objects whose generation
+ * is recorded in the {@link Manifest} are taken from it without reading the objects.
+ *
+ * <p>Every task deserializes the whole task source, so the footers passed to tasks are limited to
+ * {@code footer_prefetch_max_bytes}; all of them are still used at transaction time to split and
+ * plan the files.
+ */
+class FooterPrefetcher
+{
+    interface Task
+    {
+        // number of footers fetched concurrently at transaction time; footers are read by tasks if 0
+        @Config("footer_prefetch_threads")
+        @ConfigDefault("0")
+        int getFooterPrefetchThreads();
+
+        // total bytes of prefetched footers passed to tasks; tasks read the footers of the other files
+        @Config("footer_prefetch_max_bytes")
+        @ConfigDefault("16777216")
+        long getFooterPrefetchMaxBytes();
+    }
+
+    /**
+     * The last {@code tail.length} bytes of a file: the footer, its length and the magic number.
+     */
+    public static class Footer
+    {
+        private final long length;
+        private final Long generation;
+        private final byte[] tail;
+
+        @JsonCreator
+        public Footer(
+                @JsonProperty("length") long length,
+                @JsonProperty("generation") Long generation,
+                @JsonProperty("tail") byte[] tail)
+        {
+            this.length = length;
+            this.generation = generation;
+            this.tail = tail;
+        }
+
+        @JsonProperty("length")
+        public long getLength()
+        {
+            return length;
+        }
+
+        // the generation of the object the tail was read from
+        @JsonProperty("generation")
+        public Long getGeneration()
+        {
+            return generation;
+        }
+
+        @JsonProperty("tail")
+        public byte[] getTail()
+        {
+            return tail;
+        }
+    }
+
+    // footers of most files fit in the first read
+    private static final int TAIL_READ_SIZE = 64 * 1024;
+    private static final byte[] MAGIC = "PAR1".getBytes(StandardCharsets.US_ASCII);
+
+    private static final Logger LOG = Exec.getLogger(FooterPrefetcher.class);
+
+    private FooterPrefetcher()
+    {
+    }
+
+    static Map<String, Footer> fetch(PluginTask task, FileList files, Optional<Manifest> manifest)
+    {
+        Set<String> keys = new LinkedHashSet<>();
+        for (int i = 0; i < files.getTaskCount(); i++) {
+            keys.addAll(files.get(i));
+        }
+        Map<String, Footer> footers = new LinkedHashMap<>();
+        if (keys.isEmpty()) {
+            return footers;
+        }
+
+        long startedAt = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(task.getFooterPrefetchThreads(), keys.size()));
+        try {
+            List<Future<Footer>> futures = new ArrayList<>();
+            for (String key : keys) {
+                Optional<Footer> known = manifest.flatMap(m -> m.footer(key));
+                if (known.isPresent()) {
+                    futures.add(CompletableFuture.completedFuture(known.get()));
+                }
+                else {
+                    futures.add(executor.submit(() -> fetchFooter(task, key, manifest)));
+                }
+            }
+            int i = 0;
+            for (String key : keys) {
+                Footer footer = futures.get(i++).get();
+                footers.put(key, footer);
+                manifest.ifPresent(m -> m.putFooter(key, footer));
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(ex);
+        }
+        catch (ExecutionException ex) {
+            throw Throwables.propagate(ex.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        LOG.info("Fetched footers of {} files in {} ms ({} from the manifest)", footers.size(), System.currentTimeMillis() - startedAt,
+                manifest.map(Manifest::getReusedFooters).orElse(0));
+        return footers;
+    }
+
+    /**
+     * Returns the footers to pass to tasks: those of the files of the first tasks, until their
+     * total size reaches {@code footer_prefetch_max_bytes}.
+     */
+    static Map<String, Footer> limit(PluginTask task, FileList files, Map<String, Footer> footers)
+    {
+        Map<String, Footer> limited = new HashMap<>();
+        long bytes = 0;
+        for (int i = 0; i < files.getTaskCount(); i++) {
+            for (String key : files.get(i)) {
+                Footer footer = footers.get(key);
+                if (footer == null || limited.containsKey(key)) {
+                    continue;
+                }
+                if (bytes + footer.getTail().length > task.getFooterPrefetchMaxBytes()) {
+                    LOG.info("Passing {} of {} footers to tasks; footer_prefetch_max_bytes is {}", limited.size(), footers.size(),
+                            task.getFooterPrefetchMaxBytes());
+                    return limited;
+                }
+                bytes += footer.getTail().length;
+                limited.put(key, footer);
+            }
+        }
+        return limited;
+    }
+
+    private static Footer fetchFooter(PluginTask task, String key, Optional<Manifest> manifest) throws IOException
+    {
+        GcsInputFile file = GcsInputFile.open(ClientRegistry.client(task), task.getBucket(), key);
+        Long generation = file.getBlobId().getGeneration();
+        if (manifest.isPresent() && generation != null) {
+            // not listed, e.g. one of paths
+            Optional<Footer> known = manifest.get().footer(key, generation);
+            if (known.isPresent()) {
+                return known.get();
+            }
+        }
+        return readTail(task, key, file);
+    }
+
+    /**
+     * Reads the footer of {@code file}, with one request if it fits in {@link #TAIL_READ_SIZE}.
+     */
+    static Footer readTail(PluginTask task, String key, GcsInputFile file) throws IOException
+    {
+        Long generation = file.getBlobId().getGeneration();
+        long length = file.getLength();
+        if (length < MAGIC.length * 2 + 4) {
+            throw new DataException(String.format("gcs://%s/%s is not a Parquet file (too small)", task.getBucket(), key));
+        }
+        try (SeekableInputStream in = file.newStream()) {
+            int size = (int) Math.min(length, TAIL_READ_SIZE);
+            byte[] tail = new byte[size];
+            in.seek(length - size);
+            in.readFully(tail);
+
+            if (!Arrays.equals(MAGIC, Arrays.copyOfRange(tail, size - MAGIC.length, size))) {
+                throw new DataException(String.format("gcs://%s/%s is not a Parquet file (no magic number at the end)", task.getBucket(), key));
+            }
+            int footerLength = ByteBuffer.wrap(tail, size - 8, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+            long needed = footerLength + 8L;
+            if (footerLength < 0 || needed > length - MAGIC.length) {
+                throw new DataException(String.format("gcs://%s/%s has a corrupted footer length %d", task.getBucket(), key, footerLength));
+            }
+
+            if (needed > size) {
+                byte[] full = new byte[(int) needed];
+                in.seek(length - needed);
+                in.readFully(full, 0, (int) (needed - size));
+                System.arraycopy(tail, 0, full, (int) (needed - size), size);
+                return new Footer(length, generation, full);
+            }
+            return new Footer(length, generation, Arrays.copyOfRange(tail, (int) (size - needed), size));
+        }
+    }
+}
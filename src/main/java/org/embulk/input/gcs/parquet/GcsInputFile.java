@@ -0,0 +1,136 @@
+package org.embulk.input.gcs.parquet;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import org.apache.parquet.io.InputFile;
+import org.apache.parquet.io.SeekableInputStream;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link InputFile} on an object of GCS, read with ranged requests of the storage client.
+ *
+ * <p>A stream requests the bytes from its position on the first read after a seek, at least as
+ * many as that read asks for, so that parquet reads each run of column chunks with one request.
+ * Requests are at most {@link #MAX_CHUNK_SIZE}, the size of the buffer of the storage client, so
+ * larger reads are made of several requests. The object is pinned to a generation if it is known,
+ * so that all reads of a file see the same version.
+ */
+class GcsInputFile
+        implements InputFile
+{
+    static final int MIN_CHUNK_SIZE = 1024 * 1024;
+    static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private final Storage client;
+    private final BlobId blob;
+    private final long length;
+
+    GcsInputFile(Storage client, BlobId blob, long length)
+    {
+        this.client = client;
+        this.blob = blob;
+        this.length = length;
+    }
+
+    /**
+     * Looks up the length and the current generation of an object.
+     */
+    static GcsInputFile open(Storage client, String bucket, String key) throws IOException
+    {
+        Blob blob;
+        try {
+            blob = client.get(BlobId.of(bucket, key), Storage.BlobGetOption.fields(Storage.BlobField.GENERATION, Storage.BlobField.SIZE));
+        }
+        catch (StorageException ex) {
+            throw new IOException(ex);
+        }
+        if (blob == null) {
+            throw new FileNotFoundException(String.format("gcs://%s/%s", bucket, key));
+        }
+        return new GcsInputFile(client, BlobId.of(bucket, key, blob.getGeneration()), blob.getSize());
+    }
+
+    BlobId getBlobId()
+    {
+        return blob;
+    }
+
+    @Override
+    public long getLength()
+    {
+        return length;
+    }
+
+    @Override
+    public SeekableInputStream newStream()
+    {
+        return new Stream();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("gcs://%s/%s", blob.getBucket(), blob.getName());
+    }
+
+    private class Stream
+            extends PositionedInputStream
+    {
+        private ReadChannel channel;
+        private long channelPos = -1;
+
+        Stream()
+        {
+            super(GcsInputFile.this);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos >= length) {
+                return -1;
+            }
+            int n = (int) Math.min(len, length - pos);
+            int total = 0;
+            int read = 0;
+            try {
+                if (channel == null) {
+                    channel = client.reader(blob);
+                }
+                if (channelPos != pos) {
+                    // nothing is buffered after a seek, so the next requests cover the whole read
+                    channel.seek(pos);
+                    channel.setChunkSize(Math.min(Math.max(n, MIN_CHUNK_SIZE), MAX_CHUNK_SIZE));
+                    channelPos = pos;
+                }
+                // a read returns at most what the client has buffered
+                while (total < n && (read = channel.read(ByteBuffer.wrap(b, off + total, n - total))) > 0) {
+                    total += read;
+                    pos += read;
+                    channelPos += read;
+                }
+            }
+            catch (StorageException ex) {
+                throw new IOException(ex);
+            }
+            return total == 0 && read < 0 ? -1 : total;
+        }
+
+        @Override
+        public void close()
+        {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+}
@@ -1,7 +1,5 @@
 package org.embulk.input.gcs.parquet;
 
-import com.google.api.gax.paging.Page;
-import com.google.cloud.storage.Blob;
 import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.StorageException;
 import com.google.common.annotations.VisibleForTesting;
@@ -14,29 +12,46 @@ import org.embulk.spi.TransactionalFileInput;
 import org.embulk.spi.util.InputStreamFileInput;
 import org.slf4j.Logger;
 
+import java.util.List;
+import java.util.Optional;
+
 public class GcsParquetInput extends InputStreamFileInput implements TransactionalFileInput {
   private static final Logger LOG = Exec.getLogger(GcsParquetInput.class);
 
+  private final PluginTask task;
+
   GcsParquetInput(PluginTask task, int taskIndex) {
     super(task.getBufferAllocator(), new SingleFileProvider(task, taskIndex));
+    this.task = task;
   }
 
   public void abort() {}
 
   public TaskReport commit() {
+    SharedCache.of(task).logStats();
     return Exec.newTaskReport();
   }
 
   @Override
-  public void close() {}
+  public void close() {
+    // closes the current stream and the provider, which holds the prefetched next file
+    super.close();
+  }
+
+  static FileList listFiles(PluginTask task) {
+    return listFiles(task, Optional.empty());
+  }
 
   /**
    * Lists GCS filenames filtered by prefix.
    *
-   * <p>The resulting list does not include the file that's size == 0.
+   * <p>The resulting list does not include the file that's size == 0. Listed files are recorded
+   * in {@code manifest}. With {@code incremental_mode: update_time}, files are those updated after
+   * the watermark, in the order of their update times, and the watermark after them is set to
+   * {@code task}.
    */
-  static FileList listFiles(PluginTask task) {
-    Storage client = AuthUtils.newClient(task);
+  static FileList listFiles(PluginTask task, Optional<Manifest> manifest) {
+    Storage client = ClientRegistry.client(task);
     String bucket = task.getBucket();
 
     // @see https://cloud.google.com/storage/docs/json_api/v1/buckets/get
@@ -45,25 +60,41 @@ public class GcsParquetInput extends InputStreamFileInput implements Transaction
     }
 
     String prefix = task.getPathPrefix().orElse("");
-    String lastKey = task.getLastPath().isPresent() ? base64Encode(task.getLastPath().get()) : "";
+    Optional<Watermark> watermark = Watermark.of(task, System.currentTimeMillis());
+    // last_path is ignored by update_time
+    Optional<String> lastPath = watermark.isPresent() ? Optional.empty() : task.getLastPath();
+    String lastKey = lastPath.isPresent() ? base64Encode(lastPath.get()) : "";
     FileList.Builder builder = new FileList.Builder(task);
 
     try {
-      // @see https://cloud.google.com/storage/docs/json_api/v1/objects/list
-      Page<Blob> blobs =
-          client.list(
+      BucketLister lister =
+          new BucketLister(
+              client,
               bucket,
-              Storage.BlobListOption.prefix(prefix),
-              Storage.BlobListOption.pageToken(lastKey));
-      for (Blob blob : blobs.iterateAll()) {
-        if (blob.getName().contains(".parquet")) {
-          if (blob.getSize() > 0) {
-            builder.add(blob.getName(), blob.getSize());
+              lastPath,
+              blob ->
+                  blob.getName().contains(".parquet")
+                      && blob.getSize() > 0
+                      && (!watermark.isPresent()
+                          || watermark.get().accepts(blob.getName(), blob.getUpdateTime())));
+      List<BucketLister.ListedObject> objects = lister.list(prefix, task.getListParallelism());
+      if (watermark.isPresent()) {
+        objects.sort(Watermark.UPDATE_ORDER);
+      }
+      // shards are listed concurrently and merged, so entries are added by this thread only
+      for (BucketLister.ListedObject object : objects) {
+        if (builder.add(object.name, object.size)) {
+          if (manifest.isPresent()) {
+            manifest.get().listed(object.name, object.generation, object.size, object.updateTime);
+          }
+          if (watermark.isPresent()) {
+            watermark.get().advance(object.name, object.updateTime);
           }
-          LOG.debug("filename: {}", blob.getName());
-          LOG.debug("updated: {}", blob.getUpdateTime());
         }
       }
+      if (watermark.isPresent()) {
+        watermark.get().store(task);
+      }
     } catch (RuntimeException e) {
       if ((e instanceof StorageException) && ((StorageException) e).getCode() == 400) {
         throw new ConfigException(
@@ -73,8 +104,9 @@ public class GcsParquetInput extends InputStreamFileInput implements Transaction
             e);
       }
 
-      LOG.warn(String.format("Could not get file list from bucket:%s", bucket));
-      LOG.warn(e.getMessage());
+      // a partial list would skip the files of the failed shards, and move last_path past them
+      LOG.error(String.format("Could not get file list from bucket:%s, prefix:%s", bucket, prefix));
+      throw e;
     }
     return builder.build();
   }
@@ -1,6 +1,7 @@
 package org.embulk.input.gcs.parquet;
 
 import com.google.common.base.Throwables;
+import org.apache.parquet.schema.MessageType;
 import org.embulk.config.ConfigDiff;
 import org.embulk.config.ConfigException;
 import org.embulk.config.ConfigSource;
@@ -12,6 +13,8 @@ import org.embulk.spi.TransactionalFileInput;
 import org.embulk.spi.unit.LocalFile;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
 
@@ -21,6 +24,24 @@ public class GcsParquetInputPlugin
     @Override
     public ConfigDiff transaction(ConfigSource config,
                                   FileInputPlugin.Control control)
+    {
+        PluginTask task = configure(config);
+        Optional<Manifest> manifest = listFiles(task, config);
+        task.setRowColumns(task.getOutputFormat() == RowWriter.OutputFormat.json
+                ? Collections.emptyList()
+                : logParserConfig(task));
+        // number of processors is same with number of files, or of row group ranges if files are split
+        ConfigDiff configDiff = resume(task.dump(), task.getFiles().getTaskCount(), control);
+        saveManifest(manifest);
+        return configDiff;
+    }
+
+    /**
+     * Validates the configuration.
+     *
+     * <p>Shared with {@link GcsParquetNativeInputPlugin}.
+     */
+    static PluginTask configure(ConfigSource config)
     {
         PluginTask task = config.loadConfig(PluginTask.class);
 
@@ -48,15 +69,49 @@ public class GcsParquetInputPlugin
         }
 
         // @see https://cloud.google.com/storage/docs/bucket-naming
-        if (task.getLastPath().isPresent()) {
+        if (task.getLastPath().isPresent() && task.getIncrementalMode() == Watermark.IncrementalMode.last_path) {
             if (task.getLastPath().get().length() >= 128) {
                 throw new ConfigException("last_path length is allowed up to 127 characters");
             }
         }
 
+        if (task.getReadParallelism() <= 0 || task.getReadMaxRangeBytes() <= 0) {
+            throw new ConfigException("read_parallelism and read_max_range_bytes must be positive");
+        }
+        if (task.getListParallelism() <= 0) {
+            throw new ConfigException("list_parallelism must be positive");
+        }
+        if (task.getTaskCount().isPresent() && task.getTaskCount().get() <= 0) {
+            throw new ConfigException("task_count must be positive");
+        }
+        if (task.getRowGroupSplitSize().isPresent() && task.getRowGroupSplitSize().get() <= 0) {
+            throw new ConfigException("row_group_split_size must be positive");
+        }
+
+        // fail fast on syntax errors; the filter is compiled against the schema of each file
+        if (task.getFilter().isPresent()) {
+            FilterExpression.parse(task.getFilter().get());
+        }
+
+        // once per transaction; tasks share the client without verifying it again
+        task.setCredentialsKey(ClientRegistry.credentialsKey(task));
+        ClientRegistry.validate(task);
+        return task;
+    }
+
+    /**
+     * Lists the files to read and assigns them to tasks. Returns the manifest to save once the
+     * tasks ran, if {@code manifest_path} is set.
+     */
+    static Optional<Manifest> listFiles(PluginTask task, ConfigSource config)
+    {
+        Optional<Manifest> manifest = Manifest.load(task);
+        // moved by listing files
+        Watermark.keep(task);
+
         // list files recursively if path_prefix is specified
         if (task.getPathPrefix().isPresent()) {
-            task.setFiles(GcsParquetInput.listFiles(task));
+            task.setFiles(GcsParquetInput.listFiles(task, manifest));
         }
         else {
             if (task.getPathFiles().isEmpty()) {
@@ -68,8 +123,56 @@ public class GcsParquetInputPlugin
             }
             task.setFiles(builder.build());
         }
-        // number of processors is same with number of files
-        return resume(task.dump(), task.getFiles().getTaskCount(), control);
+
+        if (task.getFooterPrefetchThreads() > 0) {
+            task.setFooters(FooterPrefetcher.fetch(task, task.getFiles(), manifest));
+        }
+        else {
+            task.setFooters(new HashMap<>());
+        }
+
+        if (task.getRowGroupSplitSize().isPresent()) {
+            task.setFiles(RowGroupSplitter.split(task, task.getFiles(), task.getRowGroupSplitSize().get()));
+        }
+
+        task.setFiles(TaskPlanner.plan(task, task.getFiles()));
+        task.setFooters(FooterPrefetcher.limit(task, task.getFiles(), task.getFooters()));
+        return manifest;
+    }
+
+    /**
+     * Saves the manifest after the tasks of a real run. Preview also returns from its tasks, and
+     * guess leaves them by an exception, so neither rewrites it.
+     */
+    static void saveManifest(Optional<Manifest> manifest)
+    {
+        if (!Exec.isPreview()) {
+            manifest.ifPresent(Manifest::save);
+        }
+    }
+
+    /**
+     * Logs the parser config that reads the rows of the first file, since the columns of the
+     * positional formats can't be guessed from their content, and returns its columns.
+     */
+    private static List<String> logParserConfig(PluginTask task)
+    {
+        if (task.getFiles().getTaskCount() == 0) {
+            return Collections.emptyList();
+        }
+        String key = task.getFiles().get(0).get(0);
+        MessageType schema;
+        try {
+            // the prefetched footer if any; the file isn't downloaded to local_cache_dir at transaction time
+            schema = ParquetUtils.project(ParquetUtils.readFooter(task, key, ParquetUtils.newRemoteInputFile(task, key))
+                    .getFileMetaData().getSchema(), task.getColumns());
+        }
+        catch (IOException ex) {
+            throw Throwables.propagate(ex);
+        }
+        Exec.getLogger(GcsParquetInputPlugin.class).info("Rows are written as {}; read them with:\n{}",
+                task.getOutputFormat(), RowWriter.parserConfig(task.getOutputFormat(), schema));
+        return RowWriter.rowColumns(schema);
     }
 
     @Override
@@ -81,10 +184,21 @@ public class GcsParquetInputPlugin
 
         control.run(taskSource, taskCount);
 
+        return newConfigDiff(task);
+    }
+
+    static ConfigDiff newConfigDiff(PluginTask task)
+    {
         ConfigDiff configDiff = Exec.newConfigDiff();
 
         if (task.getIncremental()) {
-            configDiff.set("last_path", task.getFiles().getLastPath(task.getLastPath()));
+            if (task.getIncrementalMode() == Watermark.IncrementalMode.update_time) {
+                configDiff.set("last_update_time", task.getNextUpdateTime());
+                configDiff.set("last_update_time_paths", task.getNextUpdateTimePaths());
+            }
+            else {
+                configDiff.set("last_path", task.getFiles().getLastPath(task.getLastPath()));
+            }
         }
 
         return configDiff;
@@ -0,0 +1,142 @@
+package org.embulk.input.gcs.parquet;
+
+import com.google.common.base.Throwables;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.apache.parquet.io.InputFile;
+import org.apache.parquet.schema.MessageType;
+import org.embulk.config.ConfigDiff;
+import org.embulk.config.ConfigSource;
+import org.embulk.config.TaskReport;
+import org.embulk.config.TaskSource;
+import org.embulk.spi.Exec;
+import org.embulk.spi.InputPlugin;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.Schema;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Reads Parquet files into Embulk pages without a parser plugin.
+ *
+ * <p>Unlike {@link GcsParquetInputPlugin}, records are not serialized to JSON text and parsed again;
+ * the Embulk schema is derived from the Parquet schema of the first file and values are set on the
+ * {@link PageBuilder} directly.
+ */
+public class GcsParquetNativeInputPlugin
+        implements InputPlugin
+{
+    private static final Logger LOG = Exec.getLogger(GcsParquetNativeInputPlugin.class);
+
+    @Override
+    public ConfigDiff transaction(ConfigSource config,
+                                  InputPlugin.Control control)
+    {
+        PluginTask task = GcsParquetInputPlugin.configure(config);
+        Optional<Manifest> manifest = GcsParquetInputPlugin.listFiles(task, config);
+        Schema schema = readSchema(task);
+        LOG.info("Schema is {}", schema);
+        ConfigDiff configDiff = resume(task.dump(), schema, task.getFiles().getTaskCount(), control);
+        GcsParquetInputPlugin.saveManifest(manifest);
+        return configDiff;
+    }
+
+    @Override
+    public ConfigDiff resume(TaskSource taskSource,
+                             Schema schema, int taskCount,
+                             InputPlugin.Control control)
+    {
+        PluginTask task = taskSource.loadTask(PluginTask.class);
+
+        control.run(taskSource, schema, taskCount);
+
+        return GcsParquetInputPlugin.newConfigDiff(task);
+    }
+
+    @Override
+    public void cleanup(TaskSource taskSource,
+                        Schema schema, int taskCount,
+                        List<TaskReport> successTaskReports)
+    {
+    }
+
+    @Override
+    public TaskReport run(TaskSource taskSource,
+                          Schema schema, int taskIndex,
+                          PageOutput output)
+    {
+        PluginTask task = taskSource.loadTask(PluginTask.class);
+
+        try (PageBuilder pageBuilder = new PageBuilder(task.getBufferAllocator(), schema, output)) {
+            AvroPageWriter writer = new AvroPageWriter(pageBuilder, schema);
+            ColumnBatchPageWriter batchWriter = new ColumnBatchPageWriter(pageBuilder, schema);
+            List<String> keys = task.getFiles().get(taskIndex);
+            List<FileList.Entry> entries = task.getFiles().getEntries(taskIndex);
+            for (int i = 0; i < keys.size(); i++) {
+                String key = keys.get(i);
+                FileList.Entry entry = entries.get(i);
+                InputFile file = ParquetUtils.newInputFile(task, key);
+                try {
+                    // the footer is parsed once, and shared with the reader
+                    ParquetSchemaConverter.checkSchema(task, key, ParquetUtils.readFooter(task, key, file).getFileMetaData().getSchema(), schema);
+                    if (task.getReaderEngine() == ParquetUtils.ReaderEngine.column_batch) {
+                        Optional<ColumnBatchReader> batchReader = ParquetUtils.openColumnBatchReader(task, key, entry, file);
+                        if (batchReader.isPresent()) {
+                            try (ColumnBatchReader reader = batchReader.get()) {
+                                batchWriter.writeAll(reader);
+                            }
+                            continue;
+                        }
+                    }
+                    try (ParquetReader<GenericRecord> reader = ParquetUtils.openReader(task, key, entry, file)) {
+                        GenericRecord record;
+                        while ((record = reader.read()) != null) {
+                            writer.write(record);
+                        }
+                    }
+                }
+                finally {
+                    ParquetUtils.close(file);
+                }
+            }
+            pageBuilder.finish();
+            SharedCache.of(task).logStats();
+        }
+        catch (IOException ex) {
+            throw Throwables.propagate(ex);
+        }
+        return Exec.newTaskReport();
+    }
+
+    @Override
+    public ConfigDiff guess(ConfigSource config)
+    {
+        return Exec.newConfigDiff();
+    }
+
+    static Schema readSchema(PluginTask task)
+    {
+        if (task.getFiles().getTaskCount() == 0) {
+            return Schema.builder().build();
+        }
+        String key = task.getFiles().get(0).get(0);
+        try {
+            // the prefetched footer if any; the file isn't downloaded to local_cache_dir at transaction time
+            ParquetMetadata footer = ParquetUtils.readFooter(task, key, ParquetUtils.newRemoteInputFile(task, key));
+            MessageType schema = ParquetUtils.project(footer.getFileMetaData().getSchema(), task.getColumns());
+            if (task.getReaderEngine() == ParquetUtils.ReaderEngine.avro) {
+                // fails before any task starts rather than in each of them
+                ParquetUtils.checkAvroReadable(task, key, schema);
+            }
+            return ParquetSchemaConverter.toEmbulkSchema(schema);
+        }
+        catch (IOException ex) {
+            throw Throwables.propagate(ex);
+        }
+    }
+}
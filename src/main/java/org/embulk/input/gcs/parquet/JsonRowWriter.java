@@ -0,0 +1,228 @@
+package org.embulk.input.gcs.parquet;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Writes rows as JSON objects, or as JSON arrays of the values in column order, one per line.
+ *
+ * <p>Field names are encoded once per schema. Strings are escaped the way Jackson does by default:
+ * quotes, backslashes and control characters only.
+ */
+class JsonRowWriter
+        extends RowWriter
+{
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+
+    // 0: written as is, 'u': written as \\u00XX, other: written as a backslash and this character
+    private static final byte[] ESCAPES = new byte[128];
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ESCAPES[c] = 'u';
+        }
+        ESCAPES['"'] = '"';
+        ESCAPES['\\'] = '\\';
+        ESCAPES['\b'] = 'b';
+        ESCAPES['\t'] = 't';
+        ESCAPES['\n'] = 'n';
+        ESCAPES['\f'] = 'f';
+        ESCAPES['\r'] = 'r';
+    }
+
+    private final boolean array;
+    // "name": of each column, preceded by a comma but for the first one
+    private byte[][] names;
+
+    JsonRowWriter(long offset, boolean resumed, boolean array)
+    {
+        super(offset, resumed);
+        this.array = array;
+    }
+
+    @Override
+    void setColumns(List<String> columns)
+    {
+        if (array) {
+            return;
+        }
+        names = new byte[columns.size()][];
+        for (int i = 0; i < names.length; i++) {
+            JsonRowWriter writer = new JsonRowWriter(0, false, false);
+            if (i > 0) {
+                writer.writeByte(',');
+            }
+            writer.writeString(columns.get(i));
+            writer.writeByte(':');
+            names[i] = writer.drainAll();
+        }
+    }
+
+    @Override
+    protected void writeRowSeparator()
+    {
+        writeByte('\n');
+    }
+
+    @Override
+    protected void beginRow(int columns)
+    {
+        writeByte(array ? '[' : '{');
+    }
+
+    @Override
+    void column(int index)
+    {
+        if (!array) {
+            writeRaw(names[index]);
+        }
+        else if (index > 0) {
+            writeByte(',');
+        }
+    }
+
+    @Override
+    void endRow()
+    {
+        writeByte(array ? ']' : '}');
+    }
+
+    @Override
+    void writeNull()
+    {
+        writeRaw(NULL);
+    }
+
+    @Override
+    void writeBoolean(boolean value)
+    {
+        writeRaw(value ? TRUE : FALSE);
+    }
+
+    @Override
+    void writeLong(long value)
+    {
+        writeDigits(value);
+    }
+
+    @Override
+    void writeFloat(float value)
+    {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            // quoted like Jackson does
+            writeString(Float.toString(value));
+            return;
+        }
+        writeAscii(Float.toString(value));
+    }
+
+    @Override
+    void writeDouble(double value)
+    {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            writeString(Double.toString(value));
+            return;
+        }
+        writeAscii(Double.toString(value));
+    }
+
+    @Override
+    void writeDecimal(BigDecimal value)
+    {
+        writeAscii(value.toString());
+    }
+
+    @Override
+    void writeUtf8(byte[] bytes, int off, int len)
+    {
+        writeByte('"');
+        writeUtf8Bytes(bytes, off, len, ESCAPES);
+        writeByte('"');
+    }
+
+    @Override
+    void writeString(CharSequence value)
+    {
+        writeByte('"');
+        writeChars(value, ESCAPES);
+        writeByte('"');
+    }
+
+    @Override
+    void writeLatin1(byte[] bytes, int off, int len)
+    {
+        writeByte('"');
+        writeLatin1Chars(bytes, off, len, ESCAPES);
+        writeByte('"');
+    }
+
+    @Override
+    void startArray(int size)
+    {
+        writeByte('[');
+    }
+
+    @Override
+    void element(int index)
+    {
+        if (index > 0) {
+            writeByte(',');
+        }
+    }
+
+    @Override
+    void endArray()
+    {
+        writeByte(']');
+    }
+
+    @Override
+    void startMap(int size)
+    {
+        writeByte('{');
+    }
+
+    @Override
+    void key(int index, CharSequence key)
+    {
+        if (index > 0) {
+            writeByte(',');
+        }
+        writeText(key);
+        writeByte(':');
+    }
+
+    @Override
+    void endMap()
+    {
+        writeByte('}');
+    }
+
+    @Override
+    protected RowWriter newWriter()
+    {
+        return new JsonRowWriter(0, false, array);
+    }
+
+    @Override
+    protected void writeEscape(int c)
+    {
+        require(6);
+        out[pos++] = '\\';
+        byte escape = ESCAPES[c];
+        if (escape == 'u') {
+            out[pos++] = 'u';
+            out[pos++] = '0';
+            out[pos++] = '0';
+            out[pos++] = HEX[c >> 4];
+            out[pos++] = HEX[c & 0xf];
+        }
+        else {
+            out[pos++] = escape;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package org.embulk.input.gcs.parquet;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.google.common.hash.Hashing;
+import org.apache.parquet.io.InputFile;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+import org.embulk.spi.Exec;
+import org.slf4j.Logger;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A directory of downloaded objects, shared by runs and by the tasks of a run.
+ *
+ * <p>Files are named after the bucket, key and generation of the object, so an object that has
+ * been overwritten is downloaded again and the stale copy ages out. The least recently used files
+ * are deleted when the directory exceeds its size budget; a file is used when it is opened.
+ * Files are handed out open, so readers keep reading a file that is deleted meanwhile.
+ * Downloads go to a temporary file that is renamed when complete, so other processes sharing the
+ * directory never see a partial file.
+ *
+ * <p>The size of the directory is scanned once, and then kept up to date by the downloads and
+ * evictions of this JVM. It is scanned again only when it exceeds the budget, to see the files
+ * added and deleted by other processes before deleting any.
+ */
+class LocalCache
+{
+    interface Task
+    {
+        // directory to keep downloaded objects in; objects are read from GCS directly if null
+        @Config("local_cache_dir")
+        @ConfigDefault("null")
+        Optional<String> getLocalCacheDir();
+
+        @Config("local_cache_max_bytes")
+        @ConfigDefault("10737418240")
+        long getLocalCacheMaxBytes();
+    }
+
+    private static final Logger LOG = Exec.getLogger(LocalCache.class);
+    private static final String SUFFIX = ".parquet";
+    private static final int COPY_BUFFER_SIZE = 1024 * 1024;
+
+    // one instance per directory, so that evictions of concurrent tasks don't interleave
+    private static final ConcurrentMap<Path, LocalCache> CACHES = new ConcurrentHashMap<>();
+
+    private final Path directory;
+    private final long maxBytes;
+    // by file name; an entry lives while the file is opened or downloaded
+    private final ConcurrentMap<String, Object> downloading = new ConcurrentHashMap<>();
+    // bytes of the files in the directory; -1 until it is scanned
+    private long totalBytes = -1;
+
+    private LocalCache(Path directory, long maxBytes)
+    {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    static LocalCache of(PluginTask task) throws IOException
+    {
+        Path directory = Paths.get(task.getLocalCacheDir().get()).toAbsolutePath();
+        Files.createDirectories(directory);
+        return CACHES.computeIfAbsent(directory, dir -> new LocalCache(dir, task.getLocalCacheMaxBytes()));
+    }
+
+    /**
+     * Returns the local copy of the current generation of an object, downloading it if needed.
+     *
+     * @return the copy, opened until it is closed, or empty if the object is larger than the size budget
+     */
+    Optional<InputFile> open(PluginTask task, String key) throws IOException
+    {
+        return open(ClientRegistry.client(task), task.getBucket(), key);
+    }
+
+    Optional<InputFile> open(Storage client, String bucket, String key) throws IOException
+    {
+        Blob blob = client.get(BlobId.of(bucket, key),
+                Storage.BlobGetOption.fields(Storage.BlobField.GENERATION, Storage.BlobField.SIZE));
+        if (blob == null) {
+            throw new FileNotFoundException(String.format("gcs://%s/%s", bucket, key));
+        }
+        if (blob.getSize() > maxBytes) {
+            return Optional.empty();
+        }
+
+        Path file = directory.resolve(fileName(bucket, key, blob.getGeneration()));
+        String name = file.getFileName().toString();
+        Object lock = downloading.computeIfAbsent(name, n -> new Object());
+        try {
+            synchronized (lock) {
+                // the file is opened before it is handed out, so an eviction can't delete it before it is read
+                LocalInputFile opened;
+                try {
+                    opened = new LocalInputFile(file, blob.getGeneration());
+                    touch(file);
+                    LOG.debug("Local cache hit: gcs://{}/{}#{}", bucket, key, blob.getGeneration());
+                }
+                catch (NoSuchFileException ex) {
+                    download(client, bucket, key, blob.getGeneration(), file);
+                    opened = new LocalInputFile(file, blob.getGeneration());
+                    try {
+                        added(file);
+                    }
+                    catch (IOException | RuntimeException e) {
+                        opened.close();
+                        throw e;
+                    }
+                }
+                return Optional.of(opened);
+            }
+        }
+        finally {
+            // a thread that takes a new lock after this finds the downloaded file
+            downloading.remove(name, lock);
+        }
+    }
+
+    static String fileName(String bucket, String key, long generation)
+    {
+        String id = String.format("%s/%s#%d", bucket, key, generation);
+        return Hashing.sha256().hashString(id, StandardCharsets.UTF_8).toString() + SUFFIX;
+    }
+
+    private void download(Storage client, String bucket, String key, long generation, Path file) throws IOException
+    {
+        long startedAt = System.currentTimeMillis();
+        Path temporary = directory.resolve(file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            // pinned to the generation, so a concurrent overwrite doesn't mix two versions
+            try (ReadChannel reader = client.reader(BlobId.of(bucket, key, generation));
+                    FileChannel writer = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                reader.setChunkSize(COPY_BUFFER_SIZE);
+                ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+                while (reader.read(buffer) >= 0) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        writer.write(buffer);
+                    }
+                    buffer.clear();
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temporary);
+        }
+        LOG.info("Local cache miss: downloaded gcs://{}/{}#{} in {} ms", bucket, key, generation, System.currentTimeMillis() - startedAt);
+    }
+
+    /**
+     * Counts a downloaded file, and evicts other files if the directory exceeds the budget.
+     */
+    private synchronized void added(Path file) throws IOException
+    {
+        if (totalBytes < 0) {
+            evict(file);
+            return;
+        }
+        totalBytes += sizeOf(file);
+        if (totalBytes > maxBytes) {
+            evict(file);
+        }
+    }
+
+    /**
+     * Scans the directory, and deletes the least recently used files but {@code keep} until it
+     * fits in the budget.
+     */
+    private synchronized void evict(Path keep) throws IOException
+    {
+        List<Path> files = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+                total += sizeOf(file);
+            }
+        }
+        totalBytes = total;
+        if (total <= maxBytes) {
+            return;
+        }
+        files.sort((a, b) -> Long.compare(lastModified(a), lastModified(b)));
+        for (Path file : files) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (file.equals(keep)) {
+                continue;
+            }
+            long size = sizeOf(file);
+            // readers that have the file open keep reading it
+            if (Files.deleteIfExists(file)) {
+                total -= size;
+                LOG.debug("Local cache evicted {}", file);
+            }
+        }
+        totalBytes = total;
+    }
+
+    private static void touch(Path file)
+    {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        }
+        catch (IOException ex) {
+            // evicted since it was opened
+        }
+    }
+
+    private static long sizeOf(Path file)
+    {
+        try {
+            return Files.size(file);
+        }
+        catch (IOException ex) {
+            // deleted by another process
+            return 0;
+        }
+    }
+
+    private static long lastModified(Path file)
+    {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        }
+        catch (IOException ex) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.embulk.input.gcs.parquet;
+
+import org.apache.parquet.io.InputFile;
+import org.apache.parquet.io.SeekableInputStream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An {@link InputFile} on a local file, such as a copy of {@link LocalCache}.
+ *
+ * <p>The file is opened when this is created, and its streams read from that channel with
+ * positional reads, so they keep reading the file if it is deleted by an eviction in the
+ * meantime. The channel is closed by {@link #close()}, not by the streams.
+ */
+class LocalInputFile
+        implements InputFile, Closeable
+{
+    private final Path path;
+    // of the object the file is a copy of; null if it is not a copy
+    private final Long generation;
+    private final FileChannel channel;
+
+    LocalInputFile(Path path, Long generation) throws IOException
+    {
+        this.path = path;
+        this.generation = generation;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    Path getPath()
+    {
+        return path;
+    }
+
+    Long getGeneration()
+    {
+        return generation;
+    }
+
+    @Override
+    public long getLength() throws IOException
+    {
+        return channel.size();
+    }
+
+    @Override
+    public SeekableInputStream newStream()
+    {
+        return new Stream();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    @Override
+    public String toString()
+    {
+        return path.toString();
+    }
+
+    private class Stream
+            extends PositionedInputStream
+    {
+        Stream()
+        {
+            super(path);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0) {
+                return 0;
+            }
+            int n = channel.read(ByteBuffer.wrap(b, off, len), pos);
+            if (n > 0) {
+                pos += n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close()
+        {
+            // the channel is shared by the streams of the file
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package org.embulk.input.gcs.parquet;
+
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+import org.embulk.spi.Exec;
+import org.slf4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local file recording the objects of the last run and their footers.
+ *
+ * <p>Each object is recorded with its generation, size and update time, and with the tail read by
+ * {@link FooterPrefetcher}. The next run still lists the prefix, since GCS has no feed of changes
+ * to read instead, but takes the footers of objects whose generation didn't change from the
+ * manifest. Footer reads then grow with the objects that changed rather than with all objects.
+ * Footers are only read at transaction time when {@code footer_prefetch_threads} is positive, so
+ * without it the manifest records the listed objects, and keeps the footers of unchanged ones.
+ *
+ * <p>The manifest is a cache: a missing or unreadable file is logged and starts an empty one, and
+ * it is rewritten once the tasks of a run succeeded, but not by preview or guess. It is written to
+ * a temporary file renamed over the old one, so a crash never leaves a partial manifest.
+ */
+class Manifest
+{
+    interface Task
+    {
+        // local file recording listed objects and their footers across runs; nothing is kept if null.
+        // footers are taken from it and recorded only if footer_prefetch_threads > 0
+        @Config("manifest_path")
+        @ConfigDefault("null")
+        Optional<String> getManifestPath();
+    }
+
+    static class Entry
+    {
+        final String name;
+        final long generation;
+        final long size;
+        // milliseconds since the epoch; 0 if the object was not listed
+        final long updateTime;
+        FooterPrefetcher.Footer footer;
+
+        Entry(String name, long generation, long size, long updateTime, FooterPrefetcher.Footer footer)
+        {
+            this.name = name;
+            this.generation = generation;
+            this.size = size;
+            this.updateTime = updateTime;
+            this.footer = footer;
+        }
+    }
+
+    private static final int MAGIC = 0x47504d31;  // "GPM1"
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Logger LOG = Exec.getLogger(Manifest.class);
+
+    private final Path path;
+    private final String bucket;
+    // entries of the last run, by name
+    private final Map<String, Entry> previous;
+    // entries of this run, in the order they were recorded
+    private final Map<String, Entry> current = new LinkedHashMap<>();
+    // footers taken from the manifest; counted by the threads of FooterPrefetcher too
+    private final AtomicInteger reused = new AtomicInteger();
+
+    private Manifest(Path path, String bucket, Map<String, Entry> previous)
+    {
+        this.path = path;
+        this.bucket = bucket;
+        this.previous = previous;
+    }
+
+    /**
+     * Reads the manifest of the last run if {@code manifest_path} is set.
+     */
+    static Optional<Manifest> load(PluginTask task)
+    {
+        if (!task.getManifestPath().isPresent()) {
+            return Optional.empty();
+        }
+        Path path = Paths.get(task.getManifestPath().get()).toAbsolutePath();
+        if (task.getFooterPrefetchThreads() <= 0) {
+            LOG.warn("footer_prefetch_threads is 0, so manifest {} only records the listed objects; footers are neither taken from it nor added to it", path);
+        }
+        Map<String, Entry> entries = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path)), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a manifest");
+            }
+            String bucket = in.readUTF();
+            if (!bucket.equals(task.getBucket())) {
+                LOG.warn("Manifest {} is of bucket {}; starting a new one", path, bucket);
+            }
+            else {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    Entry entry = readEntry(in);
+                    entries.put(entry.name, entry);
+                }
+            }
+        }
+        catch (NoSuchFileException ex) {
+            LOG.info("Manifest {} doesn't exist yet", path);
+        }
+        catch (IOException ex) {
+            LOG.warn(String.format("Could not read manifest %s; starting a new one", path), ex);
+            entries.clear();
+        }
+        return Optional.of(new Manifest(path, task.getBucket(), entries));
+    }
+
+    /**
+     * Records a listed object, keeping its footer if its generation is unchanged.
+     */
+    void listed(String name, long generation, long size, long updateTime)
+    {
+        Entry known = previous.get(name);
+        FooterPrefetcher.Footer footer = known != null && known.generation == generation && known.size == size ? known.footer : null;
+        current.put(name, new Entry(name, generation, size, updateTime, footer));
+    }
+
+    /**
+     * Returns the footer of a listed object if it is known without reading the object.
+     */
+    Optional<FooterPrefetcher.Footer> footer(String name)
+    {
+        Entry entry = current.get(name);
+        if (entry == null || entry.footer == null) {
+            return Optional.empty();
+        }
+        reused.incrementAndGet();
+        return Optional.of(entry.footer);
+    }
+
+    /**
+     * Returns the footer of the last run of an object that was not listed, e.g. one of
+     * {@code paths}, if it has the generation of {@code generation}.
+     */
+    Optional<FooterPrefetcher.Footer> footer(String name, long generation)
+    {
+        Entry known = previous.get(name);
+        if (known == null || known.footer == null || known.generation != generation) {
+            return Optional.empty();
+        }
+        reused.incrementAndGet();
+        return Optional.of(known.footer);
+    }
+
+    /**
+     * Records the footer of an object, listed or not.
+     */
+    void putFooter(String name, FooterPrefetcher.Footer footer)
+    {
+        if (footer.getGeneration() == null) {
+            return;
+        }
+        Entry entry = current.get(name);
+        if (entry != null && entry.generation == footer.getGeneration()) {
+            entry.footer = footer;
+        }
+        else if (entry == null) {
+            current.put(name, new Entry(name, footer.getGeneration(), footer.getLength(), 0L, footer));
+        }
+    }
+
+    /**
+     * Returns the number of footers taken from the manifest.
+     */
+    int getReusedFooters()
+    {
+        return reused.get();
+    }
+
+    /**
+     * Replaces the manifest with the entries of this run. A failure is logged, since the run can
+     * go on without it.
+     */
+    void save()
+    {
+        long startedAt = System.currentTimeMillis();
+        Path temporary = path.resolveSibling(path.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.createDirectories(path.getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temporary)), BUFFER_SIZE))) {
+                out.writeInt(MAGIC);
+                out.writeUTF(bucket);
+                out.writeInt(current.size());
+                for (Entry entry : current.values()) {
+                    writeEntry(out, entry);
+                }
+            }
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            LOG.info("Saved manifest of {} objects to {} in {} ms", current.size(), path, System.currentTimeMillis() - startedAt);
+        }
+        catch (IOException ex) {
+            LOG.warn(String.format("Could not save manifest %s", path), ex);
+        }
+        finally {
+            try {
+                Files.deleteIfExists(temporary);
+            }
+            catch (IOException ex) {
+                LOG.debug("Could not delete {}", temporary, ex);
+            }
+        }
+    }
+
+    private static Entry readEntry(DataInputStream in) throws IOException
+    {
+        String name = in.readUTF();
+        long generation = in.readLong();
+        long size = in.readLong();
+        long updateTime = in.readLong();
+        int tailLength = in.readInt();
+        FooterPrefetcher.Footer footer = null;
+        if (tailLength >= 0) {
+            byte[] tail = new byte[tailLength];
+            in.readFully(tail);
+            footer = new FooterPrefetcher.Footer(size, generation, tail);
+        }
+        return new Entry(name, generation, size, updateTime, footer);
+    }
+
+    private static void writeEntry(DataOutputStream out, Entry entry) throws IOException
+    {
+        out.writeUTF(entry.name);
+        out.writeLong(entry.generation);
+        out.writeLong(entry.size);
+        out.writeLong(entry.updateTime);
+        if (entry.footer == null) {
+            out.writeInt(-1);
+        }
+        else {
+            out.writeInt(entry.footer.getTail().length);
+            out.write(entry.footer.getTail());
+        }
+    }
+}
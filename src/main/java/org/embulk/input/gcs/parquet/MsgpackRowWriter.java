@@ -0,0 +1,227 @@
+package org.embulk.input.gcs.parquet;
+
+import java.math.BigDecimal;
+
+/**
+ * Writes rows as a sequence of MessagePack arrays of the values in column order.
+ *
+ * <p>Every value is prefixed with its type and length, so rows need no separator. Decimals are
+ * written as strings, and nested values as MessagePack arrays and maps.
+ */
+class MsgpackRowWriter
+        extends RowWriter
+{
+    private static final byte[] NO_ESCAPES = new byte[128];
+
+    MsgpackRowWriter(long offset, boolean resumed)
+    {
+        super(offset, resumed);
+    }
+
+    @Override
+    protected void writeRowSeparator()
+    {
+    }
+
+    @Override
+    protected void beginRow(int columns)
+    {
+        startArray(columns);
+    }
+
+    @Override
+    void column(int index)
+    {
+    }
+
+    @Override
+    void endRow()
+    {
+    }
+
+    @Override
+    void writeNull()
+    {
+        writeByte(0xc0);
+    }
+
+    @Override
+    void writeBoolean(boolean value)
+    {
+        writeByte(value ? 0xc3 : 0xc2);
+    }
+
+    @Override
+    void writeLong(long value)
+    {
+        if (value >= 0) {
+            if (value < 0x80) {
+                writeByte((int) value);
+            }
+            else if (value < 0x100) {
+                writeHeader(0xcc, value, 1);
+            }
+            else if (value < 0x10000) {
+                writeHeader(0xcd, value, 2);
+            }
+            else if (value < 0x100000000L) {
+                writeHeader(0xce, value, 4);
+            }
+            else {
+                writeHeader(0xcf, value, 8);
+            }
+        }
+        else if (value >= -32) {
+            writeByte((int) value);
+        }
+        else if (value >= Byte.MIN_VALUE) {
+            writeHeader(0xd0, value, 1);
+        }
+        else if (value >= Short.MIN_VALUE) {
+            writeHeader(0xd1, value, 2);
+        }
+        else if (value >= Integer.MIN_VALUE) {
+            writeHeader(0xd2, value, 4);
+        }
+        else {
+            writeHeader(0xd3, value, 8);
+        }
+    }
+
+    @Override
+    void writeFloat(float value)
+    {
+        writeHeader(0xca, Float.floatToRawIntBits(value), 4);
+    }
+
+    @Override
+    void writeDouble(double value)
+    {
+        writeHeader(0xcb, Double.doubleToRawLongBits(value), 8);
+    }
+
+    @Override
+    void writeDecimal(BigDecimal value)
+    {
+        String text = value.toString();
+        writeStringHeader(text.length());
+        writeAscii(text);
+    }
+
+    @Override
+    void writeUtf8(byte[] bytes, int off, int len)
+    {
+        writeStringHeader(len);
+        writeRaw(bytes, off, len);
+    }
+
+    @Override
+    void writeString(CharSequence value)
+    {
+        writeStringHeader(utf8Length(value));
+        writeChars(value, NO_ESCAPES);
+    }
+
+    @Override
+    void writeLatin1(byte[] bytes, int off, int len)
+    {
+        int length = len;
+        for (int i = off; i < off + len; i++) {
+            if (bytes[i] < 0) {
+                length++;
+            }
+        }
+        writeStringHeader(length);
+        writeLatin1Chars(bytes, off, len, NO_ESCAPES);
+    }
+
+    @Override
+    void startArray(int size)
+    {
+        if (size < 16) {
+            writeByte(0x90 | size);
+        }
+        else if (size < 0x10000) {
+            writeHeader(0xdc, size, 2);
+        }
+        else {
+            writeHeader(0xdd, size, 4);
+        }
+    }
+
+    @Override
+    void element(int index)
+    {
+    }
+
+    @Override
+    void endArray()
+    {
+    }
+
+    @Override
+    void startMap(int size)
+    {
+        if (size < 16) {
+            writeByte(0x80 | size);
+        }
+        else if (size < 0x10000) {
+            writeHeader(0xde, size, 2);
+        }
+        else {
+            writeHeader(0xdf, size, 4);
+        }
+    }
+
+    @Override
+    void key(int index, CharSequence key)
+    {
+        writeText(key);
+    }
+
+    @Override
+    void endMap()
+    {
+    }
+
+    @Override
+    protected RowWriter newWriter()
+    {
+        return new MsgpackRowWriter(0, false);
+    }
+
+    @Override
+    protected void writeEscape(int c)
+    {
+        // nothing is escaped
+        writeByte(c);
+    }
+
+    private void writeStringHeader(int length)
+    {
+        if (length < 32) {
+            writeByte(0xa0 | length);
+        }
+        else if (length < 0x100) {
+            writeHeader(0xd9, length, 1);
+        }
+        else if (length < 0x10000) {
+            writeHeader(0xda, length, 2);
+        }
+        else {
+            writeHeader(0xdb, length, 4);
+        }
+    }
+
+    /**
+     * Writes {@code type} and the lowest {@code bytes} bytes of {@code value}, big endian.
+     */
+    private void writeHeader(int type, long value, int bytes)
+    {
+        require(1 + bytes);
+        out[pos++] = (byte) type;
+        for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+            out[pos++] = (byte) (value >>> shift);
+        }
+    }
+}
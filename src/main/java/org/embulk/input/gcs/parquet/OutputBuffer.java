@@ -0,0 +1,182 @@
+package org.embulk.input.gcs.parquet;
+
+/**
+ * Bytes written into the array of the caller of {@code InputStream.read}.
+ *
+ * <p>{@link #target} points the buffer at the array to fill, which is the array of a {@code Buffer}
+ * of the task's allocator when the stream is read by {@code InputStreamFileInput}. A value that
+ * doesn't fit in the rest of the target is written to a spill array instead, as is everything
+ * after it until the next target, and is handed out by {@link #drain} on the next read.
+ */
+class OutputBuffer
+{
+    private static final int INITIAL_SPILL_SIZE = 64 * 1024;
+
+    // the array being written: the target or the spill array
+    protected byte[] out;
+    protected int pos;
+    private int limit;
+    private boolean spilling;
+
+    // bytes written before the current segment of out, and where the segment starts
+    private long base;
+    private int segmentStart;
+
+    private int targetStart;
+    private int targetEnd;
+
+    private byte[] spill = new byte[INITIAL_SPILL_SIZE];
+    private int spillStart;
+
+    /**
+     * Creates a buffer that writes to the spill array until the first {@link #target}.
+     *
+     * @param offset stream offset of the first byte written
+     */
+    OutputBuffer(long offset)
+    {
+        this.base = offset;
+        this.out = spill;
+        this.limit = spill.length;
+        this.spilling = true;
+    }
+
+    /**
+     * Writes into {@code b} from {@code off}, up to {@code len} bytes. The spill array must have
+     * been drained.
+     */
+    void target(byte[] b, int off, int len)
+    {
+        base += pos - segmentStart;
+        out = b;
+        pos = off;
+        limit = off + len;
+        segmentStart = off;
+        spilling = false;
+        targetStart = off;
+    }
+
+    /**
+     * Stops writing into the target.
+     *
+     * @return the number of bytes written into the target
+     */
+    int release()
+    {
+        if (!spilling) {
+            switchToSpill();
+        }
+        return targetEnd - targetStart;
+    }
+
+    /**
+     * Returns true if the target has no room left, so that further values are spilled.
+     */
+    boolean isFull()
+    {
+        return spilling || pos >= limit;
+    }
+
+    /**
+     * Returns the stream offset of the next byte written.
+     */
+    long offset()
+    {
+        return base + pos - segmentStart;
+    }
+
+    /**
+     * Returns the number of spilled bytes not drained yet.
+     */
+    int available()
+    {
+        return spilling ? pos - spillStart : 0;
+    }
+
+    /**
+     * Moves up to {@code len} spilled bytes to {@code b}. Must not be called while writing into
+     * a target.
+     */
+    int drain(byte[] b, int off, int len)
+    {
+        int n = Math.min(len, available());
+        System.arraycopy(spill, spillStart, b, off, n);
+        spillStart += n;
+        if (spillStart == pos) {
+            base += pos - segmentStart;
+            spillStart = 0;
+            pos = 0;
+            segmentStart = 0;
+        }
+        return n;
+    }
+
+    /**
+     * Returns the spilled bytes and drains them.
+     */
+    byte[] drainAll()
+    {
+        byte[] bytes = new byte[available()];
+        drain(bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    void writeByte(int b)
+    {
+        require(1);
+        out[pos++] = (byte) b;
+    }
+
+    void writeRaw(byte[] bytes)
+    {
+        writeRaw(bytes, 0, bytes.length);
+    }
+
+    void writeRaw(byte[] bytes, int off, int len)
+    {
+        if (len == 0) {
+            return;
+        }
+        require(len);
+        System.arraycopy(bytes, off, out, pos, len);
+        pos += len;
+    }
+
+    /**
+     * Makes room for {@code n} bytes at {@link #pos} of {@link #out}.
+     */
+    protected void require(int n)
+    {
+        if (pos + n <= limit) {
+            return;
+        }
+        if (!spilling) {
+            switchToSpill();
+            if (pos + n <= limit) {
+                return;
+            }
+        }
+        // drained bytes are dropped before growing
+        int length = pos - spillStart;
+        byte[] array = length + n <= spill.length ? spill : new byte[Math.max(spill.length * 2, length + n)];
+        System.arraycopy(spill, spillStart, array, 0, length);
+        segmentStart -= spillStart;
+        pos = length;
+        spillStart = 0;
+        spill = array;
+        out = array;
+        limit = array.length;
+    }
+
+    private void switchToSpill()
+    {
+        targetEnd = pos;
+        base += pos - segmentStart;
+        out = spill;
+        pos = 0;
+        segmentStart = 0;
+        spillStart = 0;
+        limit = spill.length;
+        spilling = true;
+    }
+}
@@ -0,0 +1,263 @@
+package org.embulk.input.gcs.parquet;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericFixed;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.util.Utf8;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Streams records of a Parquet file in the {@code output_format}, decoded into a reused
+ * {@link FlatRow} if the file is flat, or through Avro otherwise.
+ *
+ * <p>{@code ParquetReader} doesn't tell which row group a record comes from, so checkpoints are
+ * recorded by counting records against the row counts of the row groups. This is only possible if
+ * no record is filtered out.
+ *
+ * <p>Records are written the way {@code GenericDatumWriter} and {@code NoWrappingJsonEncoder} did:
+ * union values without the name of the branch, bytes and fixed as strings of the same character
+ * codes, and logical types as their underlying type. Nested records are written as maps.
+ */
+class ParquetJsonInputStream
+        extends RecordInputStream
+{
+    private final ParquetReader<?> reader;
+    private final List<BlockMetaData> rowGroups;
+    private final Set<String> columns;
+
+    // field names of each nested record schema
+    private final Map<Schema, Utf8[]> fieldNames = new IdentityHashMap<>();
+    // positions of the fields written of the top-level schema or of the flat row
+    private Schema rowSchema;
+    private FlatRow flatRow;
+    private int[] rowFields;
+
+    private long rows;
+    private int nextRowGroup;
+    private long nextRowGroupRow;
+
+    /**
+     * @param reader a reader of {@link FlatRow}s or {@link GenericRecord}s that starts at the row group of {@code start}
+     * @param rowGroups row groups the reader reads, or empty if records are filtered
+     * @param columns columns to write, or empty to write all columns
+     */
+    ParquetJsonInputStream(ParquetReader<?> reader, List<BlockMetaData> rowGroups, List<String> columns,
+                           RowWriter.OutputFormat format, Checkpoints checkpoints, Checkpoint start)
+    {
+        super(format, checkpoints, start);
+        this.reader = reader;
+        this.rowGroups = rowGroups;
+        this.columns = new HashSet<>(columns);
+    }
+
+    @Override
+    protected boolean fill() throws IOException
+    {
+        do {
+            Object record = reader.read();
+            if (record == null) {
+                return false;
+            }
+            while (nextRowGroup < rowGroups.size() && rows == nextRowGroupRow) {
+                checkpoint(start.rowGroup + nextRowGroup, rowGroups.get(nextRowGroup).getStartingPos(), start.row + rows);
+                nextRowGroupRow += rowGroups.get(nextRowGroup).getRowCount();
+                nextRowGroup++;
+            }
+            if (record instanceof FlatRow) {
+                writeRow((FlatRow) record);
+            }
+            else {
+                writeRow((GenericRecord) record);
+            }
+            rows++;
+        }
+        while (!writer.isFull());
+        return true;
+    }
+
+    private void writeRow(GenericRecord record)
+    {
+        Schema schema = record.getSchema();
+        if (schema != rowSchema) {
+            setRowSchema(schema);
+        }
+        List<Schema.Field> fields = schema.getFields();
+        writer.startRow(rowFields.length);
+        for (int i = 0; i < rowFields.length; i++) {
+            writer.column(i);
+            write(fields.get(rowFields[i]).schema(), record.get(rowFields[i]));
+        }
+        writer.endRow();
+    }
+
+    private void setRowSchema(Schema schema)
+    {
+        List<String> names = new ArrayList<>();
+        for (Schema.Field field : schema.getFields()) {
+            names.add(field.name());
+        }
+        rowSchema = schema;
+        setRowFields(names);
+    }
+
+    private void setRowFields(List<String> names)
+    {
+        // columns read only for the filter aren't written
+        List<String> written = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            if (columns.isEmpty() || columns.contains(names.get(i))) {
+                written.add(names.get(i));
+                positions.add(i);
+            }
+        }
+        rowFields = positions.stream().mapToInt(Integer::intValue).toArray();
+        writer.setColumns(written);
+    }
+
+    /**
+     * Writes a row the way {@link #writeRow(GenericRecord)} writes the Avro record of the same
+     * values.
+     */
+    private void writeRow(FlatRow row)
+    {
+        if (row != flatRow) {
+            flatRow = row;
+            setRowFields(row.getNames());
+        }
+        writer.startRow(rowFields.length);
+        for (int i = 0; i < rowFields.length; i++) {
+            int field = rowFields[i];
+            writer.column(i);
+            if (row.isNull(field)) {
+                writer.writeNull();
+                continue;
+            }
+            switch (row.getType(field)) {
+                case BOOLEAN:
+                    writer.writeBoolean(row.getBoolean(field));
+                    break;
+                case INT32:
+                case INT64:
+                    writer.writeLong(row.getLong(field));
+                    break;
+                case FLOAT:
+                    writer.writeFloat((float) row.getDouble(field));
+                    break;
+                case DOUBLE:
+                    writer.writeDouble(row.getDouble(field));
+                    break;
+                default:
+                    if (row.isString(field)) {
+                        writer.writeUtf8(row.getBinary(field).toByteBuffer());
+                    }
+                    else {
+                        writer.writeLatin1(row.getBinary(field).toByteBuffer());
+                    }
+                    break;
+            }
+        }
+        writer.endRow();
+    }
+
+    private void writeRecord(Schema schema, GenericRecord record)
+    {
+        List<Schema.Field> fields = schema.getFields();
+        Utf8[] names = fieldNames.get(schema);
+        if (names == null) {
+            names = new Utf8[fields.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = new Utf8(fields.get(i).name());
+            }
+            fieldNames.put(schema, names);
+        }
+        writer.startMap(names.length);
+        for (int i = 0; i < names.length; i++) {
+            writer.key(i, names[i]);
+            write(fields.get(i).schema(), record.get(i));
+        }
+        writer.endMap();
+    }
+
+    private void write(Schema schema, Object datum)
+    {
+        switch (schema.getType()) {
+            case RECORD:
+                writeRecord(schema, (GenericRecord) datum);
+                break;
+            case UNION:
+                write(schema.getTypes().get(GenericData.get().resolveUnion(schema, datum)), datum);
+                break;
+            case NULL:
+                writer.writeNull();
+                break;
+            case BOOLEAN:
+                writer.writeBoolean((Boolean) datum);
+                break;
+            case INT:
+            case LONG:
+                writer.writeLong(((Number) datum).longValue());
+                break;
+            case FLOAT:
+                writer.writeFloat((Float) datum);
+                break;
+            case DOUBLE:
+                writer.writeDouble((Double) datum);
+                break;
+            case STRING:
+                writer.writeText((CharSequence) datum);
+                break;
+            case BYTES:
+                writer.writeLatin1((ByteBuffer) datum);
+                break;
+            case FIXED:
+                byte[] fixed = ((GenericFixed) datum).bytes();
+                writer.writeLatin1(fixed, 0, fixed.length);
+                break;
+            case ENUM:
+                writer.writeString(datum.toString());
+                break;
+            case ARRAY:
+                Collection<?> elements = (Collection<?>) datum;
+                writer.startArray(elements.size());
+                int index = 0;
+                for (Object element : elements) {
+                    writer.element(index++);
+                    write(schema.getElementType(), element);
+                }
+                writer.endArray();
+                break;
+            case MAP:
+                Map<?, ?> map = (Map<?, ?>) datum;
+                writer.startMap(map.size());
+                int key = 0;
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writer.key(key++, (CharSequence) entry.getKey());
+                    write(schema.getValueType(), entry.getValue());
+                }
+                writer.endMap();
+                break;
+            default:
+                throw new IllegalStateException("Unknown Avro type: " + schema.getType());
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        super.close();
+        reader.close();
+    }
+}
@@ -0,0 +1,110 @@
+package org.embulk.input.gcs.parquet;
+
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.OriginalType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.Type;
+import org.embulk.spi.Column;
+import org.embulk.spi.DataException;
+import org.embulk.spi.Schema;
+import org.embulk.spi.type.Types;
+
+/**
+ * Maps a Parquet file schema to Embulk columns.
+ *
+ * <p>Every top-level field becomes one column. Nested and repeated fields are exposed as json.
+ */
+class ParquetSchemaConverter
+{
+    private ParquetSchemaConverter()
+    {
+    }
+
+    static Schema toEmbulkSchema(MessageType messageType)
+    {
+        Schema.Builder builder = Schema.builder();
+        for (Type field : messageType.getFields()) {
+            builder.add(field.getName(), toEmbulkType(field));
+        }
+        return builder.build();
+    }
+
+    static org.embulk.spi.type.Type toEmbulkType(Type field)
+    {
+        if (!field.isPrimitive() || field.isRepetition(Type.Repetition.REPEATED)) {
+            return Types.JSON;
+        }
+        PrimitiveType primitive = field.asPrimitiveType();
+        OriginalType originalType = primitive.getOriginalType();
+        switch (primitive.getPrimitiveTypeName()) {
+            case BOOLEAN:
+                return Types.BOOLEAN;
+            case INT32:
+            case INT64:
+                if (originalType == OriginalType.DATE
+                        || originalType == OriginalType.TIMESTAMP_MILLIS
+                        || originalType == OriginalType.TIMESTAMP_MICROS) {
+                    return Types.TIMESTAMP;
+                }
+                if (originalType == OriginalType.DECIMAL) {
+                    return Types.DOUBLE;
+                }
+                return Types.LONG;
+            case INT96:
+                return Types.TIMESTAMP;
+            case FLOAT:
+            case DOUBLE:
+                return Types.DOUBLE;
+            default:
+                // BINARY and FIXED_LEN_BYTE_ARRAY
+                if (originalType == OriginalType.DECIMAL) {
+                    return Types.DOUBLE;
+                }
+                if (originalType == OriginalType.JSON) {
+                    return Types.JSON;
+                }
+                return Types.STRING;
+        }
+    }
+
+    /**
+     * Returns the type of the values of {@code field} as written by the record streams: dates and
+     * timestamps as epoch numbers, and decimals and JSON as strings.
+     */
+    static org.embulk.spi.type.Type toEmittedType(Type field)
+    {
+        org.embulk.spi.type.Type type = toEmbulkType(field);
+        if (!field.isPrimitive() || field.isRepetition(Type.Repetition.REPEATED)) {
+            return type;
+        }
+        if (type == Types.TIMESTAMP) {
+            return Types.LONG;
+        }
+        OriginalType originalType = field.asPrimitiveType().getOriginalType();
+        if (originalType == OriginalType.DECIMAL || originalType == OriginalType.JSON) {
+            return Types.STRING;
+        }
+        return type;
+    }
+
+    /**
+     * Fails if a column of {@code fileSchema} doesn't have the type of the column of the same name
+     * in {@code schema}, which is derived from the first file. Values are set on pages by the type
+     * of the first file, so the columns of the other files must map to the same types. Columns
+     * missing from {@code fileSchema} are set to null.
+     */
+    static void checkSchema(PluginTask task, String key, MessageType fileSchema, Schema schema)
+    {
+        for (Column column : schema.getColumns()) {
+            if (!fileSchema.containsField(column.getName())) {
+                continue;
+            }
+            Type field = fileSchema.getType(column.getName());
+            org.embulk.spi.type.Type type = toEmbulkType(field);
+            if (!type.equals(column.getType())) {
+                throw new DataException(String.format("Column %s of gcs://%s/%s is %s (%s), but %s in the first file",
+                        column.getName(), task.getBucket(), key, type, field, column.getType()));
+            }
+        }
+    }
+}
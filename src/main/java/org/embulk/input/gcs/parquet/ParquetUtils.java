@@ -0,0 +1,354 @@
+package org.embulk.input.gcs.parquet;
+
+import com.google.cloud.storage.Storage;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.HadoopReadOptions;
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.avro.AvroReadSupport;
+import org.apache.parquet.filter2.compat.FilterCompat;
+import org.apache.parquet.filter2.compat.RowGroupFilter;
+import org.apache.parquet.filter2.predicate.FilterPredicate;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.api.ReadSupport;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.apache.parquet.io.InputFile;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.Type;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+import org.embulk.spi.DataException;
+import org.embulk.spi.Exec;
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+class ParquetUtils
+{
+    public enum ReaderEngine
+    {
+        avro, column_batch
+    }
+
+    interface Task
+    {
+        // avro: decode records through parquet-avro (any schema)
+        // column_batch: decode flat files column by column into primitive arrays
+        @Config("reader_engine")
+        @ConfigDefault("\"avro\"")
+        ReaderEngine getReaderEngine();
+
+        // top-level columns to read; all columns if empty
+        @Config("columns")
+        @ConfigDefault("[]")
+        List<String> getColumns();
+
+        // e.g. "event_date >= '2026-01-01' AND country IN ('DE', 'FR')"; see FilterExpression
+        @Config("filter")
+        @ConfigDefault("null")
+        Optional<String> getFilter();
+    }
+
+    private static final Logger LOG = Exec.getLogger(ParquetUtils.class);
+
+    // parquet-mr takes its options from a Configuration; files are read without Hadoop file systems
+    private static final Configuration CONFIGURATION = new Configuration();
+
+    private ParquetUtils()
+    {
+    }
+
+    /**
+     * Opens a record reader for the row groups of {@code entry}.
+     *
+     * @param file the file of {@code key}, from {@link #newInputFile}
+     */
+    static ParquetReader<GenericRecord> openReader(PluginTask task, String key, FileList.Entry entry, InputFile file) throws IOException
+    {
+        ParquetMetadata footer = readFooter(task, key, file);
+        checkAvroReadable(task, key, project(footer.getFileMetaData().getSchema(), readColumns(task)));
+        return openReader(task, key, entry, file, footer, newAvroReadSupport(task));
+    }
+
+    /**
+     * Opens a reader of {@link FlatRow}s for the row groups of {@code entry} if the columns to read
+     * are flat, or of Avro records otherwise.
+     *
+     * @param file the file of {@code key}, from {@link #newInputFile}
+     */
+    static ParquetReader<?> openRowReader(PluginTask task, String key, FileList.Entry entry, InputFile file) throws IOException
+    {
+        List<String> columns = readColumns(task);
+        // the footer picks the read support, and plans the reads of the reader
+        ParquetMetadata footer = readFooter(task, key, file);
+        MessageType schema = project(footer.getFileMetaData().getSchema(), columns);
+        if (FlatRow.supports(schema)) {
+            return openReader(task, key, entry, file, footer, new FlatRowReadSupport(columns));
+        }
+        checkAvroReadable(task, key, schema);
+        return openReader(task, key, entry, file, footer, newAvroReadSupport(task));
+    }
+
+    /**
+     * Fails if {@code schema} has INT96 columns, which parquet-avro 1.10 can't convert. They are
+     * decoded by the column_batch engine only.
+     */
+    static void checkAvroReadable(PluginTask task, String key, MessageType schema)
+    {
+        List<String> int96 = new ArrayList<>();
+        for (ColumnDescriptor column : schema.getColumns()) {
+            if (column.getType() == PrimitiveType.PrimitiveTypeName.INT96) {
+                int96.add(String.join(".", column.getPath()));
+            }
+        }
+        if (!int96.isEmpty()) {
+            throw new DataException(String.format("gcs://%s/%s has INT96 timestamp columns %s, which the avro engine can't read; "
+                    + "set reader_engine: column_batch, or leave them out of columns", task.getBucket(), key, int96));
+        }
+    }
+
+    private static ReadSupport<GenericRecord> newAvroReadSupport(PluginTask task)
+    {
+        List<String> columns = readColumns(task);
+        return columns.isEmpty()
+                ? new AvroReadSupport<GenericRecord>()
+                : new ProjectedAvroReadSupport(columns);
+    }
+
+    private static <T> ParquetReader<T> openReader(PluginTask task, String key, FileList.Entry entry,
+                                                   InputFile file, ParquetMetadata footer, ReadSupport<T> readSupport) throws IOException
+    {
+        List<String> columns = readColumns(task);
+        Optional<FilterExpression> filter = task.getFilter().map(FilterExpression::parse);
+        Optional<FilterPredicate> predicate = Optional.empty();
+        if (filter.isPresent() || task.getReadAheadRowGroups() > 0 || SharedCache.of(task).cachesChunks()) {
+            MessageType fileSchema = footer.getFileMetaData().getSchema();
+            if (filter.isPresent()) {
+                predicate = Optional.of(filter.get().toPredicate(fileSchema));
+            }
+            file = planReads(task, key, file, footer, entry, project(fileSchema, columns), predicate);
+        }
+
+        ParquetReader.Builder<T> builder = new InputFileReaderBuilder<>(file, readSupport);
+        builder.withConf(CONFIGURATION);
+        if (!entry.isWholeFile()) {
+            builder.withFileRange(entry.getStart(), entry.getEnd());
+        }
+        if (predicate.isPresent()) {
+            builder.withFilter(FilterCompat.get(predicate.get()))
+                    .useStatsFilter(true)
+                    .useDictionaryFilter(true)
+                    .useRecordFilter(true);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Opens a reader for the column_batch engine.
+     *
+     * <p>Returns empty if the file has nested or repeated fields, which the engine can't decode.
+     *
+     * @param file the file of {@code key}, from {@link #newInputFile}
+     */
+    static Optional<ColumnBatchReader> openColumnBatchReader(PluginTask task, String key, FileList.Entry entry, InputFile file)
+            throws IOException
+    {
+        HadoopReadOptions.Builder options = HadoopReadOptions.builder(CONFIGURATION);
+        if (!entry.isWholeFile()) {
+            // only row groups whose midpoint is in the range are read
+            options.withRange(entry.getStart(), entry.getEnd());
+        }
+        ParquetMetadata footer = readFooter(task, key, file);
+        MessageType fileSchema = footer.getFileMetaData().getSchema();
+        MessageType schema = project(fileSchema, readColumns(task));
+        if (!ColumnBatchReader.supports(schema)) {
+            LOG.warn("gcs://{}/{} has nested fields; reading it with the avro engine", task.getBucket(), key);
+            return Optional.empty();
+        }
+        Optional<FilterExpression> filter = task.getFilter().map(FilterExpression::parse);
+        Optional<FilterPredicate> predicate = filter.map(f -> f.toPredicate(fileSchema));
+        if (predicate.isPresent()) {
+            // row groups are dropped by statistics and dictionaries when the reader is opened
+            options.withRecordFilter(FilterCompat.get(predicate.get()))
+                    .useStatsFilter(true)
+                    .useDictionaryFilter(true);
+        }
+        ParquetFileReader fileReader = ParquetFileReader.open(planReads(task, key, file, footer, entry, schema, predicate), options.build());
+        // column chunks outside of the requested schema are never read
+        fileReader.setRequestedSchema(schema);
+        return Optional.of(new ColumnBatchReader(fileReader, schema, project(fileSchema, task.getColumns()),
+                filter, ColumnBatchReader.DEFAULT_BATCH_SIZE));
+    }
+
+    /**
+     * Wraps {@code file} to read the column chunks of the row groups the reader is going to read
+     * through the shared cache, and to fetch them ahead of decoding.
+     *
+     * <p>Row groups are selected by the range of {@code entry} and by the statistics of
+     * {@code predicate}. Row groups that are dropped by dictionaries are fetched but never read.
+     */
+    private static InputFile planReads(PluginTask task, String key, InputFile file, ParquetMetadata footer, FileList.Entry entry,
+                                       MessageType readSchema, Optional<FilterPredicate> predicate) throws IOException
+    {
+        SharedCache cache = SharedCache.of(task);
+        if (task.getReadAheadRowGroups() <= 0 && !cache.cachesChunks()) {
+            return file;
+        }
+        List<BlockMetaData> blocks = selectRowGroups(footer, entry);
+        if (predicate.isPresent()) {
+            blocks = RowGroupFilter.filterRowGroups(FilterCompat.get(predicate.get()), blocks, footer.getFileMetaData().getSchema());
+        }
+        List<List<ReadAheadInputFile.Run>> plan = ReadAheadInputFile.plan(blocks, readSchema);
+        if (cache.cachesChunks()) {
+            file = new ChunkCacheInputFile(file, cache, SharedCache.id(task.getBucket(), key, file), plan);
+        }
+        if (task.getReadAheadRowGroups() > 0) {
+            file = new ReadAheadInputFile(file, plan, task.getReadAheadRowGroups(), task.getReadAheadMaxBytes(), task);
+        }
+        return file;
+    }
+
+    /**
+     * Returns the row groups in the range of {@code entry}, by the same midpoint rule as
+     * {@code ParquetReadOptions.withRange}.
+     */
+    static List<BlockMetaData> selectRowGroups(ParquetMetadata footer, FileList.Entry entry)
+    {
+        List<BlockMetaData> blocks = new ArrayList<>();
+        for (BlockMetaData block : footer.getBlocks()) {
+            long midpoint = block.getStartingPos() + block.getCompressedSize() / 2;
+            if (entry.isWholeFile() || (entry.getStart() <= midpoint && midpoint < entry.getEnd())) {
+                blocks.add(block);
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Returns the footer of {@code file}, parsed once per JVM.
+     */
+    static ParquetMetadata readFooter(PluginTask task, String key, InputFile file) throws IOException
+    {
+        return SharedCache.of(task).footer(SharedCache.id(task.getBucket(), key, file), () -> {
+            try (ParquetFileReader reader = ParquetFileReader.open(file)) {
+                return reader.getFooter();
+            }
+        });
+    }
+
+    /**
+     * Returns the file to read: the local copy if {@code local_cache_dir} is set, or the object on
+     * GCS, serving the footer from memory if it was fetched at transaction time. The file is
+     * released by {@link #close(InputFile)}.
+     */
+    static InputFile newInputFile(PluginTask task, String key) throws IOException
+    {
+        if (task.getLocalCacheDir().isPresent()) {
+            Optional<InputFile> local = LocalCache.of(task).open(task, key);
+            if (local.isPresent()) {
+                return local.get();
+            }
+        }
+        return newRemoteInputFile(task, key);
+    }
+
+    /**
+     * Closes {@code file} if it holds an open local copy.
+     */
+    static void close(InputFile file) throws IOException
+    {
+        if (file instanceof Closeable) {
+            ((Closeable) file).close();
+        }
+    }
+
+    /**
+     * Returns the object on GCS, serving the footer from memory.
+     *
+     * <p>The footer is the one fetched at transaction time if there is one. Otherwise the object is
+     * looked up, and its tail is read once per JVM and generation, so that every reader of the
+     * object parses the footer without another request.
+     */
+    static InputFile newRemoteInputFile(PluginTask task, String key) throws IOException
+    {
+        Storage client = ClientRegistry.client(task);
+        FooterPrefetcher.Footer footer = task.getFooters().get(key);
+        if (footer == null) {
+            GcsInputFile file = GcsInputFile.open(client, task.getBucket(), key);
+            footer = SharedCache.of(task).tail(SharedCache.id(task.getBucket(), key, file),
+                    () -> FooterPrefetcher.readTail(task, key, file));
+        }
+        return new FooterCachedInputFile(client, task.getBucket(), key, footer);
+    }
+
+    /**
+     * Returns the columns to read: {@code columns} plus the columns the filter refers to, or empty
+     * to read all columns.
+     */
+    static List<String> readColumns(PluginTask task)
+    {
+        if (task.getColumns().isEmpty()) {
+            return task.getColumns();
+        }
+        Set<String> columns = new LinkedHashSet<>(task.getColumns());
+        task.getFilter().ifPresent(filter -> columns.addAll(FilterExpression.parse(filter).getColumns()));
+        return new ArrayList<>(columns);
+    }
+
+    /**
+     * Returns the subset of top-level fields of {@code fileSchema} named in {@code columns}, in
+     * file order. Returns {@code fileSchema} itself if {@code columns} is empty.
+     *
+     * @throws DataException if some of {@code columns} are not top-level fields of {@code fileSchema}
+     */
+    static MessageType project(MessageType fileSchema, List<String> columns)
+    {
+        if (columns.isEmpty()) {
+            return fileSchema;
+        }
+        List<String> missing = new ArrayList<>();
+        for (String column : columns) {
+            if (!fileSchema.containsField(column) && !missing.contains(column)) {
+                missing.add(column);
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new DataException(String.format("Columns %s don't exist in schema %s", missing, fileSchema));
+        }
+        List<Type> fields = new ArrayList<>();
+        for (Type field : fileSchema.getFields()) {
+            if (columns.contains(field.getName())) {
+                fields.add(field);
+            }
+        }
+        return new MessageType(fileSchema.getName(), fields);
+    }
+
+    // ParquetReader.Builder(InputFile) is protected
+    private static class InputFileReaderBuilder<T>
+            extends ParquetReader.Builder<T>
+    {
+        private final ReadSupport<T> readSupport;
+
+        InputFileReaderBuilder(InputFile file, ReadSupport<T> readSupport)
+        {
+            super(file);
+            this.readSupport = readSupport;
+        }
+
+        @Override
+        protected ReadSupport<T> getReadSupport()
+        {
+            return readSupport;
+        }
+    }
+}
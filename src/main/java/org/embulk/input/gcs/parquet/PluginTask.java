@@ -7,10 +7,14 @@ import org.embulk.config.Task;
 import org.embulk.spi.BufferAllocator;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public interface PluginTask
-        extends Task, AuthUtils.Task, FileList.Task, RetryUtils.Task
+        extends Task, AuthUtils.Task, FileList.Task, ParquetUtils.Task, RetryUtils.Task,
+                RowGroupSplitter.Task, FooterPrefetcher.Task, ReadAheadInputFile.Task, LocalCache.Task,
+                SharedCache.Task, RangeReader.Task, RowWriter.Task, BucketLister.Task,
+                Manifest.Task, Watermark.Task, TaskPlanner.Task, ClientRegistry.Task
 {
     @Config("bucket")
     String getBucket();
@@ -38,6 +42,10 @@ public interface PluginTask
     FileList getFiles();
     void setFiles(FileList files);
 
+    // footers fetched at transaction time, by key
+    Map<String, FooterPrefetcher.Footer> getFooters();
+    void setFooters(Map<String, FooterPrefetcher.Footer> footers);
+
     @ConfigInject
     BufferAllocator getBufferAllocator();
 }
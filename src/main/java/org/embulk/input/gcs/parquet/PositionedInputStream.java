@@ -0,0 +1,99 @@
+package org.embulk.input.gcs.parquet;
+
+import org.apache.parquet.io.SeekableInputStream;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link SeekableInputStream} whose reads are all implemented by {@link #read(byte[], int, int)}
+ * at {@link #pos}, for the {@code InputFile} decorators of this plugin.
+ */
+abstract class PositionedInputStream
+        extends SeekableInputStream
+{
+    private final Object file;
+
+    protected long pos;
+
+    protected PositionedInputStream(Object file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Reads up to {@code len} bytes at {@link #pos} and advances it.
+     */
+    @Override
+    public abstract int read(byte[] b, int off, int len) throws IOException;
+
+    @Override
+    public long getPos()
+    {
+        return pos;
+    }
+
+    @Override
+    public void seek(long newPos)
+    {
+        pos = newPos;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(ByteBuffer buf) throws IOException
+    {
+        if (buf.hasArray()) {
+            int n = read(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            if (n > 0) {
+                buf.position(buf.position() + n);
+            }
+            return n;
+        }
+        byte[] b = new byte[buf.remaining()];
+        int n = read(b, 0, b.length);
+        if (n > 0) {
+            buf.put(b, 0, n);
+        }
+        return n;
+    }
+
+    @Override
+    public void readFully(byte[] bytes) throws IOException
+    {
+        readFully(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void readFully(byte[] bytes, int start, int len) throws IOException
+    {
+        int offset = start;
+        int remaining = len;
+        while (remaining > 0) {
+            int n = read(bytes, offset, remaining);
+            if (n < 0) {
+                throw new EOFException(String.format("Reached the end of %s with %d bytes left to read", file, remaining));
+            }
+            offset += n;
+            remaining -= n;
+        }
+    }
+
+    @Override
+    public void readFully(ByteBuffer buf) throws IOException
+    {
+        while (buf.hasRemaining()) {
+            if (read(buf) < 0) {
+                throw new EOFException(String.format("Reached the end of %s with %d bytes left to read", file, buf.remaining()));
+            }
+        }
+    }
+}
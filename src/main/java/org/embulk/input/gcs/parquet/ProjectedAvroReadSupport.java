@@ -0,0 +1,40 @@
+package org.embulk.input.gcs.parquet;
+
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.avro.AvroReadSupport;
+import org.apache.parquet.avro.AvroSchemaConverter;
+import org.apache.parquet.schema.MessageType;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An {@link AvroReadSupport} that requests only the given top-level columns.
+ *
+ * <p>The projection is built from the file schema itself, and the Avro read schema is derived from
+ * the projection, so fields of the Avro schema stored in the file that aren't requested don't need
+ * default values.
+ */
+class ProjectedAvroReadSupport
+        extends AvroReadSupport<GenericRecord>
+{
+    private final List<String> columns;
+
+    ProjectedAvroReadSupport(List<String> columns)
+    {
+        this.columns = columns;
+    }
+
+    @Override
+    public ReadContext init(Configuration configuration,
+                            Map<String, String> keyValueMetaData,
+                            MessageType fileSchema)
+    {
+        MessageType projection = ParquetUtils.project(fileSchema, columns);
+        Configuration projected = new Configuration(configuration);
+        AvroReadSupport.setAvroReadSchema(projected, new AvroSchemaConverter(configuration).convert(projection));
+        ReadContext context = super.init(projected, keyValueMetaData, fileSchema);
+        return new ReadContext(projection, context.getReadSupportMetadata());
+    }
+}
@@ -0,0 +1,216 @@
+package org.embulk.input.gcs.parquet;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.parquet.io.InputFile;
+import org.apache.parquet.io.SeekableInputStream;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Reads the runs of column chunks of a row group with as few requests as possible.
+ *
+ * <p>Runs that are less than {@code maxGap} bytes apart are read with one request, and the bytes
+ * in between are dropped. A request is never longer than {@code maxRangeLength}, so a large run is
+ * read in parts. Up to {@code parallelism} requests are issued at a time, each with its own
+ * stream, and the responses are sliced back into one buffer per run.
+ *
+ * <p>Requests run on a pool shared by all readers of the JVM, which keeps idle threads for a
+ * while, so opening a file doesn't start threads of its own.
+ */
+class RangeReader
+{
+    interface Task
+    {
+        // runs of column chunks closer than this are read with one request
+        @Config("read_coalesce_gap_bytes")
+        @ConfigDefault("1048576")
+        long getReadCoalesceGapBytes();
+
+        @Config("read_max_range_bytes")
+        @ConfigDefault("8388608")
+        int getReadMaxRangeBytes();
+
+        // number of requests issued concurrently per file
+        @Config("read_parallelism")
+        @ConfigDefault("4")
+        int getReadParallelism();
+    }
+
+    /**
+     * Bytes of a run that are read by a range.
+     */
+    static class Slice
+    {
+        final int run;
+        final long offset;
+        final int runOffset;
+        final int length;
+
+        Slice(int run, long offset, int runOffset, int length)
+        {
+            this.run = run;
+            this.offset = offset;
+            this.runOffset = runOffset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Bytes read with one request.
+     */
+    static class Range
+    {
+        final long offset;
+        final int length;
+        final List<Slice> slices;
+
+        Range(long offset, int length, List<Slice> slices)
+        {
+            this.offset = offset;
+            this.length = length;
+            this.slices = slices;
+        }
+    }
+
+    // unbounded, so that the workers of a read always start; each read bounds its own concurrency
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setNameFormat("gcs-parquet-range-read-%d")
+            .setDaemon(true)
+            .build());
+
+    private final long maxGap;
+    private final int maxRangeLength;
+    private final int parallelism;
+
+    RangeReader(long maxGap, int maxRangeLength, int parallelism)
+    {
+        this.maxGap = maxGap;
+        this.maxRangeLength = maxRangeLength;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Returns the requests to read {@code runs} with, in file order.
+     */
+    static List<Range> coalesce(List<ReadAheadInputFile.Run> runs, long maxGap, int maxRangeLength)
+    {
+        List<Integer> order = IntStream.range(0, runs.size()).boxed()
+                .sorted(Comparator.comparingLong(i -> runs.get(i).offset))
+                .collect(Collectors.toList());
+        List<Range> ranges = new ArrayList<>();
+        List<Slice> slices = null;
+        long start = 0;
+        long end = 0;
+        for (int i : order) {
+            ReadAheadInputFile.Run run = runs.get(i);
+            for (int done = 0; done < run.length; ) {
+                long offset = run.offset + done;
+                int length = Math.min(run.length - done, maxRangeLength);
+                if (slices == null || offset - end > maxGap || offset + length - start > maxRangeLength) {
+                    if (slices != null) {
+                        ranges.add(new Range(start, (int) (end - start), slices));
+                    }
+                    slices = new ArrayList<>();
+                    start = offset;
+                }
+                slices.add(new Slice(i, offset, done, length));
+                end = offset + length;
+                done += length;
+            }
+        }
+        if (slices != null) {
+            ranges.add(new Range(start, (int) (end - start), slices));
+        }
+        return ranges;
+    }
+
+    /**
+     * Reads {@code runs} of {@code file}.
+     *
+     * @return the bytes of each run, in the order of {@code runs}
+     */
+    byte[][] read(InputFile file, List<ReadAheadInputFile.Run> runs) throws IOException
+    {
+        byte[][] data = new byte[runs.size()][];
+        for (int i = 0; i < runs.size(); i++) {
+            data[i] = new byte[runs.get(i).length];
+        }
+        List<Range> ranges = coalesce(runs, maxGap, maxRangeLength);
+        if (ranges.size() == 1) {
+            read(file, ranges.get(0), data);
+            return data;
+        }
+
+        // workers take the next range until none is left
+        AtomicInteger next = new AtomicInteger();
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(parallelism, ranges.size()); i++) {
+            workers.add(EXECUTOR.submit(() -> {
+                for (int r = next.getAndIncrement(); r < ranges.size(); r = next.getAndIncrement()) {
+                    read(file, ranges.get(r), data);
+                }
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+        finally {
+            // no range is started anymore; the caller may close the file once the running ones are done
+            next.set(ranges.size());
+            for (Future<?> worker : workers) {
+                try {
+                    Uninterruptibles.getUninterruptibly(worker);
+                }
+                catch (ExecutionException ignored) {
+                    // the first failure is thrown above
+                }
+            }
+        }
+        return data;
+    }
+
+    private static void read(InputFile file, Range range, byte[][] data) throws IOException
+    {
+        try (SeekableInputStream in = file.newStream()) {
+            in.seek(range.offset);
+            if (range.slices.size() == 1) {
+                // no gap; read into the buffer of the run directly
+                Slice slice = range.slices.get(0);
+                in.readFully(data[slice.run], slice.runOffset, slice.length);
+                return;
+            }
+            byte[] bytes = new byte[range.length];
+            in.readFully(bytes);
+            for (Slice slice : range.slices) {
+                System.arraycopy(bytes, (int) (slice.offset - range.offset), data[slice.run], slice.runOffset, slice.length);
+            }
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package org.embulk.input.gcs.parquet;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.io.InputFile;
+import org.apache.parquet.io.SeekableInputStream;
+import org.apache.parquet.schema.MessageType;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link InputFile} that fetches the column chunks of the next row groups in the background
+ * while the current one is decoded.
+ *
+ * <p>The plan is the list of row groups the reader is going to read, in order, each as runs of
+ * consecutive column chunks of the requested columns. Parquet reads each run with a single
+ * {@code readFully}, so a run is served from memory once it has been fetched. Up to
+ * {@code depth} row groups, and no more than {@code maxBytes} unless a single row group is
+ * larger, are held at a time. The runs of a row group are fetched by a {@link RangeReader}. Reads
+ * outside of the plan go to the file directly.
+ *
+ * <p>A row group is released once its last run has been read, or once the reader reads a later
+ * row group of the plan, since the reader skipped it, e.g. because its dictionaries prove that no
+ * row matches.
+ */
+class ReadAheadInputFile
+        implements InputFile
+{
+    interface Task
+    {
+        // number of row groups fetched ahead of the one being decoded; disabled if 0
+        @Config("read_ahead_row_groups")
+        @ConfigDefault("2")
+        int getReadAheadRowGroups();
+
+        // upper limit of bytes held by read-ahead per task
+        @Config("read_ahead_max_bytes")
+        @ConfigDefault("67108864")
+        long getReadAheadMaxBytes();
+    }
+
+    /**
+     * Consecutive column chunks of a row group.
+     */
+    static class Run
+    {
+        final long offset;
+        final int length;
+
+        Run(long offset, int length)
+        {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        long end()
+        {
+            return offset + length;
+        }
+    }
+
+    // a fetch in flight stops once the requests it started are done
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    private final InputFile file;
+    private final List<List<Run>> plan;
+    private final int depth;
+    private final long maxBytes;
+    private final RangeReader.Task reads;
+
+    ReadAheadInputFile(InputFile file, List<List<Run>> plan, int depth, long maxBytes, RangeReader.Task reads)
+    {
+        this.file = file;
+        this.plan = plan;
+        this.depth = depth;
+        this.maxBytes = maxBytes;
+        this.reads = reads;
+    }
+
+    /**
+     * Returns the runs of consecutive column chunks of {@code schema} in each of {@code blocks},
+     * grouped the same way as {@code ParquetFileReader.readNextRowGroup} does.
+     */
+    static List<List<Run>> plan(List<BlockMetaData> blocks, MessageType schema)
+    {
+        List<List<Run>> plan = new ArrayList<>();
+        for (BlockMetaData block : blocks) {
+            List<Run> runs = new ArrayList<>();
+            long offset = -1;
+            long end = -1;
+            for (ColumnChunkMetaData column : block.getColumns()) {
+                if (!schema.containsPath(column.getPath().toArray())) {
+                    continue;
+                }
+                if (column.getStartingPos() != end) {
+                    if (offset >= 0) {
+                        runs.add(new Run(offset, (int) (end - offset)));
+                    }
+                    offset = column.getStartingPos();
+                }
+                end = column.getStartingPos() + column.getTotalSize();
+            }
+            if (offset >= 0) {
+                runs.add(new Run(offset, (int) (end - offset)));
+            }
+            if (!runs.isEmpty()) {
+                plan.add(runs);
+            }
+        }
+        return plan;
+    }
+
+    @Override
+    public long getLength() throws IOException
+    {
+        return file.getLength();
+    }
+
+    @Override
+    public SeekableInputStream newStream() throws IOException
+    {
+        return new Stream(file.newStream());
+    }
+
+    @Override
+    public String toString()
+    {
+        return file.toString();
+    }
+
+    private static class Fetch
+    {
+        // of the row group in the plan
+        final int index;
+        final List<Run> runs;
+        final long bytes;
+        final Future<byte[][]> data;
+
+        Fetch(int index, List<Run> runs, long bytes, Future<byte[][]> data)
+        {
+            this.index = index;
+            this.runs = runs;
+            this.bytes = bytes;
+            this.data = data;
+        }
+    }
+
+    private class Stream
+            extends PositionedInputStream
+    {
+        private final SeekableInputStream direct;
+        private final ExecutorService executor;
+        private final RangeReader reader;
+        private final Deque<Fetch> fetches = new ArrayDeque<>();
+        private int next;
+        private long heldBytes;
+
+        Stream(SeekableInputStream direct)
+        {
+            super(file);
+            this.direct = direct;
+            this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("gcs-parquet-read-ahead-%d")
+                    .setDaemon(true)
+                    .build());
+            this.reader = new RangeReader(reads.getReadCoalesceGapBytes(), reads.getReadMaxRangeBytes(), reads.getReadParallelism());
+            schedule();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0) {
+                return 0;
+            }
+            int index = planned(pos);
+            if (index >= 0) {
+                skipTo(index);
+                Fetch fetch = fetches.getFirst();
+                for (int i = 0; i < fetch.runs.size(); i++) {
+                    Run run = fetch.runs.get(i);
+                    if (run.offset <= pos && pos < run.end()) {
+                        int n = (int) Math.min(len, run.end() - pos);
+                        System.arraycopy(await(fetch)[i], (int) (pos - run.offset), b, off, n);
+                        pos += n;
+                        if (pos == run.end() && i == fetch.runs.size() - 1) {
+                            release(fetches.removeFirst());
+                            schedule();
+                        }
+                        return n;
+                    }
+                }
+            }
+            // not fetched ahead, e.g. the footer; don't read into a run that is
+            direct.seek(pos);
+            int n = direct.read(b, off, (int) Math.min(len, nextRun(pos) - pos));
+            if (n > 0) {
+                pos += n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            for (Fetch fetch : fetches) {
+                fetch.data.cancel(true);
+            }
+            fetches.clear();
+            executor.shutdownNow();
+            try {
+                // a fetch in flight still reads the file until its running requests are done
+                executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            finally {
+                direct.close();
+            }
+        }
+
+        /**
+         * Returns the index of the row group of the plan with a run at {@code offset}, from the
+         * first one held on, or -1.
+         */
+        private int planned(long offset)
+        {
+            for (int index = first(); index < plan.size(); index++) {
+                for (Run run : plan.get(index)) {
+                    if (run.offset <= offset && offset < run.end()) {
+                        return index;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the offset of the first run after {@code offset}, from the first row group held on.
+         */
+        private long nextRun(long offset)
+        {
+            long next = Long.MAX_VALUE;
+            for (int index = first(); index < plan.size(); index++) {
+                for (Run run : plan.get(index)) {
+                    if (offset < run.offset) {
+                        next = Math.min(next, run.offset);
+                    }
+                }
+            }
+            return next;
+        }
+
+        private int first()
+        {
+            return fetches.isEmpty() ? next : fetches.getFirst().index;
+        }
+
+        /**
+         * Releases the row groups planned before {@code index}, which the reader skipped, and
+         * fetches from {@code index} on.
+         */
+        private void skipTo(int index)
+        {
+            while (!fetches.isEmpty() && fetches.getFirst().index < index) {
+                release(fetches.removeFirst());
+            }
+            if (fetches.isEmpty()) {
+                next = index;
+            }
+            schedule();
+        }
+
+        private void release(Fetch fetch)
+        {
+            fetch.data.cancel(true);
+            heldBytes -= fetch.bytes;
+        }
+
+        private void schedule()
+        {
+            while (fetches.size() < depth && next < plan.size()) {
+                List<Run> runs = plan.get(next);
+                long bytes = 0;
+                for (Run run : runs) {
+                    bytes += run.length;
+                }
+                if (!fetches.isEmpty() && heldBytes + bytes > maxBytes) {
+                    return;
+                }
+                heldBytes += bytes;
+                fetches.add(new Fetch(next, runs, bytes, executor.submit(() -> reader.read(file, runs))));
+                next++;
+            }
+        }
+
+        private byte[][] await(Fetch fetch) throws IOException
+        {
+            try {
+                return fetch.data.get();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException) {
+                    throw (IOException) ex.getCause();
+                }
+                throw new IOException(ex.getCause());
+            }
+        }
+    }
+}
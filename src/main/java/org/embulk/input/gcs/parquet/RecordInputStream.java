@@ -0,0 +1,190 @@
+package org.embulk.input.gcs.parquet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An {@link InputStream} that encodes records on demand, in the {@code output_format}.
+ *
+ * <p>Subclasses write records with {@link #writer} in {@link #fill} until it is full. The writer
+ * writes into the array passed to {@link #read}, so records are encoded straight into the buffers
+ * of the reader of the stream, and only a record that doesn't fit is held until the next read.
+ * Memory usage does not depend on the size of the file.
+ *
+ * <p>Subclasses also record a {@link Checkpoint} at the first record of each row group. A stream
+ * that starts at a checkpoint produces the same bytes as the original stream from the offset of
+ * the checkpoint on, so a failed stream can be resumed from the last row group boundary before
+ * the failure instead of from the head of the file.
+ */
+abstract class RecordInputStream
+        extends InputStream
+{
+    protected final RowWriter writer;
+    protected final Checkpoints checkpoints;
+    protected final Checkpoint start;
+
+    private boolean finished;
+    private Closeable resource;
+
+    protected RecordInputStream(RowWriter.OutputFormat format, Checkpoints checkpoints, Checkpoint start)
+    {
+        // a stream that starts after the records of a previous row group separates the first record from them
+        this.writer = RowWriter.of(format, start.offset, start.offset > 0);
+        this.checkpoints = checkpoints;
+        this.start = start;
+    }
+
+    /**
+     * Records that the next record written is the first one of a row group.
+     *
+     * @param rowGroup index of the row group among the row groups this stream reads
+     * @param startingPos file position of the row group
+     * @param row number of records written before
+     */
+    protected void checkpoint(int rowGroup, long startingPos, long row)
+    {
+        checkpoints.add(new Checkpoint(rowGroup, startingPos, row, writer.offset()));
+    }
+
+    /**
+     * Writes at least one record, and more until {@link #writer} is full.
+     *
+     * @return false if there are no more records
+     */
+    protected abstract boolean fill() throws IOException;
+
+    @Override
+    public int read() throws IOException
+    {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (len == 0) {
+            return 0;
+        }
+        while (true) {
+            if (writer.available() > 0) {
+                return writer.drain(b, off, len);
+            }
+            if (finished) {
+                return -1;
+            }
+            writer.target(b, off, len);
+            try {
+                while (!writer.isFull()) {
+                    if (!fill()) {
+                        finished = true;
+                        break;
+                    }
+                }
+            }
+            catch (IOException | RuntimeException ex) {
+                // what was written into b is dropped; the stream is reopened at the last offset read
+                writer.release();
+                throw ex;
+            }
+            int n = writer.release();
+            if (n > 0) {
+                return n;
+            }
+        }
+    }
+
+    /**
+     * Decodes the first records ahead of the first read, so that opening the file can be done on
+     * another thread.
+     */
+    void prefetch() throws IOException
+    {
+        if (writer.available() == 0 && !finished) {
+            finished = !fill();
+        }
+    }
+
+    @Override
+    public int available()
+    {
+        return writer.available();
+    }
+
+    /**
+     * Closes {@code resource}, such as the file the reader reads, when this stream is closed.
+     */
+    RecordInputStream closing(Closeable resource)
+    {
+        this.resource = resource;
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        finished = true;
+        if (resource != null) {
+            resource.close();
+        }
+    }
+
+    /**
+     * A position in the stream where a row group starts.
+     */
+    static class Checkpoint
+    {
+        static final Checkpoint HEAD = new Checkpoint(0, 0L, 0L, 0L);
+
+        final int rowGroup;
+        final long startingPos;
+        final long row;
+        final long offset;
+
+        Checkpoint(int rowGroup, long startingPos, long row, long offset)
+        {
+            this.rowGroup = rowGroup;
+            this.startingPos = startingPos;
+            this.row = row;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Checkpoints of a stream in offset order, shared by the stream and the streams that resume it.
+     */
+    static class Checkpoints
+    {
+        private final List<Checkpoint> checkpoints = new ArrayList<>();
+
+        Checkpoints()
+        {
+            checkpoints.add(Checkpoint.HEAD);
+        }
+
+        synchronized void add(Checkpoint checkpoint)
+        {
+            // a resumed stream passes the checkpoints recorded by the failed one again
+            if (checkpoint.offset > checkpoints.get(checkpoints.size() - 1).offset) {
+                checkpoints.add(checkpoint);
+            }
+        }
+
+        /**
+         * Returns the last checkpoint at or before {@code offset}.
+         */
+        synchronized Checkpoint floor(long offset)
+        {
+            for (int i = checkpoints.size() - 1; i > 0; i--) {
+                if (checkpoints.get(i).offset <= offset) {
+                    return checkpoints.get(i);
+                }
+            }
+            return Checkpoint.HEAD;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.embulk.input.gcs.parquet;
+
+import com.google.common.base.Throwables;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.io.InputFile;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+import org.embulk.spi.Exec;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Splits Parquet files into byte ranges of whole row groups, so a large file is read by several
+ * tasks.
+ *
+ * <p>A range holds a row group if the midpoint of the row group is in it, which is how
+ * {@code ParquetReadOptions.withRange} selects row groups. Ranges are cut at the starting
+ * position of a row group and cover the file without gaps, so each row group belongs to exactly
+ * one range.
+ */
+class RowGroupSplitter
+{
+    interface Task
+    {
+        // split files into tasks of about this many compressed bytes; files are not split if null
+        @Config("row_group_split_size")
+        @ConfigDefault("null")
+        Optional<Long> getRowGroupSplitSize();
+    }
+
+    private static final Logger LOG = Exec.getLogger(RowGroupSplitter.class);
+
+    private RowGroupSplitter()
+    {
+    }
+
+    /**
+     * Reads the footer of each file and returns a file list with one entry per range.
+     */
+    static FileList split(PluginTask task, FileList files, long splitSize)
+    {
+        FileList.Builder builder = new FileList.Builder()
+                .pathMatchPattern(".*")
+                .minTaskSize(task.getMinTaskSize());
+        int splits = 0;
+        for (int i = 0; i < files.getTaskCount(); i++) {
+            for (String key : files.get(i)) {
+                List<BlockMetaData> blocks;
+                long length;
+                try {
+                    // only the footer is read at transaction time, never the whole object into local_cache_dir
+                    InputFile file = ParquetUtils.newRemoteInputFile(task, key);
+                    length = file.getLength();
+                    blocks = ParquetUtils.readFooter(task, key, file).getBlocks();
+                }
+                catch (IOException ex) {
+                    throw Throwables.propagate(ex);
+                }
+                List<Long> boundaries = boundaries(blocks, length, splitSize);
+                for (int j = 0; j + 1 < boundaries.size(); j++) {
+                    long start = boundaries.get(j);
+                    long end = boundaries.get(j + 1);
+                    builder.add(key, end - start, start, end);
+                    splits++;
+                }
+            }
+        }
+        LOG.info("Split files into {} row group ranges", splits);
+        return builder.build();
+    }
+
+    /**
+     * Returns the boundaries of ranges holding about {@code splitSize} compressed bytes of row
+     * groups each: the first is 0, the last is {@code fileLength}, and the rest are starting
+     * positions of row groups. A row group larger than {@code splitSize} gets a range of its own.
+     */
+    static List<Long> boundaries(List<BlockMetaData> blocks, long fileLength, long splitSize)
+    {
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        long current = 0;
+        for (BlockMetaData block : blocks) {
+            if (current > 0 && current + block.getCompressedSize() > splitSize) {
+                boundaries.add(block.getStartingPos());
+                current = 0;
+            }
+            current += block.getCompressedSize();
+        }
+        boundaries.add(fileLength);
+        return boundaries;
+    }
+}
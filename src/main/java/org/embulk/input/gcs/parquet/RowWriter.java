@@ -0,0 +1,397 @@
+package org.embulk.input.gcs.parquet;
+
+import org.apache.avro.util.Utf8;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.Type;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+import org.embulk.spi.DataException;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes rows in the {@code output_format} into an {@link OutputBuffer}.
+ *
+ * <p>A row is written as {@link #startRow}, then {@link #column} and a value for each column, then
+ * {@link #endRow}. Nested values are written with {@link #startArray} and {@link #startMap}, whose
+ * items are each preceded by {@link #element} or {@link #key}.
+ */
+abstract class RowWriter
+        extends OutputBuffer
+{
+    public enum OutputFormat
+    {
+        json, json_array, csv, msgpack
+    }
+
+    interface Task
+    {
+        // json: an object per row
+        // json_array: an array of the values of a row, in column order
+        // csv: the values of a row in column order, comma separated
+        // msgpack: a MessagePack array of the values of a row, in column order
+        @Config("output_format")
+        @ConfigDefault("\"json\"")
+        OutputFormat getOutputFormat();
+
+        // columns of the first file as "name type", which every file of csv, json_array and msgpack must have; empty for json
+        List<String> getRowColumns();
+        void setRowColumns(List<String> columns);
+    }
+
+    private boolean separate;
+    private RowWriter scratch;
+
+    /**
+     * @param offset stream offset of the first byte written
+     * @param resumed true if a row was written before {@code offset}
+     */
+    protected RowWriter(long offset, boolean resumed)
+    {
+        super(offset);
+        this.separate = resumed;
+    }
+
+    static RowWriter of(OutputFormat format, long offset, boolean resumed)
+    {
+        switch (format) {
+            case json_array:
+                return new JsonRowWriter(offset, resumed, true);
+            case csv:
+                return new CsvRowWriter(offset, resumed);
+            case msgpack:
+                return new MsgpackRowWriter(offset, resumed);
+            default:
+                return new JsonRowWriter(offset, resumed, false);
+        }
+    }
+
+    /**
+     * Returns the parser config that reads the rows of {@code schema} written in {@code format}.
+     */
+    static String parserConfig(OutputFormat format, MessageType schema)
+    {
+        StringBuilder config = new StringBuilder();
+        String indent = "  ";
+        switch (format) {
+            case csv:
+                config.append("parser:\n")
+                        .append("  type: csv\n")
+                        .append("  charset: UTF-8\n")
+                        .append("  newline: LF\n")
+                        .append("  delimiter: ','\n")
+                        .append("  quote: '\"'\n")
+                        .append("  escape: '\"'\n")
+                        .append("  skip_header_lines: 0\n")
+                        .append("  columns:\n");
+                break;
+            case msgpack:
+                config.append("parser:\n")
+                        .append("  type: msgpack\n")
+                        .append("  file_encoding: sequence\n")
+                        .append("  row_encoding: array\n")
+                        .append("  columns:\n");
+                break;
+            default:
+                config.append("# each row is a JSON array of these columns\n")
+                        .append("columns:\n");
+                indent = "";
+                break;
+        }
+        for (Type field : schema.getFields()) {
+            config.append(indent).append("- {name: '").append(field.getName().replace("'", "''"))
+                    .append("', type: ").append(ParquetSchemaConverter.toEmittedType(field).getName()).append("}\n");
+        }
+        return config.toString();
+    }
+
+    /**
+     * Returns the names and emitted types of the columns of {@code schema}, as "name type".
+     */
+    static List<String> rowColumns(MessageType schema)
+    {
+        List<String> columns = new ArrayList<>();
+        for (Type field : schema.getFields()) {
+            columns.add(field.getName() + " " + ParquetSchemaConverter.toEmittedType(field).getName());
+        }
+        return columns;
+    }
+
+    /**
+     * Fails if the columns of {@code schema} differ from those of the first file. Rows of the
+     * positional formats don't carry column names, so they would be parsed into the wrong columns.
+     */
+    static void checkRowColumns(PluginTask task, String key, MessageType schema)
+    {
+        List<String> columns = rowColumns(schema);
+        if (!columns.equals(task.getRowColumns())) {
+            throw new DataException(String.format("gcs://%s/%s has columns %s, but the first file has %s; %s rows are parsed by position",
+                    task.getBucket(), key, columns, task.getRowColumns(), task.getOutputFormat()));
+        }
+    }
+
+    /**
+     * Sets the names of the columns of the rows written next.
+     */
+    void setColumns(List<String> names)
+    {
+    }
+
+    void startRow(int columns)
+    {
+        if (separate) {
+            writeRowSeparator();
+        }
+        separate = true;
+        beginRow(columns);
+    }
+
+    protected abstract void writeRowSeparator();
+
+    protected abstract void beginRow(int columns);
+
+    abstract void column(int index);
+
+    abstract void endRow();
+
+    abstract void writeNull();
+
+    abstract void writeBoolean(boolean value);
+
+    abstract void writeLong(long value);
+
+    abstract void writeFloat(float value);
+
+    abstract void writeDouble(double value);
+
+    abstract void writeDecimal(BigDecimal value);
+
+    /**
+     * Writes UTF-8 bytes as a string, without decoding them.
+     */
+    abstract void writeUtf8(byte[] bytes, int off, int len);
+
+    abstract void writeString(CharSequence value);
+
+    /**
+     * Writes each byte as the character of the same code, as Avro encodes bytes and fixed.
+     */
+    abstract void writeLatin1(byte[] bytes, int off, int len);
+
+    abstract void startArray(int size);
+
+    abstract void element(int index);
+
+    abstract void endArray();
+
+    abstract void startMap(int size);
+
+    abstract void key(int index, CharSequence key);
+
+    abstract void endMap();
+
+    /**
+     * Returns a writer of the same format, for values encoded ahead of time.
+     */
+    protected abstract RowWriter newWriter();
+
+    /**
+     * Writes an escaped ASCII character, for the escape tables passed to the helpers below.
+     */
+    protected abstract void writeEscape(int c);
+
+    void writeUtf8(ByteBuffer bytes)
+    {
+        if (bytes.hasArray()) {
+            writeUtf8(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+        }
+        else {
+            byte[] copy = new byte[bytes.remaining()];
+            bytes.duplicate().get(copy);
+            writeUtf8(copy, 0, copy.length);
+        }
+    }
+
+    /**
+     * Returns the bytes {@link #writeUtf8} writes for {@code bytes}, so that a value repeated
+     * across rows is escaped once and then copied with {@link #writeRaw}.
+     */
+    byte[] encodeUtf8(ByteBuffer bytes)
+    {
+        if (scratch == null) {
+            scratch = newWriter();
+        }
+        scratch.writeUtf8(bytes);
+        return scratch.drainAll();
+    }
+
+    void writeLatin1(ByteBuffer bytes)
+    {
+        if (bytes.hasArray()) {
+            writeLatin1(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+        }
+        else {
+            byte[] copy = new byte[bytes.remaining()];
+            bytes.duplicate().get(copy);
+            writeLatin1(copy, 0, copy.length);
+        }
+    }
+
+    /**
+     * Writes a string, without decoding it if it is already UTF-8.
+     */
+    void writeText(CharSequence value)
+    {
+        if (value instanceof Utf8) {
+            Utf8 utf8 = (Utf8) value;
+            writeUtf8(utf8.getBytes(), 0, utf8.getByteLength());
+        }
+        else {
+            writeString(value);
+        }
+    }
+
+    protected void writeAscii(String value)
+    {
+        int length = value.length();
+        require(length);
+        for (int i = 0; i < length; i++) {
+            out[pos++] = (byte) value.charAt(i);
+        }
+    }
+
+    protected void writeDigits(long value)
+    {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        boolean negative = value < 0;
+        if (negative) {
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        require(negative ? digits + 1 : digits);
+        if (negative) {
+            out[pos++] = '-';
+        }
+        for (int i = pos + digits - 1; i >= pos; i--) {
+            out[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        pos += digits;
+    }
+
+    /**
+     * Writes UTF-8 bytes, escaping the ASCII characters whose entry in {@code escapes} isn't 0.
+     */
+    protected void writeUtf8Bytes(byte[] bytes, int off, int len, byte[] escapes)
+    {
+        int end = off + len;
+        int run = off;
+        for (int i = off; i < end; i++) {
+            int c = bytes[i];
+            if (c >= 0 && escapes[c] != 0) {
+                writeRaw(bytes, run, i - run);
+                writeEscape(c);
+                run = i + 1;
+            }
+        }
+        writeRaw(bytes, run, end - run);
+    }
+
+    protected void writeLatin1Chars(byte[] bytes, int off, int len, byte[] escapes)
+    {
+        for (int i = off; i < off + len; i++) {
+            int c = bytes[i] & 0xff;
+            if (c >= 0x80) {
+                require(2);
+                out[pos++] = (byte) (0xc0 | (c >> 6));
+                out[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+            else if (escapes[c] != 0) {
+                writeEscape(c);
+            }
+            else {
+                require(1);
+                out[pos++] = (byte) c;
+            }
+        }
+    }
+
+    protected void writeChars(CharSequence value, byte[] escapes)
+    {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (escapes[c] != 0) {
+                    writeEscape(c);
+                }
+                else {
+                    require(1);
+                    out[pos++] = (byte) c;
+                }
+            }
+            else if (c < 0x800) {
+                require(2);
+                out[pos++] = (byte) (0xc0 | (c >> 6));
+                out[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                require(4);
+                out[pos++] = (byte) (0xf0 | (cp >> 18));
+                out[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                out[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                out[pos++] = (byte) (0x80 | (cp & 0x3f));
+            }
+            else if (Character.isSurrogate(c)) {
+                // unpaired; replaced like String.getBytes does
+                require(1);
+                out[pos++] = '?';
+            }
+            else {
+                require(3);
+                out[pos++] = (byte) (0xe0 | (c >> 12));
+                out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                out[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes {@link #writeChars} writes for {@code value} without escapes.
+     */
+    protected static int utf8Length(CharSequence value)
+    {
+        int length = value.length();
+        int bytes = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            }
+            else if (c < 0x800) {
+                bytes += 2;
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            }
+            else if (Character.isSurrogate(c)) {
+                bytes++;
+            }
+            else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,152 @@
+package org.embulk.input.gcs.parquet;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.apache.parquet.io.InputFile;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+import org.embulk.spi.Exec;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Footers, parsed and as read, and column chunks shared by all tasks of the JVM.
+ *
+ * <p>Entries are keyed by bucket, key and generation of the object, so an object overwritten
+ * with the same size is read again. The caches are segmented, so concurrent tasks lock only the
+ * segment of the entry they access, and a value that is being loaded is loaded once for all tasks
+ * that ask for it. Transactions of the same JVM with different cache sizes use separate caches.
+ */
+class SharedCache
+{
+    interface Task
+    {
+        @Config("shared_footer_cache_size")
+        @ConfigDefault("256")
+        long getSharedFooterCacheSize();
+
+        // column chunks aren't cached if 0
+        @Config("shared_chunk_cache_max_bytes")
+        @ConfigDefault("0")
+        long getSharedChunkCacheMaxBytes();
+    }
+
+    private static final Logger LOG = Exec.getLogger(SharedCache.class);
+
+    // by footer cache size and chunk cache bytes
+    private static final Map<List<Long>, SharedCache> INSTANCES = new HashMap<>();
+
+    private final Cache<String, ParquetMetadata> footers;
+    private final Cache<String, FooterPrefetcher.Footer> tails;
+    private final Cache<String, byte[]> chunks;
+
+    private SharedCache(long footerCacheSize, long chunkCacheMaxBytes)
+    {
+        int concurrencyLevel = Runtime.getRuntime().availableProcessors();
+        this.footers = CacheBuilder.newBuilder()
+                .concurrencyLevel(concurrencyLevel)
+                .maximumSize(footerCacheSize)
+                .recordStats()
+                .build();
+        this.tails = CacheBuilder.newBuilder()
+                .concurrencyLevel(concurrencyLevel)
+                .maximumSize(footerCacheSize)
+                .recordStats()
+                .build();
+        this.chunks = chunkCacheMaxBytes <= 0 ? null : CacheBuilder.newBuilder()
+                .concurrencyLevel(concurrencyLevel)
+                .maximumWeight(chunkCacheMaxBytes)
+                .<String, byte[]>weigher((key, value) -> value.length)
+                .recordStats()
+                .build();
+    }
+
+    static synchronized SharedCache of(PluginTask task)
+    {
+        return INSTANCES.computeIfAbsent(Arrays.asList(task.getSharedFooterCacheSize(), task.getSharedChunkCacheMaxBytes()),
+                sizes -> new SharedCache(sizes.get(0), sizes.get(1)));
+    }
+
+    /**
+     * Returns the id of the generation of the object {@code file} reads. Files of an unknown
+     * generation are told apart by their length only.
+     */
+    static String id(String bucket, String key, InputFile file) throws IOException
+    {
+        Long generation = null;
+        if (file instanceof GcsInputFile) {
+            generation = ((GcsInputFile) file).getBlobId().getGeneration();
+        }
+        else if (file instanceof FooterCachedInputFile) {
+            generation = ((FooterCachedInputFile) file).getBlobId().getGeneration();
+        }
+        else if (file instanceof LocalInputFile) {
+            generation = ((LocalInputFile) file).getGeneration();
+        }
+        if (generation == null) {
+            return String.format("gs://%s/%s@%d", bucket, key, file.getLength());
+        }
+        return String.format("gs://%s/%s#%d", bucket, key, generation);
+    }
+
+    ParquetMetadata footer(String id, Callable<ParquetMetadata> loader) throws IOException
+    {
+        return get(footers, id, loader);
+    }
+
+    /**
+     * Returns the footer bytes of an object that wasn't prefetched at transaction time.
+     */
+    FooterPrefetcher.Footer tail(String id, Callable<FooterPrefetcher.Footer> loader) throws IOException
+    {
+        return get(tails, id, loader);
+    }
+
+    boolean cachesChunks()
+    {
+        return chunks != null;
+    }
+
+    byte[] chunk(String id, long offset, int length, Callable<byte[]> loader) throws IOException
+    {
+        return get(chunks, id + "@" + offset + "+" + length, loader);
+    }
+
+    void logStats()
+    {
+        log("footer", footers.stats());
+        log("footer tail", tails.stats());
+        if (chunks != null) {
+            log("chunk", chunks.stats());
+        }
+    }
+
+    private static void log(String name, CacheStats stats)
+    {
+        LOG.info("Shared {} cache: {} hits, {} misses, {} evictions", name, stats.hitCount(), stats.missCount(), stats.evictionCount());
+    }
+
+    private static <T> T get(Cache<String, T> cache, String key, Callable<T> loader) throws IOException
+    {
+        try {
+            return cache.get(key, loader);
+        }
+        catch (ExecutionException | UncheckedExecutionException | ExecutionError ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+}
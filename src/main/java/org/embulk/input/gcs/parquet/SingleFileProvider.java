@@ -1,204 +1,231 @@
 package org.embulk.input.gcs.parquet;
 
-import com.google.cloud.ReadChannel;
 import com.google.cloud.storage.Storage;
-import org.apache.avro.Schema;
-import org.apache.avro.SchemaBuilder;
-import org.apache.avro.generic.GenericDatumWriter;
-import org.apache.avro.generic.GenericRecord;
-import org.apache.avro.io.DatumWriter;
-import org.apache.avro.io.NoWrappingJsonEncoder;
-import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.LocalFileSystem;
-import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.hdfs.DistributedFileSystem;
-import org.apache.parquet.avro.AvroParquetReader;
-import org.apache.parquet.hadoop.ParquetReader;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.apache.parquet.io.InputFile;
 import org.embulk.spi.Exec;
-import org.embulk.spi.unit.LocalFile;
 import org.embulk.spi.util.InputStreamFileInput;
 import org.embulk.spi.util.InputStreamFileInput.InputStreamWithHints;
 import org.embulk.spi.util.ResumableInputStream;
 import org.slf4j.Logger;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.io.InterruptedIOException;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static java.lang.String.format;
 
-@SuppressWarnings("unchecked")
 public class SingleFileProvider implements InputStreamFileInput.Provider {
-    private static final Logger LOGGER = Exec.getLogger(SingleFileProvider.class);
+    private final PluginTask task;
     private final Storage client;
     private final String bucket;
     private final Iterator<String> iterator;
-    private boolean opened = false;
-    private final LocalFile jsonFile;
+    private final Iterator<FileList.Entry> entries;
+    private final ExecutorService executor;
+    private String nextKey;
+    private FileList.Entry nextEntry;
+    private Future<RecordInputStream> next;
 
     SingleFileProvider(PluginTask task, int taskIndex) {
-        this.client = AuthUtils.newClient(task);
+        this.task = task;
+        this.client = ClientRegistry.client(task);
         this.bucket = task.getBucket();
         this.iterator = task.getFiles().get(taskIndex).iterator();
-        this.jsonFile = task.getJsonKeyfile().get();
+        this.entries = task.getFiles().getEntries(taskIndex).iterator();
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("gcs-parquet-next-file-%d")
+                .setDaemon(true)
+                .build());
     }
 
     @Override
     public InputStreamWithHints openNextWithHints() {
-        if (opened) {
-            return null;
-        }
-        opened = true;
-        if (!iterator.hasNext()) {
-            return null;
-        }
-        String key = iterator.next();
-        InputStream inputStream = null;
-        Configuration config = getConfig(jsonFile);
-        String path = String.format("gs://%s/%s", bucket, key);
-        ParquetReader reader = null;
-        List<GenericRecord> records = new ArrayList<>();
-        Schema schema;
+        String key;
+        FileList.Entry entry;
+        RecordInputStream inputStream;
         try {
-            reader = AvroParquetReader.builder(new Path(path)).withConf(config).build();
-            Object obj = reader.read();
-
-            while (obj != null) {
-                if (obj instanceof GenericRecord) {
-                    records.add(((GenericRecord) obj));
-                }
-                obj = reader.read();
-            }
-            if (records.size() == 0) {
-                schema =
-                        SchemaBuilder.record("default") // source's name
-                                .namespace("default") // source's namespace
-                                .fields() // empty fields
-                                .endRecord();
+            if (next != null) {
+                key = nextKey;
+                entry = nextEntry;
+                inputStream = awaitNext();
+            } else if (iterator.hasNext()) {
+                key = iterator.next();
+                entry = entries.next();
+                inputStream = openStream(task, key, entry, new RecordInputStream.Checkpoints(), RecordInputStream.Checkpoint.HEAD);
             } else {
-                schema = records.get(0).getSchema();
-                LOGGER.info("Schema is {}", schema);
-            }
-
-            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-            DatumWriter<GenericRecord> writer = new GenericDatumWriter(schema);
-            NoWrappingJsonEncoder jsonEncoder = new NoWrappingJsonEncoder(schema, byteStream);
-
-            for (GenericRecord genericRecord : records) {
-                writer.write(genericRecord, jsonEncoder);
+                return null;
             }
-            jsonEncoder.flush();
-            byteStream.flush();
-            inputStream = new ByteArrayInputStream(byteStream.toString().getBytes());
         } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+            throw Throwables.propagate(e);
         }
+        if (iterator.hasNext()) {
+            prefetchNext(iterator.next(), entries.next());
+        }
+        String hint = entry.isWholeFile()
+                ? String.format("gcs://%s/%s", bucket, key)
+                : String.format("gcs://%s/%s[%d,%d)", bucket, key, entry.getStart(), entry.getEnd());
         return new InputStreamWithHints(
                 new ResumableInputStream(
-                        inputStream, new InputStreamReopener(client, bucket, key, jsonFile)),
-                String.format("gcs://%s/%s", bucket, key));
+                        inputStream, new InputStreamReopener(task, client, key, entry, inputStream.checkpoints)),
+                hint);
     }
 
     @Override
     public void close() {
+        // not cancelled: a running prefetch would leave the readers it opened behind
+        if (next != null) {
+            try {
+                next.get().close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception ignored) {
+                // failures of the unused file don't matter
+            }
+        }
+        next = null;
+        executor.shutdownNow();
+    }
+
+    /**
+     * Opens the next file and decodes its first records while the current one is consumed.
+     */
+    private void prefetchNext(String key, FileList.Entry entry) {
+        nextKey = key;
+        nextEntry = entry;
+        next = executor.submit(() -> {
+            RecordInputStream stream = openStream(task, key, entry, new RecordInputStream.Checkpoints(), RecordInputStream.Checkpoint.HEAD);
+            try {
+                stream.prefetch();
+            } catch (IOException | RuntimeException e) {
+                try {
+                    stream.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+            return stream;
+        });
+    }
+
+    private RecordInputStream awaitNext() throws IOException {
+        try {
+            return next.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            next = null;
+        }
     }
 
     static class InputStreamReopener implements ResumableInputStream.Reopener {
         private Logger logger = Exec.getLogger(getClass());
+        private final PluginTask task;
         private final Storage client;
-        private final String bucket;
         private final String key;
-        private final LocalFile jsonFile;
+        private final FileList.Entry entry;
+        private final RecordInputStream.Checkpoints checkpoints;
 
-        InputStreamReopener(Storage client, String bucket, String key, LocalFile jsonFile) {
+        InputStreamReopener(PluginTask task, Storage client, String key, FileList.Entry entry) {
+            this(task, client, key, entry, new RecordInputStream.Checkpoints());
+        }
+
+        InputStreamReopener(PluginTask task, Storage client, String key, FileList.Entry entry,
+                            RecordInputStream.Checkpoints checkpoints) {
+            this.task = task;
             this.client = client;
-            this.bucket = bucket;
             this.key = key;
-            this.jsonFile = jsonFile;
+            this.entry = entry;
+            this.checkpoints = checkpoints;
         }
 
         @Override
         public InputStream reopen(long offset, Exception closedCause) throws IOException {
+            RecordInputStream.Checkpoint start = checkpoints.floor(offset);
             logger.warn(
-                    format("GCS read failed. Retrying GET request with %,d bytes offset", offset),
+                    format("GCS read failed. Resuming gcs://%s/%s at row group %d (row %,d, %,d bytes offset) and skipping %,d bytes",
+                            task.getBucket(), key, start.rowGroup, start.row, start.offset, offset - start.offset),
                     closedCause);
-            ReadChannel ch = client.get(bucket, key).reader();
-            ch.seek(offset);
-            InputStream inputStream = null;
-            Configuration config = getConfig(jsonFile);
-            String path = String.format("gs://%s/%s", bucket, key);
-            ParquetReader reader = null;
-            List<GenericRecord> records = new ArrayList<>();
-            Schema schema;
+            // records are encoded deterministically, so re-encoding from the row group and skipping yields the same bytes
+            InputStream inputStream = openStream(task, key, entry, checkpoints, start);
+            skipFully(inputStream, offset - start.offset);
+            return inputStream;
+        }
+    }
+
+    /**
+     * Opens a stream of the records of {@code entry} from the row group of {@code start} on.
+     */
+    private static RecordInputStream openStream(PluginTask task, String key, FileList.Entry entry,
+                                                RecordInputStream.Checkpoints checkpoints,
+                                                RecordInputStream.Checkpoint start) throws IOException {
+        // looked up once, and shared by the checks and the reader
+        InputFile file = ParquetUtils.newInputFile(task, key);
+        try {
+            return openStream(task, key, entry, file, checkpoints, start).closing(() -> ParquetUtils.close(file));
+        } catch (IOException | RuntimeException e) {
             try {
-                reader = AvroParquetReader.builder(new Path(path)).withConf(config).build();
-                Object obj = reader.read();
-
-                while (obj != null) {
-                    if (obj instanceof GenericRecord) {
-                        records.add(((GenericRecord) obj));
-                    }
-                    obj = reader.read();
-                }
-                if (records.size() == 0) {
-                    schema =
-                            SchemaBuilder.record("default") // source's name
-                                    .namespace("default") // source's namespace
-                                    .fields() // empty fields
-                                    .endRecord();
-                } else {
-                    schema = records.get(0).getSchema();
-                    LOGGER.info("Schema is {}", schema);
-                }
-                ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-                DatumWriter<GenericRecord> writer = new GenericDatumWriter(schema);
-                NoWrappingJsonEncoder jsonEncoder = new NoWrappingJsonEncoder(schema, byteStream, true);
+                ParquetUtils.close(file);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
 
-                for (GenericRecord genericRecord : records) {
-                    writer.write(genericRecord, jsonEncoder);
-                }
-                jsonEncoder.flush();
-                byteStream.flush();
-                inputStream = new ByteArrayInputStream(byteStream.toString().getBytes());
-            } catch (IOException e) {
-                e.printStackTrace();
-            } finally {
-                if (reader != null) {
-                    try {
-                        reader.close();
-
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
+    private static RecordInputStream openStream(PluginTask task, String key, FileList.Entry entry, InputFile file,
+                                                RecordInputStream.Checkpoints checkpoints,
+                                                RecordInputStream.Checkpoint start) throws IOException {
+        FileList.Entry range = entry;
+        if (start.offset > 0) {
+            // the row group starts at startingPos, so its midpoint is in the range and the previous one's isn't
+            range = new FileList.Entry(entry.getIndex(), entry.getSize(), start.startingPos,
+                    entry.isWholeFile() ? Long.MAX_VALUE : entry.getEnd());
+        }
+        ParquetMetadata footer = ParquetUtils.readFooter(task, key, file);
+        if (!task.getRowColumns().isEmpty()) {
+            RowWriter.checkRowColumns(task, key, ParquetUtils.project(footer.getFileMetaData().getSchema(), task.getColumns()));
+        }
+        if (task.getReaderEngine() == ParquetUtils.ReaderEngine.column_batch) {
+            Optional<ColumnBatchReader> reader = ParquetUtils.openColumnBatchReader(task, key, range, file);
+            if (reader.isPresent()) {
+                return new ColumnBatchJsonInputStream(reader.get(), task.getOutputFormat(), checkpoints, start);
             }
-            return inputStream;
         }
+        List<BlockMetaData> rowGroups = task.getFilter().isPresent()
+                ? Collections.emptyList()
+                : ParquetUtils.selectRowGroups(footer, range);
+        return new ParquetJsonInputStream(ParquetUtils.openRowReader(task, key, range, file), rowGroups, task.getColumns(),
+            task.getOutputFormat(), checkpoints, start);
     }
 
-    private static Configuration getConfig(LocalFile jsonFile) {
-        Configuration config = new Configuration();
-        config.set("fs.gs.impl", "com.google.cloud.hadoop.fs.gcs.GoogleHadoopFileSystem");
-        config.set("fs.AbstractFileSystem.gs.impl", "com.google.cloud.hadoop.fs.gcs.GoogleHadoopFS");
-        config.set("google.cloud.auth.service.account.enable", "true");
-        config.set("fs.gs.auth.service.account.enable", "true");
-        config.set("fs.gs.working.dir", "/");
-        config.set("fs.gs.auth.service.account.json.keyfile", jsonFile.getPath().toAbsolutePath().toString());
-        config.set("fs.hdfs.impl", DistributedFileSystem.class.getName());
-        config.set("fs.file.impl", LocalFileSystem.class.getName());
-
-        return config;
+    private static void skipFully(InputStream inputStream, long bytes) throws IOException {
+        long remaining = bytes;
+        while (remaining > 0) {
+            long skipped = inputStream.skip(remaining);
+            if (skipped <= 0) {
+                if (inputStream.read() < 0) {
+                    throw new EOFException(format("Unexpected end of stream while skipping %,d bytes", bytes));
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
     }
 }
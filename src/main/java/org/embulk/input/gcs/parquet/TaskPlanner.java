@@ -0,0 +1,179 @@
+package org.embulk.input.gcs.parquet;
+
+import com.google.common.base.Throwables;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+import org.embulk.spi.Exec;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+
+/**
+ * Assigns the files of a transaction to tasks.
+ *
+ * <p>{@code sequential} keeps the tasks cut by {@link FileList.Builder}: consecutive files in
+ * listing order until {@code min_task_size} is reached. {@code balanced} models the cost of reading
+ * a file as {@code cost_per_file} plus {@code cost_per_byte} for each byte, and packs files into
+ * {@code task_count} tasks by longest processing time first: files are taken from the most to the
+ * least costly, each into the task with the lowest cost so far. The most costly task is then at
+ * most 4/3 of the best possible one, so a huge file no longer sets the wall time of a job next to
+ * dozens of tiny tasks.
+ *
+ * <p>The bytes of a file are the uncompressed bytes of the row groups in its range if its footer
+ * was fetched at transaction time, and its size otherwise.
+ */
+class TaskPlanner
+{
+    public enum Strategy
+    {
+        sequential, balanced
+    }
+
+    interface Task
+    {
+        @Config("task_planner")
+        @ConfigDefault("\"sequential\"")
+        Strategy getTaskPlanner();
+
+        // number of tasks of balanced; twice the number of processors, like the threads of the local executor, if null
+        @Config("task_count")
+        @ConfigDefault("null")
+        Optional<Integer> getTaskCount();
+
+        // cost of opening a file, in bytes
+        @Config("cost_per_file")
+        @ConfigDefault("1048576")
+        long getCostPerFile();
+
+        @Config("cost_per_byte")
+        @ConfigDefault("1.0")
+        double getCostPerByte();
+    }
+
+    private static final Logger LOG = Exec.getLogger(TaskPlanner.class);
+
+    private TaskPlanner()
+    {
+    }
+
+    static FileList plan(PluginTask task, FileList files)
+    {
+        switch (task.getTaskPlanner()) {
+            case balanced:
+                return balance(files, costs(task, files), task.getTaskCount().orElse(Runtime.getRuntime().availableProcessors() * 2));
+            default:
+                // cut by FileList.Builder
+                return files;
+        }
+    }
+
+    /**
+     * Returns the cost of each entry of {@code files}, by entry index.
+     */
+    private static double[] costs(PluginTask task, FileList files)
+    {
+        double[] costs = new double[files.getEntryCount()];
+        // the ranges of a split file are consecutive entries, so its footer is parsed once
+        String parsedKey = null;
+        ParquetMetadata parsedFooter = null;
+        for (int i = 0; i < files.getTaskCount(); i++) {
+            List<String> keys = files.get(i);
+            List<FileList.Entry> entries = files.getEntries(i);
+            for (int j = 0; j < keys.size(); j++) {
+                String key = keys.get(j);
+                FileList.Entry entry = entries.get(j);
+                long bytes = entry.getSize();
+                if (task.getFooters().containsKey(key)) {
+                    if (!key.equals(parsedKey)) {
+                        parsedKey = key;
+                        parsedFooter = footer(task, key);
+                    }
+                    bytes = 0;
+                    for (BlockMetaData block : ParquetUtils.selectRowGroups(parsedFooter, entry)) {
+                        bytes += block.getTotalByteSize();
+                    }
+                }
+                costs[entry.getIndex()] = task.getCostPerFile() + task.getCostPerByte() * bytes;
+            }
+        }
+        return costs;
+    }
+
+    private static ParquetMetadata footer(PluginTask task, String key)
+    {
+        try {
+            // the prefetched footer; the file isn't downloaded to local_cache_dir at transaction time
+            return ParquetUtils.readFooter(task, key, ParquetUtils.newRemoteInputFile(task, key));
+        }
+        catch (IOException ex) {
+            throw Throwables.propagate(ex);
+        }
+    }
+
+    /**
+     * Packs entries into at most {@code taskCount} tasks by longest processing time first. Tasks
+     * are ordered from the most to the least costly, so that they start first when there are more
+     * tasks than threads, and entries of a task are in their original order.
+     */
+    static FileList balance(FileList files, double[] costs, int taskCount)
+    {
+        int count = costs.length;
+        if (count == 0) {
+            return files;
+        }
+        int bins = Math.min(taskCount, count);
+
+        // sorted by cost in KiB and index, packed into primitives for lists of millions of files
+        long[] byCost = new long[count];
+        for (int i = 0; i < count; i++) {
+            byCost[i] = (long) Math.min(costs[i] / 1024, Integer.MAX_VALUE) << 32 | i;
+        }
+        Arrays.sort(byCost);
+
+        double[] loads = new double[bins];
+        int[] assigned = new int[count];
+        int[] sizes = new int[bins];
+        PriorityQueue<Integer> lightest = new PriorityQueue<>(bins, Comparator.comparingDouble((Integer b) -> loads[b]).thenComparingInt(b -> b));
+        for (int b = 0; b < bins; b++) {
+            lightest.add(b);
+        }
+        for (int k = count - 1; k >= 0; k--) {
+            int i = (int) byCost[k];
+            int b = lightest.poll();
+            loads[b] += costs[i];
+            assigned[i] = b;
+            sizes[b]++;
+            lightest.add(b);
+        }
+
+        Integer[] byLoad = new Integer[bins];
+        for (int b = 0; b < bins; b++) {
+            byLoad[b] = b;
+        }
+        Arrays.sort(byLoad, Comparator.comparingDouble((Integer b) -> loads[b]).reversed().thenComparingInt(b -> b));
+        int[] rank = new int[bins];
+        int[] tasks = new int[bins + 1];
+        for (int r = 0; r < bins; r++) {
+            rank[byLoad[r]] = r;
+            tasks[r + 1] = tasks[r] + sizes[byLoad[r]];
+        }
+
+        // entries in index order within each task
+        int[] next = Arrays.copyOf(tasks, bins);
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[next[rank[assigned[i]]]++] = i;
+        }
+
+        LOG.info("Balanced {} files into {} tasks; costs from {} to {}", count, bins,
+                (long) loads[byLoad[bins - 1]], (long) loads[byLoad[0]]);
+        return files.reassign(order, tasks);
+    }
+}
@@ -0,0 +1,151 @@
+package org.embulk.input.gcs.parquet;
+
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+import org.embulk.config.ConfigException;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * The update time of the newest object loaded by incremental runs of {@code incremental_mode: update_time}.
+ *
+ * <p>Objects are loaded if they were updated after the watermark, whatever their names, so objects
+ * don't have to be named in the order they are written. Update times have millisecond precision,
+ * so the names of the objects updated at the watermark itself are kept too, and objects updated
+ * in the same millisecond are loaded once.
+ *
+ * <p>Objects updated after the listing started are left to the next run: they may be missed by
+ * shards listed earlier, and a later object seen by another shard would move the watermark past
+ * them. Update times are set by GCS while the start of the listing is read from the local clock,
+ * so objects updated within {@code update_time_margin_millis} before it are left to the next run
+ * too, in case the local clock is ahead.
+ */
+class Watermark
+{
+    public enum IncrementalMode
+    {
+        last_path, update_time
+    }
+
+    interface Task
+    {
+        // how incremental runs skip the objects loaded before
+        @Config("incremental_mode")
+        @ConfigDefault("\"last_path\"")
+        IncrementalMode getIncrementalMode();
+
+        // ISO-8601 update time of the newest object loaded by the last run
+        @Config("last_update_time")
+        @ConfigDefault("null")
+        Optional<String> getLastUpdateTime();
+
+        // objects updated at last_update_time that were loaded
+        @Config("last_update_time_paths")
+        @ConfigDefault("[]")
+        List<String> getLastUpdateTimePaths();
+
+        // objects updated less than this before the listing started are left to the next run, for the skew between the local and GCS clocks
+        @Config("update_time_margin_millis")
+        @ConfigDefault("60000")
+        long getUpdateTimeMarginMillis();
+
+        // the watermark after the files of this transaction, for the config diff
+        Optional<String> getNextUpdateTime();
+        void setNextUpdateTime(Optional<String> time);
+
+        List<String> getNextUpdateTimePaths();
+        void setNextUpdateTimePaths(List<String> paths);
+    }
+
+    // loads older objects first, so that total_file_count_limit leaves the newer ones to the next run
+    static final Comparator<BucketLister.ListedObject> UPDATE_ORDER =
+            Comparator.<BucketLister.ListedObject>comparingLong(object -> object.updateTime)
+                    .thenComparing(object -> object.name, BucketLister.NAME_ORDER);
+
+    // objects updated after this are left to the next run
+    private final long cutoff;
+    private long time;
+    private final Set<String> paths;
+
+    private Watermark(long time, Set<String> paths, long cutoff)
+    {
+        this.time = time;
+        this.paths = paths;
+        this.cutoff = cutoff;
+    }
+
+    /**
+     * Returns the watermark of the last run if {@code incremental_mode} is {@code update_time}.
+     *
+     * @param listedAt when the listing started, in milliseconds since the epoch
+     */
+    static Optional<Watermark> of(PluginTask task, long listedAt)
+    {
+        if (task.getIncrementalMode() != IncrementalMode.update_time) {
+            return Optional.empty();
+        }
+        if (task.getUpdateTimeMarginMillis() < 0) {
+            throw new ConfigException("update_time_margin_millis must not be negative");
+        }
+        long time = Long.MIN_VALUE;
+        if (task.getLastUpdateTime().isPresent()) {
+            try {
+                time = Instant.parse(task.getLastUpdateTime().get()).toEpochMilli();
+            }
+            catch (DateTimeParseException ex) {
+                throw new ConfigException(String.format("last_update_time '%s' is not an ISO-8601 instant", task.getLastUpdateTime().get()), ex);
+            }
+        }
+        return Optional.of(new Watermark(time, new HashSet<>(task.getLastUpdateTimePaths()),
+                listedAt - task.getUpdateTimeMarginMillis()));
+    }
+
+    /**
+     * Keeps the watermark of the last run for a transaction that lists nothing.
+     */
+    static void keep(PluginTask task)
+    {
+        task.setNextUpdateTime(task.getLastUpdateTime());
+        task.setNextUpdateTimePaths(task.getLastUpdateTimePaths());
+    }
+
+    /**
+     * Returns true if an object updated at {@code updateTime} is to be loaded by this run.
+     */
+    boolean accepts(String name, long updateTime)
+    {
+        if (updateTime > cutoff) {
+            return false;
+        }
+        return updateTime > time || (updateTime == time && !paths.contains(name));
+    }
+
+    /**
+     * Moves the watermark to a loaded object. Objects are loaded in {@link #UPDATE_ORDER}.
+     */
+    void advance(String name, long updateTime)
+    {
+        if (updateTime > time) {
+            time = updateTime;
+            paths.clear();
+        }
+        paths.add(name);
+    }
+
+    void store(PluginTask task)
+    {
+        if (time == Long.MIN_VALUE) {
+            keep(task);
+            return;
+        }
+        task.setNextUpdateTime(Optional.of(Instant.ofEpochMilli(time).toString()));
+        task.setNextUpdateTimePaths(new ArrayList<>(paths));
+    }
+}
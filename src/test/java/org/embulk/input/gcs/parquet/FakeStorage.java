@@ -0,0 +1,242 @@
+package org.embulk.input.gcs.parquet;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.RestorableState;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import org.mockito.Mockito;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bucket in memory, answering the calls files are read with: {@code get(BlobId, options)} and
+ * {@code reader(BlobId, options)}. Objects keep all of their generations, numbered from 1, and
+ * readers of a pinned generation read that generation.
+ */
+class FakeStorage
+{
+    final Storage client;
+
+    private final Map<String, List<byte[]>> objects = new ConcurrentHashMap<>();
+    // position whose next read fails, by object name
+    private final Map<String, Long> failures = new ConcurrentHashMap<>();
+    private final AtomicInteger gets = new AtomicInteger();
+    private final AtomicInteger readers = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger openChannels = new AtomicInteger();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final List<Integer> chunkSizes = new CopyOnWriteArrayList<>();
+    private final List<BlobId> openedBlobs = new CopyOnWriteArrayList<>();
+    private volatile int maxReadLength = Integer.MAX_VALUE;
+
+    FakeStorage()
+    {
+        this.client = Mockito.mock(Storage.class, invocation -> {
+            switch (invocation.getMethod().getName()) {
+                case "get":
+                    gets.incrementAndGet();
+                    return blob((BlobId) invocation.getArguments()[0]);
+                case "reader":
+                    readers.incrementAndGet();
+                    return new Channel((BlobId) invocation.getArguments()[0]);
+                case "toString":
+                    return "FakeStorage";
+                default:
+                    throw new UnsupportedOperationException(invocation.getMethod().getName());
+            }
+        });
+    }
+
+    /**
+     * Makes this the client of {@code task}.
+     */
+    void register(PluginTask task)
+    {
+        String key = "fake-" + UUID.randomUUID();
+        task.setCredentialsKey(key);
+        ClientRegistry.put(key, client);
+    }
+
+    /**
+     * Writes a new generation of an object, and returns its number.
+     */
+    long put(String name, byte[] content)
+    {
+        List<byte[]> versions = objects.computeIfAbsent(name, n -> new CopyOnWriteArrayList<>());
+        versions.add(content);
+        return versions.size();
+    }
+
+    /**
+     * Fails the next read of {@code name} that covers {@code position}, once.
+     */
+    void failOnce(String name, long position)
+    {
+        failures.put(name, position);
+    }
+
+    /**
+     * Limits the bytes a read of a channel returns, as a channel returns what it has buffered.
+     */
+    void setMaxReadLength(int length)
+    {
+        this.maxReadLength = length;
+    }
+
+    int getGets()
+    {
+        return gets.get();
+    }
+
+    int getReaders()
+    {
+        return readers.get();
+    }
+
+    int getFailed()
+    {
+        return failed.get();
+    }
+
+    /**
+     * Returns the number of readers that are not closed.
+     */
+    int getOpenChannels()
+    {
+        return openChannels.get();
+    }
+
+    long getBytesRead()
+    {
+        return bytesRead.get();
+    }
+
+    List<Integer> getChunkSizes()
+    {
+        return Collections.unmodifiableList(new ArrayList<>(chunkSizes));
+    }
+
+    List<BlobId> getOpenedBlobs()
+    {
+        return Collections.unmodifiableList(new ArrayList<>(openedBlobs));
+    }
+
+    private Blob blob(BlobId id)
+    {
+        List<byte[]> versions = objects.get(id.getName());
+        if (versions == null) {
+            return null;
+        }
+        long generation = id.getGeneration() == null ? versions.size() : id.getGeneration();
+        if (generation < 1 || generation > versions.size()) {
+            return null;
+        }
+        long size = versions.get((int) generation - 1).length;
+        return Mockito.mock(Blob.class, invocation -> {
+            switch (invocation.getMethod().getName()) {
+                case "getBucket":
+                    return id.getBucket();
+                case "getName":
+                    return id.getName();
+                case "getGeneration":
+                    return generation;
+                case "getSize":
+                    return size;
+                case "getBlobId":
+                    return BlobId.of(id.getBucket(), id.getName(), generation);
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private class Channel
+            implements ReadChannel
+    {
+        private final String name;
+        private final byte[] content;
+        private long position;
+        private int chunkSize = Integer.MAX_VALUE;
+        private boolean open = true;
+
+        Channel(BlobId id)
+        {
+            List<byte[]> versions = objects.get(id.getName());
+            long generation = versions == null ? 0 : id.getGeneration() == null ? versions.size() : id.getGeneration();
+            if (generation < 1 || generation > versions.size()) {
+                throw new StorageException(404, "No such object: " + id);
+            }
+            this.name = id.getName();
+            this.content = versions.get((int) generation - 1);
+            openedBlobs.add(id);
+            openChannels.incrementAndGet();
+        }
+
+        @Override
+        public int read(ByteBuffer dst)
+        {
+            if (!open) {
+                throw new IllegalStateException("closed");
+            }
+            if (position >= content.length) {
+                return -1;
+            }
+            // at most a chunk per read, like the buffer of the client
+            int n = (int) Math.min(Math.min(dst.remaining(), content.length - position), Math.min(maxReadLength, chunkSize));
+            Long failure = failures.get(name);
+            if (failure != null && position <= failure && failure < position + n && failures.remove(name, failure)) {
+                failed.incrementAndGet();
+                throw new StorageException(503, "Fake failure at " + failure);
+            }
+            dst.put(content, (int) position, n);
+            position += n;
+            bytesRead.addAndGet(n);
+            return n;
+        }
+
+        @Override
+        public void seek(long position)
+        {
+            this.position = position;
+        }
+
+        @Override
+        public void setChunkSize(int chunkSize)
+        {
+            chunkSizes.add(chunkSize);
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public RestorableState<ReadChannel> capture()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return open;
+        }
+
+        @Override
+        public void close()
+        {
+            if (open) {
+                open = false;
+                openChannels.decrementAndGet();
+            }
+        }
+    }
+}
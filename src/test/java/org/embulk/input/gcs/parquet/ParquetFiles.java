@@ -0,0 +1,157 @@
+package org.embulk.input.gcs.parquet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.SimpleGroupFactory;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.example.ExampleParquetWriter;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+
+/**
+ * Writes small Parquet files of several row groups for tests.
+ */
+class ParquetFiles
+{
+    static final MessageType FLAT = MessageTypeParser.parseMessageType(
+            "message flat {"
+                    + " required int64 id;"
+                    + " optional binary country (UTF8);"
+                    + " optional binary name (UTF8);"
+                    + " optional double score;"
+                    + "}");
+    static final MessageType NESTED = MessageTypeParser.parseMessageType(
+            "message nested {"
+                    + " required int64 id;"
+                    + " optional group address { optional binary city (UTF8); }"
+                    + " repeated int32 tags;"
+                    + "}");
+    static final MessageType TYPED = MessageTypeParser.parseMessageType(
+            "message typed {"
+                    + " required int64 id;"
+                    + " optional binary country (UTF8);"
+                    + " optional binary name (UTF8);"
+                    + " optional int64 amount (DECIMAL(18,2));"
+                    + " optional binary price (DECIMAL(10,3));"
+                    + " optional int32 event_date (DATE);"
+                    + " optional int64 updated_at (TIMESTAMP_MILLIS);"
+                    + " optional int64 created_at (TIMESTAMP_MICROS);"
+                    + "}");
+
+    private ParquetFiles()
+    {
+    }
+
+    /**
+     * Writes {@code rows} rows of {@code schema}, uncompressed, in row groups of about
+     * {@code rowGroupSize} bytes.
+     *
+     * <p>Row {@code i} has id {@code i}, and nulls if {@code i % 7 == 1}. {@code country} is "DE"
+     * or "FR", so it stays dictionary encoded. The other values are those of {@link #amount},
+     * {@link #price}, {@link #eventDate}, {@link #updatedAt} and {@link #createdAt}.
+     */
+    static File write(File directory, String name, MessageType schema, int rows, int rowGroupSize) throws IOException
+    {
+        File file = new File(directory, name);
+        SimpleGroupFactory groups = new SimpleGroupFactory(schema);
+        try (ParquetWriter<Group> writer = ExampleParquetWriter.builder(new Path(file.toURI()))
+                .withType(schema)
+                .withDictionaryEncoding(true)
+                .withPageSize(1024)
+                .withRowGroupSize(rowGroupSize)
+                .build()) {
+            for (int i = 0; i < rows; i++) {
+                Group group = groups.newGroup().append("id", (long) i);
+                if (i % 7 != 1) {
+                    if (schema.containsField("country")) {
+                        group.append("country", country(i));
+                    }
+                    if (schema.containsField("name")) {
+                        group.append("name", "name-" + i);
+                    }
+                    if (schema.containsField("score")) {
+                        group.append("score", i / 4.0);
+                    }
+                    if (schema.containsField("amount")) {
+                        group.append("amount", amount(i).unscaledValue().longValue());
+                    }
+                    if (schema.containsField("price")) {
+                        group.append("price", Binary.fromConstantByteArray(price(i).unscaledValue().toByteArray()));
+                    }
+                    if (schema.containsField("event_date")) {
+                        group.append("event_date", (int) eventDate(i));
+                    }
+                    if (schema.containsField("updated_at")) {
+                        group.append("updated_at", updatedAt(i));
+                    }
+                    if (schema.containsField("created_at")) {
+                        group.append("created_at", createdAt(i));
+                    }
+                    if (schema.containsField("address")) {
+                        group.addGroup("address").append("city", "city-" + i % 5);
+                        for (int j = 0; j < i % 3; j++) {
+                            group.append("tags", i + j);
+                        }
+                    }
+                }
+                writer.write(group);
+            }
+        }
+        return file;
+    }
+
+    static String country(long i)
+    {
+        return i % 3 == 0 ? "DE" : "FR";
+    }
+
+    static BigDecimal amount(long i)
+    {
+        return BigDecimal.valueOf(i * 101L - 5000L, 2);
+    }
+
+    static BigDecimal price(long i)
+    {
+        return BigDecimal.valueOf(i * 1001L - 500000L, 3);
+    }
+
+    // days since the epoch
+    static long eventDate(long i)
+    {
+        return i - 100L;
+    }
+
+    // milliseconds since the epoch
+    static long updatedAt(long i)
+    {
+        return i * 1000L - 500L;
+    }
+
+    // microseconds since the epoch
+    static long createdAt(long i)
+    {
+        return i * 1000001L - 1L;
+    }
+
+    static byte[] content(File file) throws IOException
+    {
+        return Files.readAllBytes(file.toPath());
+    }
+
+    static ParquetMetadata footer(File file) throws IOException
+    {
+        try (ParquetFileReader reader = ParquetFileReader.open(HadoopInputFile.fromPath(new Path(file.toURI()), new Configuration()))) {
+            return reader.getFooter();
+        }
+    }
+}
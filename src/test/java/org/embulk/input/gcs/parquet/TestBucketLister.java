@@ -0,0 +1,238 @@
+package org.embulk.input.gcs.parquet;
+
+import com.google.api.gax.paging.Page;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigException;
+import org.embulk.spi.Exec;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestBucketLister
+{
+    // BucketLister gets its logger from the exec session
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private static final List<String> NAMES = Arrays.asList(
+            "p/a/1.parquet", "p/a/2.parquet", "p/a/skip.txt",
+            "p/b/x/3.parquet", "p/b/x/deep/6.parquet", "p/b/x/deep/7.parquet",
+            "p/b/y/4.parquet", "p/c.parquet", "p/d/5.parquet");
+
+    @Test
+    public void testNameOrder()
+    {
+        // GCS orders names by their UTF-8 bytes: "." < "/" < "0", and supplementary characters after U+FFFF
+        List<String> names = Arrays.asList("a/\ud83d\ude00.parquet", "a/b.parquet", "a/\uffe0.parquet", "a/b/c.parquet", "a.parquet", "a/b");
+        names.sort(BucketLister.NAME_ORDER);
+        assertEquals(Arrays.asList("a.parquet", "a/b", "a/b.parquet", "a/b/c.parquet", "a/\uffe0.parquet", "a/\ud83d\ude00.parquet"), names);
+        assertEquals(0, BucketLister.compareNames("a/b", "a/b"));
+    }
+
+    @Test
+    public void testShards()
+    {
+        FakeBucket bucket = new FakeBucket(NAMES, Optional.empty());
+        List<String> listed = names(new BucketLister(bucket.storage, "bucket", Optional.empty(), blob -> blob.getName().endsWith(".parquet")).list("p/", 2));
+
+        // split down to MAX_SPLIT_DEPTH, the deepest sub-prefix listed flat, merged in name order
+        assertEquals(Arrays.asList("p/", "p/a/", "p/b/", "p/b/x/", "p/b/y/", "p/d/"), sorted(bucket.splits));
+        assertEquals(Collections.singletonList("p/b/x/deep/"), bucket.shards);
+        assertEquals(Arrays.asList("p/a/1.parquet", "p/a/2.parquet", "p/b/x/3.parquet", "p/b/x/deep/6.parquet",
+                "p/b/x/deep/7.parquet", "p/b/y/4.parquet", "p/c.parquet", "p/d/5.parquet"), listed);
+    }
+
+    @Test
+    public void testLastPath()
+    {
+        Optional<String> lastPath = Optional.of("p/b/x/deep/6.parquet");
+        List<String> expected = Arrays.asList("p/b/x/deep/7.parquet", "p/b/y/4.parquet", "p/c.parquet", "p/d/5.parquet");
+
+        // prefixes before last_path are not listed, and the shard of last_path starts after it
+        FakeBucket bucket = new FakeBucket(NAMES, lastPath);
+        assertEquals(expected, names(new BucketLister(bucket.storage, "bucket", lastPath, blob -> true).list("p/", 2)));
+        assertEquals(Arrays.asList("p/", "p/b/", "p/b/x/", "p/b/y/", "p/d/"), sorted(bucket.splits));
+        assertEquals(Collections.singletonList("p/b/x/deep/ after p/b/x/deep/6.parquet"), bucket.shards);
+
+        // a single shard starts after last_path too
+        bucket = new FakeBucket(NAMES, lastPath);
+        assertEquals(expected, names(new BucketLister(bucket.storage, "bucket", lastPath, blob -> true).list("p/", 1)));
+        assertEquals(Collections.emptyList(), bucket.splits);
+        assertEquals(Collections.singletonList("p/ after p/b/x/deep/6.parquet"), bucket.shards);
+
+        // nothing is listed under a prefix before last_path
+        bucket = new FakeBucket(NAMES, lastPath);
+        assertEquals(Collections.emptyList(), names(new BucketLister(bucket.storage, "bucket", lastPath, blob -> true).list("p/a/", 2)));
+        assertEquals(Collections.emptyList(), bucket.splits);
+        assertEquals(Collections.emptyList(), bucket.shards);
+    }
+
+    @Test
+    public void testFailedShard()
+    {
+        PluginTask task = Exec.newConfigSource()
+                .set("bucket", "bucket")
+                .set("path_prefix", "p/")
+                .set("list_parallelism", 2)
+                .loadConfig(PluginTask.class);
+        FakeBucket bucket = new FakeBucket(NAMES, Optional.empty());
+        String key = "fake-" + UUID.randomUUID();
+        task.setCredentialsKey(key);
+        ClientRegistry.put(key, bucket.storage);
+
+        // the other shards are listed, but the list is not returned without the failed one
+        bucket.failing = Optional.of(new StorageException(503, "Backend Error"));
+        try {
+            GcsParquetInput.listFiles(task);
+            fail("Should throw when a shard fails");
+        }
+        catch (StorageException ex) {
+            assertEquals(503, ex.getCode());
+        }
+
+        bucket.failing = Optional.of(new StorageException(400, "Invalid Argument"));
+        try {
+            GcsParquetInput.listFiles(task);
+            fail("Should throw when a shard fails");
+        }
+        catch (ConfigException ex) {
+            assertEquals(400, ((StorageException) ex.getCause()).getCode());
+        }
+
+        bucket.failing = Optional.empty();
+        assertEquals(8, GcsParquetInput.listFiles(task).getEntryCount());
+    }
+
+    private static List<String> names(List<BucketLister.ListedObject> objects)
+    {
+        return objects.stream().map(object -> object.name).collect(Collectors.toList());
+    }
+
+    private static List<String> sorted(List<String> names)
+    {
+        List<String> copy = new ArrayList<>(names);
+        Collections.sort(copy);
+        return copy;
+    }
+
+    /**
+     * A bucket answering {@link Storage#list} with prefix, currentDirectory and pageToken, where a
+     * page token of last_path starts the listing after it, as GCS does.
+     */
+    private static class FakeBucket
+    {
+        final Storage storage;
+        // prefixes listed with currentDirectory
+        final List<String> splits = Collections.synchronizedList(new ArrayList<>());
+        // prefixes listed flat, followed by " after " and the name of their page token
+        final List<String> shards = Collections.synchronizedList(new ArrayList<>());
+
+        // thrown by the listing of the deepest shard
+        volatile Optional<StorageException> failing = Optional.empty();
+
+        private final List<String> names;
+        private final Optional<String> lastPath;
+        private final Set<String> prefixes = new LinkedHashSet<>();
+
+        FakeBucket(List<String> names, Optional<String> lastPath)
+        {
+            this.names = names;
+            this.lastPath = lastPath;
+            for (String name : names) {
+                for (int i = name.indexOf('/'); i >= 0; i = name.indexOf('/', i + 1)) {
+                    prefixes.add(name.substring(0, i + 1));
+                }
+            }
+            this.storage = Mockito.mock(Storage.class, invocation -> {
+                if (!invocation.getMethod().getName().equals("list")) {
+                    throw new UnsupportedOperationException(invocation.getMethod().getName());
+                }
+                List<Object> options = new ArrayList<>();
+                for (Object argument : invocation.getArguments()) {
+                    if (argument instanceof Object[]) {
+                        options.addAll(Arrays.asList((Object[]) argument));
+                    }
+                    else {
+                        options.add(argument);
+                    }
+                }
+                return list(options);
+            });
+        }
+
+        // options are matched by equality, since their values are not public
+        private Page<Blob> list(List<Object> options)
+        {
+            String prefix = prefixes.stream().filter(p -> options.contains(Storage.BlobListOption.prefix(p))).findFirst().get();
+            boolean directory = options.contains(Storage.BlobListOption.currentDirectory());
+            boolean after = lastPath.isPresent() && options.contains(Storage.BlobListOption.pageToken(GcsParquetInput.base64Encode(lastPath.get())));
+            if (directory) {
+                splits.add(prefix);
+            }
+            else {
+                shards.add(after ? prefix + " after " + lastPath.get() : prefix);
+                if (failing.isPresent() && prefix.equals("p/b/x/deep/")) {
+                    throw failing.get();
+                }
+            }
+
+            List<Blob> blobs = new ArrayList<>();
+            Set<String> subPrefixes = new LinkedHashSet<>();
+            for (String name : names) {
+                if (!name.startsWith(prefix) || (after && BucketLister.compareNames(name, lastPath.get()) <= 0)) {
+                    continue;
+                }
+                int slash = name.indexOf('/', prefix.length());
+                if (directory && slash >= 0) {
+                    if (subPrefixes.add(name.substring(0, slash + 1))) {
+                        blobs.add(blob(name.substring(0, slash + 1), true));
+                    }
+                }
+                else {
+                    blobs.add(blob(name, false));
+                }
+            }
+            @SuppressWarnings("unchecked")
+            Page<Blob> page = Mockito.mock(Page.class, invocation -> invocation.getMethod().getName().equals("iterateAll") ? blobs : null);
+            return page;
+        }
+
+        private static Blob blob(String name, boolean directory)
+        {
+            return Mockito.mock(Blob.class, invocation -> {
+                switch (invocation.getMethod().getName()) {
+                    case "getName":
+                        return name;
+                    case "isDirectory":
+                        return directory;
+                    case "getSize":
+                        return 100L;
+                    case "getGeneration":
+                        return 1L;
+                    case "getUpdateTime":
+                        return 0L;
+                    case "toString":
+                        return name;
+                    default:
+                        return null;
+                }
+            });
+        }
+    }
+}
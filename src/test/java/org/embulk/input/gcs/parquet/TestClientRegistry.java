@@ -0,0 +1,49 @@
+package org.embulk.input.gcs.parquet;
+
+import com.google.common.collect.ImmutableMap;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.spi.Exec;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class TestClientRegistry
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Test
+    public void testCredentialsKey()
+    {
+        // each task gets its own copy of the key file
+        String key = ClientRegistry.credentialsKey(jsonKeyTask("{\"type\": \"service_account\"}"));
+        assertEquals(key, ClientRegistry.credentialsKey(jsonKeyTask("{\"type\": \"service_account\"}")));
+        assertNotEquals(key, ClientRegistry.credentialsKey(jsonKeyTask("{\"type\": \"authorized_user\"}")));
+        assertNotEquals(key, ClientRegistry.credentialsKey(Exec.newConfigSource()
+                .set("bucket", "bucket")
+                .set("auth_method", "compute_engine")
+                .loadConfig(PluginTask.class)));
+    }
+
+    @Test
+    public void testCredentialsKeyOfTask()
+    {
+        PluginTask task = jsonKeyTask("{\"type\": \"service_account\"}");
+        assertEquals(null, task.getCredentialsKey());
+        task.setCredentialsKey(ClientRegistry.credentialsKey(task));
+        // passed to the tasks
+        PluginTask loaded = task.dump().loadTask(PluginTask.class);
+        assertEquals(task.getCredentialsKey(), loaded.getCredentialsKey());
+    }
+
+    private static PluginTask jsonKeyTask(String content)
+    {
+        return Exec.newConfigSource()
+                .set("bucket", "bucket")
+                .set("auth_method", "json_key")
+                .set("json_keyfile", ImmutableMap.of("content", content))
+                .loadConfig(PluginTask.class);
+    }
+}
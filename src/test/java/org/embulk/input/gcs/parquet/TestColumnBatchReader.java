@@ -0,0 +1,149 @@
+package org.embulk.input.gcs.parquet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.apache.parquet.io.api.Binary;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestColumnBatchReader
+{
+    private static final int ROWS = 3000;
+    private static final int BATCH_SIZE = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void writeFile() throws IOException
+    {
+        file = ParquetFiles.write(folder.getRoot(), "typed.parquet", ParquetFiles.TYPED, ROWS, 8 * 1024);
+    }
+
+    @Test
+    public void testValues() throws IOException
+    {
+        try (ColumnBatchReader reader = open(Optional.empty())) {
+            Map<String, ColumnVector> vectors = vectors(reader);
+            ColumnVector country = vectors.get("country");
+            long i = 0;
+            int rowGroups = 0;
+            Binary[] dictionary = null;
+            int count;
+            while ((count = reader.nextBatch()) > 0) {
+                assertTrue(count <= BATCH_SIZE);
+                if (reader.getRowGroup() == rowGroups) {
+                    // each row group has a dictionary of its own, which ids refer to
+                    assertNotSame(dictionary, country.getDictionary());
+                    dictionary = country.getDictionary();
+                    rowGroups++;
+                }
+                for (int row = 0; row < count; row++, i++) {
+                    assertRow(vectors, row, i);
+                }
+            }
+            assertEquals(ROWS, i);
+            assertTrue(rowGroups + " row groups", rowGroups >= 3);
+        }
+    }
+
+    @Test
+    public void testFilter() throws IOException
+    {
+        try (ColumnBatchReader reader = open(Optional.of(FilterExpression.parse("country = 'DE'")))) {
+            Map<String, ColumnVector> vectors = vectors(reader);
+            long expected = 0;
+            int matched = 0;
+            int count;
+            while ((count = reader.nextBatch()) > 0) {
+                for (int row = 0; row < count; row++) {
+                    while (!matches(expected)) {
+                        expected++;
+                    }
+                    // the rows that match are moved to the head of the batch with all of their values
+                    assertEquals(expected, vectors.get("id").longs[row]);
+                    assertRow(vectors, row, expected);
+                    expected++;
+                    matched++;
+                }
+            }
+            int all = 0;
+            for (long i = 0; i < ROWS; i++) {
+                all += matches(i) ? 1 : 0;
+            }
+            assertEquals(all, matched);
+        }
+    }
+
+    // country = 'DE', which is null in every 7th row
+    private static boolean matches(long i)
+    {
+        return ParquetFiles.country(i).equals("DE") && i % 7 != 1;
+    }
+
+    private ColumnBatchReader open(Optional<FilterExpression> filter) throws IOException
+    {
+        ParquetFileReader fileReader = ParquetFileReader.open(HadoopInputFile.fromPath(new Path(file.toURI()), new Configuration()));
+        return new ColumnBatchReader(fileReader, ParquetFiles.TYPED, ParquetFiles.TYPED, filter, BATCH_SIZE);
+    }
+
+    private static Map<String, ColumnVector> vectors(ColumnBatchReader reader)
+    {
+        Map<String, ColumnVector> vectors = new HashMap<>();
+        for (ColumnVector vector : reader.getVectors()) {
+            vectors.put(vector.name, vector);
+        }
+        assertEquals(ParquetFiles.TYPED.getFieldCount(), vectors.size());
+        return vectors;
+    }
+
+    private static void assertRow(Map<String, ColumnVector> vectors, int row, long i)
+    {
+        String message = "row " + i;
+        assertFalse(message, vectors.get("id").nulls[row]);
+        assertEquals(message, i, vectors.get("id").longs[row]);
+        if (i % 7 == 1) {
+            for (ColumnVector vector : vectors.values()) {
+                assertEquals(message + " " + vector.name, !vector.name.equals("id"), vector.nulls[row]);
+            }
+            return;
+        }
+        for (ColumnVector vector : vectors.values()) {
+            assertFalse(message + " " + vector.name, vector.nulls[row]);
+        }
+
+        ColumnVector country = vectors.get("country");
+        assertTrue(country.isString());
+        assertTrue(message, country.ids[row] >= 0);
+        assertEquals(message, country.getDictionary()[country.ids[row]], country.binaries[row]);
+        assertEquals(message, ParquetFiles.country(i), country.getString(row));
+        assertEquals(message, "name-" + i, vectors.get("name").getString(row));
+
+        assertTrue(vectors.get("amount").isDecimal());
+        assertEquals(message, ParquetFiles.amount(i), vectors.get("amount").getDecimal(row));
+        assertTrue(vectors.get("price").isDecimal());
+        assertEquals(message, ParquetFiles.price(i), vectors.get("price").getDecimal(row));
+
+        assertTrue(vectors.get("event_date").isTimestamp());
+        assertEquals(message, ParquetFiles.eventDate(i) * 86400L * 1000000L, vectors.get("event_date").getEpochMicros(row));
+        assertEquals(message, ParquetFiles.updatedAt(i) * 1000L, vectors.get("updated_at").getEpochMicros(row));
+        assertEquals(message, ParquetFiles.createdAt(i), vectors.get("created_at").getEpochMicros(row));
+    }
+}
@@ -0,0 +1,54 @@
+package org.embulk.input.gcs.parquet;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestFileList
+{
+    @Test
+    public void testRandomAccess()
+    {
+        int count = FileList.BLOCK_SIZE * 2 + 3;
+        FileList.Builder builder = new FileList.Builder().pathMatchPattern(".*").minTaskSize(Long.MAX_VALUE);
+        for (int i = 0; i < count; i++) {
+            builder.add("dir/\u00e9" + i + ".parquet", 1);
+        }
+        FileList files = FileList.fromBytes(builder.build().toBytes());
+        assertEquals(1, files.getTaskCount());
+
+        // backwards, across blocks
+        List<String> paths = files.get(0);
+        assertEquals(count, paths.size());
+        for (int i = count - 1; i >= 0; i--) {
+            assertEquals("dir/\u00e9" + i + ".parquet", paths.get(i));
+        }
+        assertEquals("dir/\u00e90.parquet", paths.get(0));
+        assertEquals("dir/\u00e9" + (count - 1) + ".parquet", paths.get(count - 1));
+        assertEquals(count - 1, files.getEntries(0).get(count - 1).getIndex());
+    }
+
+    @Test
+    public void testRanges()
+    {
+        FileList.Builder builder = new FileList.Builder().pathMatchPattern(".*").minTaskSize(100);
+        builder.add("a.parquet", 150);
+        builder.add("b.parquet", 60, 4, 64);
+        builder.add("b.parquet", 60, 64, 124);
+        FileList files = FileList.fromBytes(builder.build().toBytes());
+
+        assertEquals(2, files.getTaskCount());
+        assertTrue(files.getEntries(0).get(0).isWholeFile());
+        List<FileList.Entry> entries = files.getEntries(1);
+        assertEquals(2, entries.size());
+        assertEquals(64, entries.get(1).getStart());
+        assertEquals(124, entries.get(1).getEnd());
+        assertEquals(Arrays.asList("b.parquet", "b.parquet"), files.get(1));
+        assertEquals("b.parquet", files.getLastPath(Optional.empty()).get());
+    }
+}
@@ -0,0 +1,136 @@
+package org.embulk.input.gcs.parquet;
+
+import org.apache.parquet.filter2.predicate.FilterApi;
+import org.apache.parquet.filter2.predicate.FilterPredicate;
+import org.apache.parquet.filter2.predicate.Operators;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+import org.embulk.config.ConfigException;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestFilterExpression
+{
+    private static final MessageType SCHEMA = MessageTypeParser.parseMessageType(
+            "message test {"
+                    + " required int64 id;"
+                    + " optional binary country (UTF8);"
+                    + " optional int32 event_date (DATE);"
+                    + " optional double score;"
+                    + " optional int64 amount (DECIMAL(18,2));"
+                    + "}");
+
+    @Test
+    public void testColumns()
+    {
+        FilterExpression filter = FilterExpression.parse(
+                "event_date >= '2026-01-01' AND (country IN ('DE', 'FR') OR score IS NULL) AND NOT id = 1");
+        assertEquals(new LinkedHashSet<>(Arrays.asList("event_date", "country", "score", "id")), filter.getColumns());
+    }
+
+    @Test
+    public void testToPredicate()
+    {
+        FilterPredicate predicate = FilterExpression.parse(
+                "event_date >= '2026-01-01' AND country <> 'JP' AND score < 1.5 AND amount > 10.25 AND id IS NOT NULL")
+                .toPredicate(SCHEMA);
+        FilterPredicate expected = FilterApi.and(FilterApi.and(FilterApi.and(FilterApi.and(
+                FilterApi.gtEq(FilterApi.intColumn("event_date"), Math.toIntExact(LocalDate.parse("2026-01-01").toEpochDay())),
+                notEq(FilterApi.binaryColumn("country"), Binary.fromString("JP"))),
+                FilterApi.lt(FilterApi.doubleColumn("score"), 1.5)),
+                FilterApi.gt(FilterApi.longColumn("amount"), 1025L)),
+                FilterApi.notEq(FilterApi.longColumn("id"), null));
+        assertEquals(expected, predicate);
+    }
+
+    @Test
+    public void testNotToPredicate()
+    {
+        // negations of comparisons still don't match null
+        assertEquals(notEq(FilterApi.longColumn("id"), 1L), toPredicate("NOT id = 1"));
+        assertEquals(FilterApi.gtEq(FilterApi.doubleColumn("score"), 1.5), toPredicate("NOT score < 1.5"));
+        assertEquals(FilterApi.lt(FilterApi.doubleColumn("score"), 1.5), toPredicate("NOT NOT score < 1.5"));
+        assertEquals(FilterApi.notEq(FilterApi.doubleColumn("score"), null), toPredicate("NOT score IS NULL"));
+        assertEquals(FilterApi.eq(FilterApi.doubleColumn("score"), null), toPredicate("NOT score IS NOT NULL"));
+        assertEquals(FilterApi.and(
+                notEq(FilterApi.longColumn("id"), 1L),
+                FilterApi.and(notEq(FilterApi.binaryColumn("country"), Binary.fromString("DE")), notEq(FilterApi.binaryColumn("country"), Binary.fromString("FR")))),
+                toPredicate("NOT (id = 1 OR country IN ('DE', 'FR'))"));
+        assertEquals(FilterApi.or(FilterApi.gtEq(FilterApi.doubleColumn("score"), 1.5), FilterApi.eq(FilterApi.binaryColumn("country"), null)),
+                toPredicate("NOT (score < 1.5 AND country IS NOT NULL)"));
+    }
+
+    @Test
+    public void testNotRows()
+    {
+        // score: 1.0, null, 2.0; country: 'DE', 'JP', null
+        ColumnVector score = vector("score", 3);
+        score.doubles[0] = 1.0;
+        score.nulls[1] = true;
+        score.doubles[2] = 2.0;
+        ColumnVector country = vector("country", 3);
+        country.binaries[0] = Binary.fromString("DE");
+        country.binaries[1] = Binary.fromString("JP");
+        country.nulls[2] = true;
+        ColumnVector[] vectors = {score, country};
+
+        assertRows(vectors, "score = 1.0", true, false, false);
+        assertRows(vectors, "NOT score = 1.0", false, false, true);
+        assertRows(vectors, "NOT (country IN ('DE', 'FR'))", false, true, false);
+        assertRows(vectors, "NOT score IS NULL", true, false, true);
+        // unknown AND false is false, so its negation is true
+        assertRows(vectors, "NOT (score = 1.0 AND country = 'DE')", false, true, true);
+        // unknown OR false is unknown, and so is its negation
+        assertRows(vectors, "NOT (score = 1.0 OR country = 'DE')", false, false, false);
+        assertRows(vectors, "NOT NOT score = 1.0", true, false, false);
+    }
+
+    private static FilterPredicate toPredicate(String expression)
+    {
+        return FilterExpression.parse(expression).toPredicate(SCHEMA);
+    }
+
+    private static <T extends Comparable<T>, C extends Operators.Column<T> & Operators.SupportsEqNotEq> FilterPredicate notEq(C column, T value)
+    {
+        return FilterApi.and(FilterApi.notEq(column, value), FilterApi.notEq(column, null));
+    }
+
+    private static ColumnVector vector(String column, int capacity)
+    {
+        return new ColumnVector(SCHEMA.getColumnDescription(new String[] {column}), SCHEMA.getType(column).asPrimitiveType(), capacity);
+    }
+
+    private static void assertRows(ColumnVector[] vectors, String expression, boolean... expected)
+    {
+        FilterExpression.RowPredicate predicate = FilterExpression.parse(expression).bind(vectors);
+        boolean[] actual = new boolean[expected.length];
+        for (int row = 0; row < expected.length; row++) {
+            actual[row] = predicate.test(row);
+        }
+        assertEquals(expression, Arrays.toString(expected), Arrays.toString(actual));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void testSyntaxError()
+    {
+        FilterExpression.parse("id = AND country = 'DE'");
+    }
+
+    @Test(expected = ConfigException.class)
+    public void testUnknownColumn()
+    {
+        FilterExpression.parse("missing = 1").toPredicate(SCHEMA);
+    }
+
+    @Test(expected = ConfigException.class)
+    public void testTypeMismatch()
+    {
+        FilterExpression.parse("id = 'abc'").toPredicate(SCHEMA);
+    }
+}
@@ -0,0 +1,149 @@
+package org.embulk.input.gcs.parquet;
+
+import com.google.cloud.storage.BlobId;
+import org.apache.parquet.io.SeekableInputStream;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestGcsInputFile
+{
+    @Test
+    public void testSeekAndPartialReads() throws IOException
+    {
+        FakeStorage storage = new FakeStorage();
+        byte[] content = content(5000);
+        storage.put("a.parquet", content);
+        // the client returns a few bytes per read, as it does at the end of its buffer
+        storage.setMaxReadLength(7);
+
+        GcsInputFile file = GcsInputFile.open(storage.client, "bucket", "a.parquet");
+        assertEquals(5000L, file.getLength());
+        try (SeekableInputStream in = file.newStream()) {
+            in.seek(1000L);
+            byte[] b = new byte[100];
+            // one read returns all bytes asked for
+            assertEquals(100, in.read(b, 0, 100));
+            assertArrayEquals(Arrays.copyOfRange(content, 1000, 1100), b);
+            assertEquals(1100L, in.getPos());
+
+            // sequential reads continue the request
+            assertEquals(50, in.read(b, 10, 50));
+            assertArrayEquals(Arrays.copyOfRange(content, 1100, 1150), Arrays.copyOfRange(b, 10, 60));
+            assertEquals(content[1150] & 0xff, in.read());
+
+            // backwards
+            in.seek(10L);
+            in.readFully(b, 0, 20);
+            assertArrayEquals(Arrays.copyOfRange(content, 10, 30), Arrays.copyOfRange(b, 0, 20));
+        }
+        assertEquals(1, storage.getReaders());
+        assertEquals(0, storage.getOpenChannels());
+    }
+
+    @Test
+    public void testEndOfFile() throws IOException
+    {
+        FakeStorage storage = new FakeStorage();
+        byte[] content = content(100);
+        storage.put("a.parquet", content);
+
+        try (SeekableInputStream in = GcsInputFile.open(storage.client, "bucket", "a.parquet").newStream()) {
+            in.seek(90L);
+            byte[] b = new byte[20];
+            assertEquals(10, in.read(b, 0, 20));
+            assertArrayEquals(Arrays.copyOfRange(content, 90, 100), Arrays.copyOfRange(b, 0, 10));
+            assertEquals(-1, in.read(b, 0, 20));
+            assertEquals(-1, in.read());
+            assertEquals(0, in.read(b, 0, 0));
+
+            in.seek(95L);
+            try {
+                in.readFully(b);
+                fail("Should throw at the end of the file");
+            }
+            catch (EOFException ex) {
+                assertTrue(ex.getMessage(), ex.getMessage().contains("gcs://bucket/a.parquet"));
+            }
+        }
+    }
+
+    @Test
+    public void testChunkSize() throws IOException
+    {
+        FakeStorage storage = new FakeStorage();
+        byte[] content = content(GcsInputFile.MAX_CHUNK_SIZE * 2 + 1000);
+        storage.put("a.parquet", content);
+
+        try (SeekableInputStream in = GcsInputFile.open(storage.client, "bucket", "a.parquet").newStream()) {
+            // larger reads are made of several requests of the size of the buffer of the client
+            in.seek(10L);
+            byte[] all = new byte[content.length - 10];
+            assertEquals(all.length, in.read(all, 0, all.length));
+            assertArrayEquals(Arrays.copyOfRange(content, 10, content.length), all);
+
+            in.seek(1000L);
+            byte[] small = new byte[100];
+            in.readFully(small);
+            assertArrayEquals(Arrays.copyOfRange(content, 1000, 1100), small);
+
+            in.seek(2000L);
+            byte[] middle = new byte[GcsInputFile.MAX_CHUNK_SIZE / 2];
+            in.readFully(middle);
+            assertArrayEquals(Arrays.copyOfRange(content, 2000, 2000 + middle.length), middle);
+        }
+        assertEquals(Arrays.asList(GcsInputFile.MAX_CHUNK_SIZE, GcsInputFile.MIN_CHUNK_SIZE, GcsInputFile.MAX_CHUNK_SIZE / 2),
+                storage.getChunkSizes());
+    }
+
+    @Test
+    public void testPinnedGeneration() throws IOException
+    {
+        FakeStorage storage = new FakeStorage();
+        byte[] first = content(100);
+        byte[] second = content(200);
+        assertEquals(1L, storage.put("a.parquet", first));
+
+        GcsInputFile file = GcsInputFile.open(storage.client, "bucket", "a.parquet");
+        assertEquals(BlobId.of("bucket", "a.parquet", 1L), file.getBlobId());
+        // overwritten after it was looked up
+        assertEquals(2L, storage.put("a.parquet", second));
+        assertArrayEquals(first, readAll(file));
+
+        GcsInputFile latest = GcsInputFile.open(storage.client, "bucket", "a.parquet");
+        assertEquals(Long.valueOf(2L), latest.getBlobId().getGeneration());
+        assertArrayEquals(second, readAll(latest));
+        assertArrayEquals(first, readAll(new GcsInputFile(storage.client, BlobId.of("bucket", "a.parquet", 1L), 100L)));
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testMissingObject() throws IOException
+    {
+        GcsInputFile.open(new FakeStorage().client, "bucket", "a.parquet");
+    }
+
+    private static byte[] readAll(GcsInputFile file) throws IOException
+    {
+        byte[] b = new byte[(int) file.getLength()];
+        try (SeekableInputStream in = file.newStream()) {
+            in.readFully(b);
+        }
+        return b;
+    }
+
+    private static byte[] content(int length)
+    {
+        byte[] content = new byte[length];
+        new Random(length).nextBytes(content);
+        return content;
+    }
+}
@@ -6,20 +6,31 @@ import com.google.cloud.storage.Blob;
 import com.google.cloud.storage.Storage;
 import com.google.common.base.Charsets;
 import com.google.common.io.Files;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
 import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigSource;
+import org.embulk.spi.Exec;
 import org.embulk.spi.util.ResumableInputStream;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
@@ -81,6 +92,9 @@ public class TestInputStreamReopener
     @Rule
     public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testResume()
     {
@@ -89,7 +103,8 @@ public class TestInputStreamReopener
 
         final Storage client = mockStorage();
 
-        final SingleFileProvider.InputStreamReopener reopener = new SingleFileProvider.InputStreamReopener(client, bucket, key,null);
+        final PluginTask task = Exec.newConfigSource().set("bucket", bucket).loadConfig(PluginTask.class);
+        final SingleFileProvider.InputStreamReopener reopener = new SingleFileProvider.InputStreamReopener(task, client, key, new FileList.Entry(0, 0));
         final byte[] buf = new byte[200];
         final ByteArrayOutputStream out = new ByteArrayOutputStream();
         try (final ResumableInputStream ris = new ResumableInputStream(reopener)) {
@@ -108,6 +123,84 @@ public class TestInputStreamReopener
         }
     }
 
+    @Test
+    public void testResumeInLaterRowGroup() throws IOException
+    {
+        File flat = ParquetFiles.write(folder.getRoot(), "flat.parquet", ParquetFiles.FLAT, 5000, 16 * 1024);
+        File nested = ParquetFiles.write(folder.getRoot(), "nested.parquet", ParquetFiles.NESTED, 5000, 16 * 1024);
+        for (RowWriter.OutputFormat format : RowWriter.OutputFormat.values()) {
+            for (ParquetUtils.ReaderEngine engine : ParquetUtils.ReaderEngine.values()) {
+                assertResumes(flat, engine, format, Optional.empty());
+                assertResumes(flat, engine, format, Optional.of("country = 'DE'"));
+            }
+            // column_batch reads nested files with the avro engine
+            assertResumes(nested, ParquetUtils.ReaderEngine.avro, format, Optional.empty());
+        }
+    }
+
+    /**
+     * Fails a read in the middle of a row group after the first ones, and compares the resumed
+     * stream with an uninterrupted one.
+     */
+    private void assertResumes(File file, ParquetUtils.ReaderEngine engine, RowWriter.OutputFormat format,
+                               Optional<String> filter) throws IOException
+    {
+        String message = String.format("%s %s %s %s", file.getName(), engine, format, filter.orElse(""));
+        List<BlockMetaData> rowGroups = ParquetFiles.footer(file).getBlocks();
+        assertTrue(message + " has " + rowGroups.size() + " row groups", rowGroups.size() >= 4);
+        BlockMetaData failing = rowGroups.get(rowGroups.size() / 2);
+
+        FakeStorage storage = new FakeStorage();
+        storage.put("a.parquet", ParquetFiles.content(file));
+        String bucket = "bucket-" + UUID.randomUUID();
+        byte[] expected = read(storage, bucket, engine, format, filter);
+        long bytesRead = storage.getBytesRead();
+        assertTrue(message, expected.length > 0);
+
+        storage.failOnce("a.parquet", failing.getStartingPos() + failing.getCompressedSize() / 2);
+        byte[] resumed = read(storage, bucket, engine, format, filter);
+        assertEquals(message, 1, storage.getFailed());
+        assertArrayEquals(message, expected, resumed);
+        if (!filter.isPresent()) {
+            // resumed at the row group that failed, not at the head of the file
+            long reread = storage.getBytesRead() - 2 * bytesRead;
+            assertTrue(message + " read " + reread + " bytes again", reread < failing.getStartingPos());
+        }
+    }
+
+    private static byte[] read(FakeStorage storage, String bucket, ParquetUtils.ReaderEngine engine,
+                               RowWriter.OutputFormat format, Optional<String> filter) throws IOException
+    {
+        ConfigSource config = Exec.newConfigSource()
+                .set("bucket", bucket)
+                .set("reader_engine", engine.name())
+                .set("output_format", format.name())
+                .set("read_ahead_row_groups", 0);
+        filter.ifPresent(f -> config.set("filter", f));
+        PluginTask task = config.loadConfig(PluginTask.class);
+        storage.register(task);
+        FileList.Builder builder = new FileList.Builder().pathMatchPattern(".*").minTaskSize(Long.MAX_VALUE);
+        builder.add("a.parquet", 1L);
+        task.setFiles(builder.build());
+        task.setFooters(Collections.emptyMap());
+        task.setRowColumns(Collections.emptyList());
+
+        SingleFileProvider provider = new SingleFileProvider(task, 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = provider.openNextWithHints().getInputStream()) {
+            // small reads, so that the failure is in the middle of the stream
+            byte[] buf = new byte[100];
+            int len;
+            while ((len = in.read(buf)) != -1) {
+                out.write(buf, 0, len);
+            }
+        }
+        finally {
+            provider.close();
+        }
+        return out.toByteArray();
+    }
+
     private Storage mockStorage()
     {
         Blob blob = Mockito.mock(Blob.class);
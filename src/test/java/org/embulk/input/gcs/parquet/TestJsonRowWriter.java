@@ -0,0 +1,62 @@
+package org.embulk.input.gcs.parquet;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestJsonRowWriter
+{
+    @Test
+    public void testEscape()
+    {
+        JsonRowWriter writer = new JsonRowWriter(0, false, false);
+        writer.writeString("a\"b\\c\nd\u0001\u00e9\ud83d\ude00");
+        writer.writeByte(',');
+        byte[] utf8 = "x\ty".getBytes(StandardCharsets.UTF_8);
+        writer.writeUtf8(utf8, 0, utf8.length);
+        writer.writeByte(',');
+        writer.writeLatin1(new byte[] {'z', (byte) 0xe9}, 0, 2);
+        writer.writeByte(',');
+        writer.writeLong(Long.MIN_VALUE);
+        writer.writeByte(',');
+        writer.writeLong(-120);
+        writer.writeByte(',');
+        writer.writeDouble(Double.NaN);
+
+        assertEquals("\"a\\\"b\\\\c\\nd\\u0001\u00e9\ud83d\ude00\",\"x\\ty\",\"z\u00e9\",-9223372036854775808,-120,\"NaN\"", drain(writer));
+    }
+
+    @Test
+    public void testSpill()
+    {
+        JsonRowWriter writer = new JsonRowWriter(100, false, false);
+        byte[] target = new byte[8];
+        writer.target(target, 2, 4);
+        writer.writeLong(12);
+        writer.writeByte(',');
+        writer.writeString("overflow");
+        assertEquals(4, writer.release());
+        assertEquals("12,\"", new String(target, 2, 4, StandardCharsets.US_ASCII));
+        assertEquals(113, writer.offset());
+        assertEquals("overflow\"", drain(writer));
+
+        writer.target(target, 0, 8);
+        writer.writeByte('x');
+        assertEquals(114, writer.offset());
+        assertEquals(1, writer.release());
+    }
+
+    private static String drain(OutputBuffer buffer)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] b = new byte[3];
+        while (buffer.available() > 0) {
+            int n = buffer.drain(b, 0, b.length);
+            out.write(b, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,232 @@
+package org.embulk.input.gcs.parquet;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import org.apache.parquet.io.InputFile;
+import org.apache.parquet.io.SeekableInputStream;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.spi.Exec;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestLocalCache
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEviction() throws Exception
+    {
+        File directory = folder.newFolder("cache");
+        // left by another process
+        Path stale = directory.toPath().resolve("stale.parquet");
+        Files.write(stale, new byte[20]);
+        Files.setLastModifiedTime(stale, FileTime.fromMillis(0L));
+
+        FakeObjects objects = new FakeObjects();
+        objects.put("a.parquet", 10);
+        objects.put("b.parquet", 10);
+        objects.put("c.parquet", 10);
+        objects.put("huge.parquet", 30);
+        LocalCache cache = LocalCache.of(task(directory, 25L));
+
+        // the first download scans the directory
+        Path a = path(cache.open(objects.storage, "bucket", "a.parquet"));
+        assertFalse(Files.exists(stale));
+        Path b = path(cache.open(objects.storage, "bucket", "b.parquet"));
+        Files.setLastModifiedTime(a, FileTime.fromMillis(1000L));
+        Files.setLastModifiedTime(b, FileTime.fromMillis(2000L));
+
+        // the least recently used file is deleted
+        Path c = path(cache.open(objects.storage, "bucket", "c.parquet"));
+        assertFalse(Files.exists(a));
+        assertTrue(Files.exists(b));
+        assertTrue(Files.exists(c));
+        Files.setLastModifiedTime(c, FileTime.fromMillis(3000L));
+
+        // a hit isn't downloaded again, and is used
+        assertEquals(b, path(cache.open(objects.storage, "bucket", "b.parquet")));
+        assertEquals(1, objects.downloads("b.parquet"));
+        path(cache.open(objects.storage, "bucket", "a.parquet"));
+        assertEquals(2, objects.downloads("a.parquet"));
+        assertTrue(Files.exists(b));
+        assertFalse(Files.exists(c));
+
+        // larger than the budget
+        assertFalse(cache.open(objects.storage, "bucket", "huge.parquet").isPresent());
+        assertEquals(0, objects.downloads("huge.parquet"));
+    }
+
+    @Test
+    public void testEvictionOfOpenedFile() throws Exception
+    {
+        FakeObjects objects = new FakeObjects();
+        objects.put("a.parquet", 10);
+        objects.put("b.parquet", 10);
+        LocalCache cache = LocalCache.of(task(folder.newFolder("cache"), 15L));
+
+        try (LocalInputFile a = (LocalInputFile) cache.open(objects.storage, "bucket", "a.parquet").get()) {
+            Files.setLastModifiedTime(a.getPath(), FileTime.fromMillis(1000L));
+            // handed out but not read yet when the next download evicts it
+            path(cache.open(objects.storage, "bucket", "b.parquet"));
+            assertFalse(Files.exists(a.getPath()));
+
+            assertEquals(10L, a.getLength());
+            byte[] b = new byte[10];
+            try (SeekableInputStream in = a.newStream()) {
+                in.readFully(b);
+            }
+            assertArrayEquals(new byte[10], b);
+        }
+    }
+
+    @Test
+    public void testConcurrentDownloads() throws Exception
+    {
+        FakeObjects objects = new FakeObjects();
+        objects.put("a.parquet", 1000);
+        LocalCache cache = LocalCache.of(task(folder.newFolder("cache"), 1L << 20));
+
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Optional<InputFile>>> opened = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                opened.add(executor.submit(() -> {
+                    start.await();
+                    return cache.open(objects.storage, "bucket", "a.parquet");
+                }));
+            }
+            start.countDown();
+            Path file = ((LocalInputFile) opened.get(0).get(10, TimeUnit.SECONDS).get()).getPath();
+            for (Future<Optional<InputFile>> future : opened) {
+                assertEquals(file, path(future.get(10, TimeUnit.SECONDS)));
+            }
+            assertEquals(1, objects.downloads("a.parquet"));
+            assertEquals(1000L, Files.size(file));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static PluginTask task(File directory, long maxBytes)
+    {
+        return Exec.newConfigSource()
+                .set("bucket", "bucket")
+                .set("local_cache_dir", directory.getAbsolutePath())
+                .set("local_cache_max_bytes", maxBytes)
+                .loadConfig(PluginTask.class);
+    }
+
+    private static Path path(Optional<InputFile> file) throws IOException
+    {
+        try (LocalInputFile local = (LocalInputFile) file.get()) {
+            return local.getPath();
+        }
+    }
+
+    /**
+     * Objects of generation 1 answering {@link Storage#get} and {@link Storage#reader}, counting the
+     * readers opened.
+     */
+    private static class FakeObjects
+    {
+        final Storage storage;
+
+        private final Map<String, Integer> sizes = new ConcurrentHashMap<>();
+        private final Map<String, AtomicInteger> downloads = new ConcurrentHashMap<>();
+
+        FakeObjects()
+        {
+            this.storage = Mockito.mock(Storage.class, invocation -> {
+                switch (invocation.getMethod().getName()) {
+                    case "get":
+                        return blob(sizes.get(((BlobId) invocation.getArguments()[0]).getName()));
+                    case "reader":
+                        String name = ((BlobId) invocation.getArguments()[0]).getName();
+                        downloads.get(name).incrementAndGet();
+                        return reader(sizes.get(name));
+                    default:
+                        throw new UnsupportedOperationException(invocation.getMethod().getName());
+                }
+            });
+        }
+
+        void put(String name, int size)
+        {
+            sizes.put(name, size);
+            downloads.put(name, new AtomicInteger());
+        }
+
+        int downloads(String name)
+        {
+            return downloads.get(name).get();
+        }
+
+        private static Blob blob(int size)
+        {
+            return Mockito.mock(Blob.class, invocation -> {
+                switch (invocation.getMethod().getName()) {
+                    case "getSize":
+                        return (long) size;
+                    case "getGeneration":
+                        return 1L;
+                    default:
+                        return null;
+                }
+            });
+        }
+
+        private static ReadChannel reader(int size)
+        {
+            AtomicInteger remaining = new AtomicInteger(size);
+            return Mockito.mock(ReadChannel.class, invocation -> {
+                if (!invocation.getMethod().getName().equals("read")) {
+                    return null;
+                }
+                // slow enough for the other threads to wait for the download
+                Thread.sleep(10);
+                ByteBuffer buffer = (ByteBuffer) invocation.getArguments()[0];
+                int n = Math.min(Math.min(remaining.get(), buffer.remaining()), 100);
+                if (n == 0) {
+                    return -1;
+                }
+                buffer.put(new byte[n]);
+                remaining.addAndGet(-n);
+                return n;
+            });
+        }
+    }
+}
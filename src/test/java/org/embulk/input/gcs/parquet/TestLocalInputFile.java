@@ -0,0 +1,96 @@
+package org.embulk.input.gcs.parquet;
+
+import org.apache.parquet.io.SeekableInputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestLocalInputFile
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSeekAndReads() throws IOException
+    {
+        byte[] content = new byte[5000];
+        new Random(1).nextBytes(content);
+        Path path = folder.newFile("a.parquet").toPath();
+        Files.write(path, content);
+
+        try (LocalInputFile file = new LocalInputFile(path, 3L);
+                SeekableInputStream in = file.newStream()) {
+            assertEquals(5000L, file.getLength());
+            assertEquals(Long.valueOf(3L), file.getGeneration());
+            in.seek(4000L);
+            byte[] b = new byte[100];
+            in.readFully(b);
+            assertArrayEquals(Arrays.copyOfRange(content, 4000, 4100), b);
+            assertEquals(4100L, in.getPos());
+
+            in.seek(10L);
+            ByteBuffer buf = ByteBuffer.allocateDirect(20);
+            in.readFully(buf);
+            buf.flip();
+            byte[] direct = new byte[20];
+            buf.get(direct);
+            assertArrayEquals(Arrays.copyOfRange(content, 10, 30), direct);
+            assertEquals(content[30] & 0xff, in.read());
+
+            // partial reads at the end
+            in.seek(4990L);
+            assertEquals(10, in.read(b, 0, 100));
+            assertArrayEquals(Arrays.copyOfRange(content, 4990, 5000), Arrays.copyOfRange(b, 0, 10));
+            assertEquals(-1, in.read(b, 0, 100));
+            assertEquals(-1, in.read());
+
+            in.seek(4950L);
+            try {
+                in.readFully(b);
+                fail("Should throw at the end of the file");
+            }
+            catch (EOFException ex) {
+                assertTrue(ex.getMessage(), ex.getMessage().contains(path.toString()));
+            }
+        }
+    }
+
+    @Test
+    public void testReadAfterDelete() throws IOException
+    {
+        byte[] content = new byte[1000];
+        new Random(2).nextBytes(content);
+        Path path = folder.newFile("a.parquet").toPath();
+        Files.write(path, content);
+
+        try (LocalInputFile file = new LocalInputFile(path, 1L)) {
+            // evicted after it was handed out, before it is read
+            Files.delete(path);
+            byte[] b = new byte[1000];
+            try (SeekableInputStream in = file.newStream()) {
+                in.readFully(b);
+            }
+            assertArrayEquals(content, b);
+            // streams of the same file are independent
+            try (SeekableInputStream first = file.newStream(); SeekableInputStream second = file.newStream()) {
+                first.seek(500L);
+                assertEquals(content[0] & 0xff, second.read());
+                assertEquals(content[500] & 0xff, first.read());
+                assertEquals(content[1] & 0xff, second.read());
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.embulk.input.gcs.parquet;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.spi.Exec;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestManifest
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final byte[] TAIL_A = {1, 2, 3, 'P', 'A', 'R', '1'};
+    private static final byte[] TAIL_B = {4, 5, 'P', 'A', 'R', '1'};
+
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        File path = new File(folder.getRoot(), "dir/manifest");
+        PluginTask task = task("bucket", path);
+
+        // a missing manifest starts an empty one
+        Manifest manifest = Manifest.load(task).get();
+        manifest.listed("a.parquet", 1L, 10L, 1000L);
+        assertFalse(manifest.footer("a.parquet").isPresent());
+        manifest.putFooter("a.parquet", new FooterPrefetcher.Footer(10L, 1L, TAIL_A));
+        // one of paths, not listed
+        manifest.putFooter("b.parquet", new FooterPrefetcher.Footer(20L, 2L, TAIL_B));
+        // listed without a footer
+        manifest.listed("c.parquet", 3L, 30L, 3000L);
+        manifest.save();
+        assertTrue(path.isFile());
+        assertEquals(1, folder.getRoot().toPath().resolve("dir").toFile().list().length);
+
+        Manifest loaded = Manifest.load(task).get();
+        loaded.listed("a.parquet", 1L, 10L, 1000L);
+        loaded.listed("c.parquet", 3L, 30L, 3000L);
+        FooterPrefetcher.Footer a = loaded.footer("a.parquet").get();
+        assertEquals(10L, a.getLength());
+        assertEquals(Long.valueOf(1L), a.getGeneration());
+        assertArrayEquals(TAIL_A, a.getTail());
+        FooterPrefetcher.Footer b = loaded.footer("b.parquet", 2L).get();
+        assertEquals(20L, b.getLength());
+        assertArrayEquals(TAIL_B, b.getTail());
+        assertFalse(loaded.footer("c.parquet").isPresent());
+        assertEquals(2, loaded.getReusedFooters());
+    }
+
+    @Test
+    public void testChangedObjects() throws Exception
+    {
+        File path = new File(folder.getRoot(), "manifest");
+        PluginTask task = task("bucket", path);
+        Manifest manifest = Manifest.load(task).get();
+        for (String name : new String[] {"a.parquet", "b.parquet", "c.parquet"}) {
+            manifest.listed(name, 1L, 10L, 1000L);
+            manifest.putFooter(name, new FooterPrefetcher.Footer(10L, 1L, TAIL_A));
+        }
+        manifest.save();
+
+        // footers are reused only if both generation and size are unchanged
+        Manifest loaded = Manifest.load(task).get();
+        loaded.listed("a.parquet", 1L, 10L, 2000L);
+        loaded.listed("b.parquet", 2L, 10L, 2000L);
+        loaded.listed("c.parquet", 1L, 11L, 2000L);
+        assertTrue(loaded.footer("a.parquet").isPresent());
+        assertFalse(loaded.footer("b.parquet").isPresent());
+        assertFalse(loaded.footer("c.parquet").isPresent());
+        assertFalse(loaded.footer("b.parquet", 2L).isPresent());
+        assertEquals(1, loaded.getReusedFooters());
+
+        // the footer of a new generation replaces the old one
+        loaded.putFooter("b.parquet", new FooterPrefetcher.Footer(10L, 2L, TAIL_B));
+        loaded.save();
+        Manifest reloaded = Manifest.load(task).get();
+        reloaded.listed("b.parquet", 2L, 10L, 2000L);
+        assertArrayEquals(TAIL_B, reloaded.footer("b.parquet").get().getTail());
+    }
+
+    @Test
+    public void testUnusableManifest() throws Exception
+    {
+        File path = new File(folder.getRoot(), "manifest");
+        Manifest manifest = Manifest.load(task("bucket", path)).get();
+        manifest.listed("a.parquet", 1L, 10L, 1000L);
+        manifest.putFooter("a.parquet", new FooterPrefetcher.Footer(10L, 1L, TAIL_A));
+        manifest.save();
+
+        // the manifest of another bucket is not used
+        Manifest other = Manifest.load(task("other", path)).get();
+        other.listed("a.parquet", 1L, 10L, 1000L);
+        assertFalse(other.footer("a.parquet").isPresent());
+
+        // a corrupt manifest starts an empty one
+        Files.write(path.toPath(), new byte[] {1, 2, 3});
+        Manifest corrupt = Manifest.load(task("bucket", path)).get();
+        corrupt.listed("a.parquet", 1L, 10L, 1000L);
+        assertFalse(corrupt.footer("a.parquet").isPresent());
+
+        assertFalse(Manifest.load(Exec.newConfigSource().set("bucket", "bucket").loadConfig(PluginTask.class)).isPresent());
+    }
+
+    private static PluginTask task(String bucket, File path)
+    {
+        return Exec.newConfigSource().set("bucket", bucket).set("manifest_path", path.getPath()).loadConfig(PluginTask.class);
+    }
+}
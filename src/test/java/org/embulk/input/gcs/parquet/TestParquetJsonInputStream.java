@@ -0,0 +1,257 @@
+package org.embulk.input.gcs.parquet;
+
+import com.google.common.io.ByteStreams;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.avro.AvroReadSupport;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.SimpleGroupFactory;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.example.ExampleParquetWriter;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigLoader;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.Exec;
+import org.embulk.spi.util.LineDecoder;
+import org.embulk.spi.util.ListFileInput;
+import org.embulk.standards.CsvParserPlugin;
+import org.embulk.standards.CsvTokenizer;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.value.ArrayValue;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestParquetJsonInputStream
+{
+    private static final MessageType SCHEMA = MessageTypeParser.parseMessageType(
+            "message test {"
+                    + " required int64 id;"
+                    + " optional int32 small;"
+                    + " optional float score;"
+                    + " optional double ratio;"
+                    + " optional boolean flag;"
+                    + " optional binary country (UTF8);"
+                    + " optional binary name (UTF8);"
+                    + " optional binary raw;"
+                    + "}");
+    private static final MessageType NESTED = MessageTypeParser.parseMessageType(
+            "message nested {"
+                    + " required int64 id;"
+                    + " optional binary text (UTF8);"
+                    + " optional group address { optional binary city (UTF8); }"
+                    + " repeated int32 tags;"
+                    + "}");
+    private static final int ROWS = 2000;
+    private static final int NESTED_ROWS = 100;
+
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path path;
+
+    @Before
+    public void writeFile() throws IOException
+    {
+        path = new Path(new File(folder.getRoot(), "flat.parquet").toURI());
+        SimpleGroupFactory groups = new SimpleGroupFactory(SCHEMA);
+        // country stays dictionary encoded; the dictionary of name overflows, so it falls back to plain pages
+        try (ParquetWriter<Group> writer = ExampleParquetWriter.builder(path)
+                .withType(SCHEMA)
+                .withDictionaryEncoding(true)
+                .withDictionaryPageSize(256)
+                .withPageSize(1024)
+                .build()) {
+            for (int i = 0; i < ROWS; i++) {
+                Group group = groups.newGroup().append("id", (long) i);
+                if (i % 7 != 1) {
+                    group.append("small", i - 1000)
+                            .append("score", i / 3.0f)
+                            .append("ratio", i / 7.0)
+                            .append("flag", i % 2 == 0)
+                            .append("country", i % 3 == 0 ? "DE" : "\u00c5land \"\u65e5\u672c\"\n")
+                            .append("name", "name-" + i + "\t\u00e9\u4e2d\ud83d\ude00")
+                            .append("raw", Binary.fromConstantByteArray(new byte[] {0, (byte) i, (byte) 0x80, (byte) 0xff, '"', '\\'}));
+                }
+                writer.write(group);
+            }
+        }
+        assertTrue(FlatRow.supports(SCHEMA));
+    }
+
+    @Test
+    public void testFlatRowsAsAvroRecords() throws IOException
+    {
+        for (RowWriter.OutputFormat format : RowWriter.OutputFormat.values()) {
+            assertSameOutput(format, Collections.emptyList());
+        }
+    }
+
+    @Test
+    public void testProjectedColumns() throws IOException
+    {
+        for (RowWriter.OutputFormat format : RowWriter.OutputFormat.values()) {
+            assertSameOutput(format, Arrays.asList("raw", "id", "country"));
+        }
+    }
+
+    @Test
+    public void testCsvParsedBack() throws IOException
+    {
+        Path nested = writeNested();
+        byte[] csv = read(new ParquetJsonInputStream(avroReader(nested), Collections.emptyList(), Collections.emptyList(),
+                RowWriter.OutputFormat.csv, new RecordInputStream.Checkpoints(), RecordInputStream.Checkpoint.HEAD));
+
+        // with the parser config that is logged for the schema
+        CsvParserPlugin.PluginTask task = new ConfigLoader(Exec.getModelManager())
+                .fromYamlString(RowWriter.parserConfig(RowWriter.OutputFormat.csv, NESTED))
+                .getNested("parser")
+                .loadConfig(CsvParserPlugin.PluginTask.class);
+        CsvTokenizer tokenizer = new CsvTokenizer(new LineDecoder(new ListFileInput(
+                Collections.singletonList(Collections.singletonList(Buffer.wrap(csv)))), task), task);
+        assertTrue(tokenizer.nextFile());
+        int i = 0;
+        while (tokenizer.nextRecord()) {
+            String message = "row " + i;
+            assertEquals(message, Long.toString(i), tokenizer.nextColumnOrNull());
+            if (i % 7 == 1) {
+                // nulls are empty fields, unlike empty strings
+                assertEquals(message, null, tokenizer.nextColumnOrNull());
+                assertEquals(message, null, tokenizer.nextColumnOrNull());
+            }
+            else {
+                assertEquals(message, text(i), tokenizer.nextColumnOrNull());
+                // nested values are JSON text, escaped as JSON inside the quotes
+                assertEquals(message, "{\"city\":\"a \\\"city\\\",\\n" + i % 3 + "\"}", tokenizer.nextColumnOrNull());
+            }
+            assertEquals(message, tags(i).toString().replace(" ", ""), tokenizer.nextColumnOrNull());
+            i++;
+        }
+        assertEquals(NESTED_ROWS, i);
+    }
+
+    @Test
+    public void testMsgpackParsedBack() throws IOException
+    {
+        Path nested = writeNested();
+        byte[] msgpack = read(new ParquetJsonInputStream(avroReader(nested), Collections.emptyList(), Collections.emptyList(),
+                RowWriter.OutputFormat.msgpack, new RecordInputStream.Checkpoints(), RecordInputStream.Checkpoint.HEAD));
+
+        // embulk-parser-msgpack with file_encoding: sequence unpacks values back to back, and with
+        // row_encoding: array takes the elements of each as the columns in order
+        assertEquals(Arrays.asList("id long", "text string", "address json", "tags json"), RowWriter.rowColumns(NESTED));
+        MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(msgpack);
+        int i = 0;
+        while (unpacker.hasNext()) {
+            String message = "row " + i;
+            ArrayValue row = unpacker.unpackValue().asArrayValue();
+            assertEquals(message, 4, row.size());
+            assertEquals(message, i, row.get(0).asIntegerValue().toLong());
+            List<Long> tags = new ArrayList<>();
+            for (Value tag : row.get(3).asArrayValue()) {
+                tags.add(tag.asIntegerValue().toLong());
+            }
+            if (i % 7 == 1) {
+                assertTrue(message, row.get(1).isNilValue());
+                assertTrue(message, row.get(2).isNilValue());
+            }
+            else {
+                assertEquals(message, text(i), row.get(1).asStringValue().asString());
+                Map<Value, Value> address = row.get(2).asMapValue().map();
+                assertEquals(message, 1, address.size());
+                assertEquals(message, "a \"city\",\n" + i % 3, address.get(ValueFactory.newString("city")).asStringValue().asString());
+            }
+            assertEquals(message, tags(i), tags);
+            i++;
+        }
+        assertEquals(NESTED_ROWS, i);
+    }
+
+    // quotes, separators and newlines, and an empty string in every 5th row
+    private static String text(int i)
+    {
+        return i % 5 == 0 ? "" : "say \"hi\", " + i + "\n\"next\" line\n";
+    }
+
+    // one to three in every row, so that no row has an empty repeated field
+    private static List<Long> tags(int i)
+    {
+        List<Long> tags = new ArrayList<>();
+        for (int j = 0; j <= i % 3; j++) {
+            tags.add((long) (i + j));
+        }
+        return tags;
+    }
+
+    private Path writeNested() throws IOException
+    {
+        Path nested = new Path(new File(folder.getRoot(), "nested.parquet").toURI());
+        SimpleGroupFactory groups = new SimpleGroupFactory(NESTED);
+        try (ParquetWriter<Group> writer = ExampleParquetWriter.builder(nested).withType(NESTED).build()) {
+            for (int i = 0; i < NESTED_ROWS; i++) {
+                Group group = groups.newGroup().append("id", (long) i);
+                if (i % 7 != 1) {
+                    group.append("text", text(i));
+                    group.addGroup("address").append("city", "a \"city\",\n" + i % 3);
+                }
+                for (long tag : tags(i)) {
+                    group.append("tags", (int) tag);
+                }
+                writer.write(group);
+            }
+        }
+        return nested;
+    }
+
+    private static ParquetReader<GenericRecord> avroReader(Path file) throws IOException
+    {
+        return ParquetReader.builder(new AvroReadSupport<GenericRecord>(), file).withConf(new Configuration()).build();
+    }
+
+    private void assertSameOutput(RowWriter.OutputFormat format, List<String> columns) throws IOException
+    {
+        ParquetReader<FlatRow> flatReader = ParquetReader.builder(new FlatRowReadSupport(columns), path).build();
+        ParquetReader<GenericRecord> avroReader = ParquetReader.builder(
+                columns.isEmpty() ? new AvroReadSupport<GenericRecord>() : new ProjectedAvroReadSupport(columns), path)
+                .withConf(new Configuration())
+                .build();
+        byte[] flat = read(new ParquetJsonInputStream(flatReader, Collections.emptyList(), columns, format,
+                new RecordInputStream.Checkpoints(), RecordInputStream.Checkpoint.HEAD));
+        byte[] avro = read(new ParquetJsonInputStream(avroReader, Collections.emptyList(), columns, format,
+                new RecordInputStream.Checkpoints(), RecordInputStream.Checkpoint.HEAD));
+        assertTrue(format + " is empty", flat.length > 0);
+        assertArrayEquals(format.name(), avro, flat);
+    }
+
+    private static byte[] read(InputStream in) throws IOException
+    {
+        try (InputStream stream = in) {
+            return ByteStreams.toByteArray(stream);
+        }
+    }
+}
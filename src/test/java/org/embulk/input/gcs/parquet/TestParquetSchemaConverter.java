@@ -0,0 +1,163 @@
+package org.embulk.input.gcs.parquet;
+
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigSource;
+import org.embulk.spi.DataException;
+import org.embulk.spi.Exec;
+import org.embulk.spi.Schema;
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.type.Types;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestParquetSchemaConverter
+{
+    private static final MessageType SCHEMA = MessageTypeParser.parseMessageType(
+            "message test {"
+                    + " required int64 id;"
+                    + " optional boolean active;"
+                    + " optional binary name (UTF8);"
+                    + " optional int32 event_date (DATE);"
+                    + " optional int64 updated_at (TIMESTAMP_MICROS);"
+                    + " optional int96 created_at;"
+                    + " optional int64 amount (DECIMAL(18,2));"
+                    + " optional float score;"
+                    + " optional binary payload (JSON);"
+                    + " repeated int32 tags;"
+                    + " optional group address { optional binary city (UTF8); }"
+                    + "}");
+
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testToEmbulkSchema()
+    {
+        Schema schema = ParquetSchemaConverter.toEmbulkSchema(SCHEMA);
+        assertEquals(Schema.builder()
+                .add("id", Types.LONG)
+                .add("active", Types.BOOLEAN)
+                .add("name", Types.STRING)
+                .add("event_date", Types.TIMESTAMP)
+                .add("updated_at", Types.TIMESTAMP)
+                .add("created_at", Types.TIMESTAMP)
+                .add("amount", Types.DOUBLE)
+                .add("score", Types.DOUBLE)
+                .add("payload", Types.JSON)
+                .add("tags", Types.JSON)
+                .add("address", Types.JSON)
+                .build(), schema);
+    }
+
+    @Test
+    public void testToTimestamp()
+    {
+        assertEquals(Timestamp.ofEpochSecond(86400L, 0L), AvroPageWriter.toTimestamp(1L, "date"));
+        assertEquals(Timestamp.ofEpochMilli(1500L), AvroPageWriter.toTimestamp(1500L, "timestamp-millis"));
+        assertEquals(Timestamp.ofEpochSecond(1L, 500000000L), AvroPageWriter.toTimestamp(1500000L, "timestamp-micros"));
+        // before the epoch
+        assertEquals(Timestamp.ofEpochSecond(-2L, 500000000L), AvroPageWriter.toTimestamp(-1500000L, "timestamp-micros"));
+    }
+
+    @Test
+    public void testInt96()
+    {
+        ColumnVector vector = new ColumnVector(SCHEMA.getColumnDescription(new String[] {"created_at"}),
+                SCHEMA.getType("created_at").asPrimitiveType(), 2);
+        assertTrue(vector.isTimestamp());
+        // 2020-01-01T00:00:01.000002Z and 1969-12-31T23:59:59Z
+        vector.binaries[0] = int96(2440588L + 18262L, 1000002000L);
+        vector.binaries[1] = int96(2440587L, 86399L * 1000000000L);
+        assertEquals(1577836801000002L, vector.getEpochMicros(0));
+        assertEquals(-1000000L, vector.getEpochMicros(1));
+    }
+
+    @Test
+    public void testAvroRejectsInt96()
+    {
+        PluginTask task = Exec.newConfigSource().set("bucket", "bucket").loadConfig(PluginTask.class);
+        ParquetUtils.checkAvroReadable(task, "a.parquet", ParquetUtils.project(SCHEMA, Arrays.asList("id", "name")));
+        try {
+            ParquetUtils.checkAvroReadable(task, "a.parquet", SCHEMA);
+            fail("Should throw for INT96 columns");
+        }
+        catch (DataException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("[created_at]"));
+        }
+    }
+
+    @Test
+    public void testCheckSchema()
+    {
+        PluginTask task = Exec.newConfigSource().set("bucket", "bucket").loadConfig(PluginTask.class);
+        Schema schema = ParquetSchemaConverter.toEmbulkSchema(SCHEMA);
+        ParquetSchemaConverter.checkSchema(task, "a.parquet", SCHEMA, schema);
+        // other physical types of the same Embulk types, and missing columns
+        ParquetSchemaConverter.checkSchema(task, "b.parquet", MessageTypeParser.parseMessageType(
+                "message test {"
+                        + " optional int32 id;"
+                        + " optional binary amount (DECIMAL(18,2));"
+                        + " optional int64 created_at (TIMESTAMP_MILLIS);"
+                        + " optional binary other (UTF8);"
+                        + "}"), schema);
+        try {
+            ParquetSchemaConverter.checkSchema(task, "c.parquet", MessageTypeParser.parseMessageType(
+                    "message test { required int64 id; optional double amount; optional binary score (UTF8); }"), schema);
+            fail("Should throw for a column of another type");
+        }
+        catch (DataException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("Column score of gcs://bucket/c.parquet is string"));
+        }
+    }
+
+    @Test
+    public void testReadSchemaWithoutDownload() throws IOException
+    {
+        File cache = folder.newFolder("cache");
+        FakeStorage storage = new FakeStorage();
+        storage.put("a.parquet", ParquetFiles.content(ParquetFiles.write(folder.getRoot(), "a.parquet", ParquetFiles.FLAT, 100, 1024 * 1024)));
+        ConfigSource config = Exec.newConfigSource()
+                .set("bucket", "bucket-" + UUID.randomUUID())
+                .set("columns", Arrays.asList("id", "name"))
+                .set("local_cache_dir", cache.getAbsolutePath());
+        PluginTask task = config.loadConfig(PluginTask.class);
+        storage.register(task);
+        FileList.Builder builder = new FileList.Builder().pathMatchPattern(".*").minTaskSize(Long.MAX_VALUE);
+        builder.add("a.parquet", 1L);
+        task.setFiles(builder.build());
+        task.setFooters(Collections.emptyMap());
+
+        assertEquals(Schema.builder().add("id", Types.LONG).add("name", Types.STRING).build(),
+                GcsParquetNativeInputPlugin.readSchema(task));
+        // only the tail is read, and nothing is written to the cache
+        assertEquals(1, storage.getReaders());
+        assertEquals(0, cache.list().length);
+    }
+
+    private static Binary int96(long julianDay, long nanosOfDay)
+    {
+        ByteBuffer buf = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putLong(nanosOfDay);
+        buf.putInt((int) julianDay);
+        return Binary.fromConstantByteArray(buf.array());
+    }
+}
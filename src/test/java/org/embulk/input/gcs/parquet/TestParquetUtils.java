@@ -0,0 +1,54 @@
+package org.embulk.input.gcs.parquet;
+
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.spi.DataException;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestParquetUtils
+{
+    // ParquetUtils gets its logger from the exec session
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private static final MessageType SCHEMA = MessageTypeParser.parseMessageType(
+            "message test {"
+                    + " required int64 id;"
+                    + " optional binary name (UTF8);"
+                    + " optional group address { optional binary city (UTF8); }"
+                    + " optional double score;"
+                    + "}");
+
+    @Test
+    public void testProject()
+    {
+        assertSame(SCHEMA, ParquetUtils.project(SCHEMA, Collections.emptyList()));
+        // in file order
+        assertEquals(MessageTypeParser.parseMessageType(
+                "message test { required int64 id; optional double score; }"),
+                ParquetUtils.project(SCHEMA, Arrays.asList("score", "id", "score")));
+    }
+
+    @Test
+    public void testProjectUnknownColumns()
+    {
+        try {
+            ParquetUtils.project(SCHEMA, Arrays.asList("id", "nmae", "city", "nmae"));
+            fail("Should throw for unknown columns");
+        }
+        catch (DataException ex) {
+            // nested fields are not top-level columns
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("Columns [nmae, city] don't exist"));
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.embulk.input.gcs.parquet;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestRangeReader
+{
+    @Test
+    public void testCoalesceCloseRuns()
+    {
+        // the second run is given first; ranges are in file order
+        List<RangeReader.Range> ranges = RangeReader.coalesce(Arrays.asList(
+                new ReadAheadInputFile.Run(150, 50),
+                new ReadAheadInputFile.Run(0, 100),
+                new ReadAheadInputFile.Run(1000, 10)), 64, 1024);
+
+        assertEquals(2, ranges.size());
+        assertEquals(0, ranges.get(0).offset);
+        assertEquals(200, ranges.get(0).length);
+        assertEquals(2, ranges.get(0).slices.size());
+        assertEquals(1, ranges.get(0).slices.get(0).run);
+        assertEquals(0, ranges.get(0).slices.get(1).run);
+        assertEquals(1000, ranges.get(1).offset);
+        assertEquals(10, ranges.get(1).length);
+    }
+
+    @Test
+    public void testSplitLargeRun()
+    {
+        List<RangeReader.Range> ranges = RangeReader.coalesce(Arrays.asList(
+                new ReadAheadInputFile.Run(0, 250)), 64, 100);
+
+        assertEquals(3, ranges.size());
+        assertEquals(200, ranges.get(2).offset);
+        assertEquals(50, ranges.get(2).length);
+        assertEquals(200, ranges.get(2).slices.get(0).runOffset);
+    }
+}
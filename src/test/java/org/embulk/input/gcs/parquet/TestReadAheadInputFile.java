@@ -0,0 +1,176 @@
+package org.embulk.input.gcs.parquet;
+
+import org.apache.parquet.io.InputFile;
+import org.apache.parquet.io.SeekableInputStream;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TestReadAheadInputFile
+{
+    private static final RangeReader.Task READS = new RangeReader.Task()
+    {
+        @Override
+        public long getReadCoalesceGapBytes()
+        {
+            return 0;
+        }
+
+        @Override
+        public int getReadMaxRangeBytes()
+        {
+            return 64;
+        }
+
+        @Override
+        public int getReadParallelism()
+        {
+            return 2;
+        }
+    };
+
+    // three row groups of one run each, then the footer
+    private static final List<List<ReadAheadInputFile.Run>> PLAN = Arrays.asList(
+            Collections.singletonList(new ReadAheadInputFile.Run(100, 100)),
+            Collections.singletonList(new ReadAheadInputFile.Run(300, 100)),
+            Collections.singletonList(new ReadAheadInputFile.Run(500, 100)));
+
+    @Test
+    public void testReadAhead() throws IOException
+    {
+        MemoryFile memory = new MemoryFile(1000, 0);
+        try (SeekableInputStream in = new ReadAheadInputFile(memory, PLAN, 2, 1 << 20, READS).newStream()) {
+            assertRead(memory, in, 100, 100);
+            assertRead(memory, in, 300, 100);
+            assertRead(memory, in, 500, 100);
+        }
+        // all row groups were fetched ahead, none read by the stream itself
+        assertEquals(Collections.emptyList(), memory.directReads());
+    }
+
+    @Test
+    public void testSkippedRowGroup() throws IOException
+    {
+        // a single row group ahead: the skipped one must not keep holding its place
+        MemoryFile memory = new MemoryFile(1000, 0);
+        try (SeekableInputStream in = new ReadAheadInputFile(memory, PLAN, 1, 1 << 20, READS).newStream()) {
+            // the first row group is skipped, e.g. dropped by its dictionaries after reading a part of it
+            assertRead(memory, in, 100, 10);
+            assertRead(memory, in, 300, 100);
+            assertRead(memory, in, 500, 100);
+        }
+        assertEquals(Collections.emptyList(), memory.directReads());
+    }
+
+    @Test
+    public void testReadsOutsideOfThePlan() throws IOException
+    {
+        MemoryFile memory = new MemoryFile(1000, 0);
+        try (SeekableInputStream in = new ReadAheadInputFile(memory, PLAN, 1, 1 << 20, READS).newStream()) {
+            // the footer is read directly and doesn't release the row groups before it
+            assertRead(memory, in, 900, 100);
+            assertRead(memory, in, 100, 100);
+            // a read between runs stops at the next run
+            in.seek(200);
+            assertEquals(100, in.read(new byte[300], 0, 300));
+            assertRead(memory, in, 300, 100);
+        }
+        assertEquals(Arrays.asList(900L, 200L), memory.directReads());
+    }
+
+    @Test
+    public void testCloseWaitsForFetches() throws IOException
+    {
+        MemoryFile memory = new MemoryFile(1000, 200);
+        SeekableInputStream in = new ReadAheadInputFile(memory, PLAN, 3, 1 << 20, READS).newStream();
+        in.close();
+        assertEquals(0, memory.active.get());
+    }
+
+    private static void assertRead(MemoryFile memory, SeekableInputStream in, long offset, int length) throws IOException
+    {
+        byte[] bytes = new byte[length];
+        in.seek(offset);
+        in.readFully(bytes);
+        assertArrayEquals(Arrays.copyOfRange(memory.bytes, (int) offset, (int) offset + length), bytes);
+        assertEquals(offset + length, in.getPos());
+    }
+
+    /**
+     * A file in memory that records the reads of its first stream, which is the one
+     * {@link ReadAheadInputFile} reads directly with.
+     */
+    private static class MemoryFile
+            implements InputFile
+    {
+        final byte[] bytes;
+        final AtomicInteger active = new AtomicInteger();
+        private final long delayMillis;
+        private final AtomicInteger streams = new AtomicInteger();
+        private final List<Long> directReads = Collections.synchronizedList(new ArrayList<>());
+
+        MemoryFile(int length, long delayMillis)
+        {
+            this.bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = (byte) (i * 31);
+            }
+            this.delayMillis = delayMillis;
+        }
+
+        List<Long> directReads()
+        {
+            return new ArrayList<>(directReads);
+        }
+
+        @Override
+        public long getLength()
+        {
+            return bytes.length;
+        }
+
+        @Override
+        public SeekableInputStream newStream()
+        {
+            boolean direct = streams.getAndIncrement() == 0;
+            return new PositionedInputStream(this)
+            {
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException
+                {
+                    active.incrementAndGet();
+                    try {
+                        if (delayMillis > 0) {
+                            Thread.sleep(delayMillis);
+                        }
+                        if (pos >= bytes.length) {
+                            return -1;
+                        }
+                        int n = (int) Math.min(len, bytes.length - pos);
+                        System.arraycopy(bytes, (int) pos, b, off, n);
+                        if (direct) {
+                            directReads.add(pos);
+                        }
+                        pos += n;
+                        return n;
+                    }
+                    catch (InterruptedException ex) {
+                        throw new InterruptedIOException();
+                    }
+                    finally {
+                        active.decrementAndGet();
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.embulk.input.gcs.parquet;
+
+import org.apache.parquet.column.Encoding;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnPath;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.embulk.EmbulkTestRuntime;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestRowGroupSplitter
+{
+    // RowGroupSplitter gets its logger from the exec session
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Test
+    public void testBoundaries()
+    {
+        // after the magic number, and before a footer of 100 bytes
+        List<BlockMetaData> blocks = blocks(4L, 100L, 50L, 300L, 60L, 60L);
+        long length = 4L + 570L + 100L;
+
+        List<Long> boundaries = RowGroupSplitter.boundaries(blocks, length, 150L);
+        assertEquals(Arrays.asList(0L, 154L, 454L, length), boundaries);
+        assertRanges(blocks, length, boundaries);
+    }
+
+    @Test
+    public void testLargeRowGroups()
+    {
+        // a row group larger than the split size gets a range of its own
+        List<BlockMetaData> blocks = blocks(4L, 500L, 10L, 500L, 10L);
+        long length = 4L + 1020L + 50L;
+
+        List<Long> boundaries = RowGroupSplitter.boundaries(blocks, length, 100L);
+        assertEquals(Arrays.asList(0L, 504L, 514L, 1014L, length), boundaries);
+        assertRanges(blocks, length, boundaries);
+    }
+
+    @Test
+    public void testUnsplitFiles()
+    {
+        List<BlockMetaData> blocks = blocks(4L, 100L, 100L);
+        assertEquals(Arrays.asList(0L, 300L), RowGroupSplitter.boundaries(blocks, 300L, 1L << 30));
+        assertEquals(Arrays.asList(0L, 300L), RowGroupSplitter.boundaries(blocks.subList(0, 1), 300L, 1L));
+        assertEquals(Arrays.asList(0L, 20L), RowGroupSplitter.boundaries(Collections.emptyList(), 20L, 1L));
+    }
+
+    @Test
+    public void testManySizes()
+    {
+        List<Long> sizes = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            sizes.add(1L + (i * 7919L) % 400L);
+        }
+        List<BlockMetaData> blocks = blocks(4L, sizes.stream().mapToLong(Long::longValue).toArray());
+        long length = 4L + sizes.stream().mapToLong(Long::longValue).sum() + 1000L;
+        for (long splitSize : new long[] {1L, 100L, 399L, 1000L, 5000L, 1L << 40}) {
+            assertRanges(blocks, length, RowGroupSplitter.boundaries(blocks, length, splitSize));
+        }
+    }
+
+    /**
+     * Asserts that the ranges cover the file, are cut at row group starts, and that the midpoint
+     * rule of {@code ParquetUtils.selectRowGroups} gives each row group to exactly one range.
+     */
+    private static void assertRanges(List<BlockMetaData> blocks, long length, List<Long> boundaries)
+    {
+        assertEquals(Long.valueOf(0L), boundaries.get(0));
+        assertEquals(Long.valueOf(length), boundaries.get(boundaries.size() - 1));
+        List<Long> starts = new ArrayList<>();
+        for (BlockMetaData block : blocks) {
+            starts.add(block.getStartingPos());
+        }
+        for (int j = 1; j < boundaries.size(); j++) {
+            assertTrue(boundaries.toString(), boundaries.get(j - 1) < boundaries.get(j));
+            if (j < boundaries.size() - 1) {
+                assertTrue(boundaries.get(j) + " is not a row group start", starts.contains(boundaries.get(j)));
+            }
+        }
+        for (BlockMetaData block : blocks) {
+            long midpoint = block.getStartingPos() + block.getCompressedSize() / 2;
+            int ranges = 0;
+            for (int j = 0; j + 1 < boundaries.size(); j++) {
+                if (boundaries.get(j) <= midpoint && midpoint < boundaries.get(j + 1)) {
+                    ranges++;
+                }
+            }
+            assertEquals("ranges of the row group at " + block.getStartingPos(), 1, ranges);
+        }
+    }
+
+    private static List<BlockMetaData> blocks(long start, long... sizes)
+    {
+        List<BlockMetaData> blocks = new ArrayList<>();
+        long pos = start;
+        for (long size : sizes) {
+            BlockMetaData block = new BlockMetaData();
+            block.addColumn(ColumnChunkMetaData.get(ColumnPath.get("id"), PrimitiveTypeName.INT64, CompressionCodecName.UNCOMPRESSED,
+                    Collections.singleton(Encoding.PLAIN), null, pos, 0L, 1L, size, size));
+            block.setRowCount(1L);
+            blocks.add(block);
+            pos += size;
+        }
+        return blocks;
+    }
+}
@@ -0,0 +1,180 @@
+package org.embulk.input.gcs.parquet;
+
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.spi.DataException;
+import org.embulk.spi.Exec;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestRowWriter
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Test
+    public void testRowColumns()
+    {
+        MessageType first = MessageTypeParser.parseMessageType(
+                "message m { required int64 id; optional binary name (UTF8); optional int64 ts (TIMESTAMP_MILLIS); }");
+        assertEquals(Arrays.asList("id long", "name string", "ts long"), RowWriter.rowColumns(first));
+
+        PluginTask task = Exec.newConfigSource().set("bucket", "bucket").set("output_format", "csv").loadConfig(PluginTask.class);
+        task.setRowColumns(RowWriter.rowColumns(first));
+        RowWriter.checkRowColumns(task, "a.parquet", first);
+        // repetition and timestamp units don't change the written values
+        RowWriter.checkRowColumns(task, "b.parquet", MessageTypeParser.parseMessageType(
+                "message m { optional int64 id; required binary name (UTF8); optional int64 ts (TIMESTAMP_MICROS); }"));
+
+        assertMismatch(task, "message m { optional binary name (UTF8); required int64 id; optional int64 ts (TIMESTAMP_MILLIS); }");
+        assertMismatch(task, "message m { required binary id (UTF8); optional binary name (UTF8); optional int64 ts (TIMESTAMP_MILLIS); }");
+        assertMismatch(task, "message m { required int64 id; optional binary name (UTF8); }");
+    }
+
+    private static void assertMismatch(PluginTask task, String schema)
+    {
+        try {
+            RowWriter.checkRowColumns(task, "c.parquet", MessageTypeParser.parseMessageType(schema));
+            fail("Should throw for " + schema);
+        }
+        catch (DataException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testJsonEscape()
+    {
+        RowWriter writer = RowWriter.of(RowWriter.OutputFormat.json_array, 0, false);
+        writer.startRow(6);
+        writer.column(0);
+        writer.writeString("a\"b\\c\nd\u0001\u00e9\ud83d\ude00");
+        writer.column(1);
+        byte[] utf8 = "x\ty".getBytes(StandardCharsets.UTF_8);
+        writer.writeUtf8(utf8, 0, utf8.length);
+        writer.column(2);
+        writer.writeLatin1(new byte[] {'z', (byte) 0xe9}, 0, 2);
+        writer.column(3);
+        writer.writeLong(Long.MIN_VALUE);
+        writer.column(4);
+        writer.writeLong(-120);
+        writer.column(5);
+        writer.writeDouble(Double.NaN);
+        writer.endRow();
+
+        assertEquals("[\"a\\\"b\\\\c\\nd\\u0001\u00e9\ud83d\ude00\",\"x\\ty\",\"z\u00e9\",-9223372036854775808,-120,\"NaN\"]", drain(writer));
+    }
+
+    @Test
+    public void testJsonObject()
+    {
+        RowWriter writer = RowWriter.of(RowWriter.OutputFormat.json, 0, true);
+        writer.setColumns(Arrays.asList("id", "tags"));
+        writer.startRow(2);
+        writer.column(0);
+        writer.writeLong(1);
+        writer.column(1);
+        writer.startMap(2);
+        writer.key(0, "a");
+        writer.writeNull();
+        writer.key(1, "b");
+        writer.startArray(2);
+        writer.element(0);
+        writer.writeBoolean(true);
+        writer.element(1);
+        writer.writeDecimal(new BigDecimal("1.50"));
+        writer.endArray();
+        writer.endMap();
+        writer.endRow();
+
+        // a resumed writer separates the first row from the rows before it
+        assertEquals("\n{\"id\":1,\"tags\":{\"a\":null,\"b\":[true,1.50]}}", drain(writer));
+    }
+
+    @Test
+    public void testCsv()
+    {
+        RowWriter writer = RowWriter.of(RowWriter.OutputFormat.csv, 0, false);
+        for (int row = 0; row < 2; row++) {
+            writer.startRow(5);
+            writer.column(0);
+            writer.writeLong(row);
+            writer.column(1);
+            writer.writeString(row == 0 ? "say \"hi\", \u00e9" : "");
+            writer.column(2);
+            writer.writeNull();
+            writer.column(3);
+            writer.startArray(1);
+            writer.element(0);
+            writer.writeString("q\"");
+            writer.endArray();
+            writer.column(4);
+            writer.writeDouble(Double.NaN);
+            writer.endRow();
+        }
+
+        assertEquals("0,\"say \"\"hi\"\", \u00e9\",,\"[\"\"q\\\"\"\"\"]\",NaN\n1,\"\",,\"[\"\"q\\\"\"\"\"]\",NaN", drain(writer));
+    }
+
+    @Test
+    public void testMsgpack()
+    {
+        RowWriter writer = RowWriter.of(RowWriter.OutputFormat.msgpack, 0, true);
+        writer.startRow(7);
+        writer.writeLong(5);
+        writer.writeLong(-33);
+        writer.writeLong(300);
+        writer.writeLong(1L << 40);
+        writer.writeString("\u00e9");
+        writer.writeLatin1(new byte[] {(byte) 0xe9}, 0, 1);
+        writer.startMap(1);
+        writer.key(0, "k");
+        writer.writeDouble(1.0);
+        writer.endMap();
+        writer.endRow();
+
+        byte[] expected = {
+                (byte) 0x97,
+                0x05,
+                (byte) 0xd0, (byte) 0xdf,
+                (byte) 0xcd, 0x01, 0x2c,
+                (byte) 0xcf, 0, 0, 0x01, 0, 0, 0, 0, 0,
+                (byte) 0xa2, (byte) 0xc3, (byte) 0xa9,
+                (byte) 0xa2, (byte) 0xc3, (byte) 0xa9,
+                (byte) 0x81, (byte) 0xa1, 'k', (byte) 0xcb, 0x3f, (byte) 0xf0, 0, 0, 0, 0, 0, 0,
+        };
+        // rows aren't separated
+        assertArrayEquals(expected, writer.drainAll());
+    }
+
+    @Test
+    public void testEncodeUtf8()
+    {
+        ByteBuffer value = ByteBuffer.wrap("a\"b".getBytes(StandardCharsets.UTF_8));
+        assertEquals("\"a\\\"b\"", new String(RowWriter.of(RowWriter.OutputFormat.json, 0, false).encodeUtf8(value), StandardCharsets.UTF_8));
+        assertEquals("\"a\"\"b\"", new String(RowWriter.of(RowWriter.OutputFormat.csv, 0, false).encodeUtf8(value), StandardCharsets.UTF_8));
+        assertArrayEquals(new byte[] {(byte) 0xa3, 'a', '"', 'b'}, RowWriter.of(RowWriter.OutputFormat.msgpack, 0, false).encodeUtf8(value));
+    }
+
+    private static String drain(OutputBuffer buffer)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] b = new byte[3];
+        while (buffer.available() > 0) {
+            int n = buffer.drain(b, 0, b.length);
+            out.write(b, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,171 @@
+package org.embulk.input.gcs.parquet;
+
+import com.google.cloud.storage.BlobId;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.spi.Exec;
+import org.embulk.spi.util.InputStreamFileInput.InputStreamWithHints;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestSingleFileProvider
+{
+    private static final int ROWS = 2000;
+    private static final Pattern ID = Pattern.compile("^\\{\"id\":(\\d+)[,}]");
+
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeStorage storage;
+    private long length;
+    // start of the row group that b.parquet is cut at, and the number of rows before it
+    private long cut;
+    private long rowsBeforeCut;
+
+    @Before
+    public void writeFiles() throws IOException
+    {
+        File file = ParquetFiles.write(folder.getRoot(), "flat.parquet", ParquetFiles.FLAT, ROWS, 8 * 1024);
+        byte[] content = ParquetFiles.content(file);
+        storage = new FakeStorage();
+        storage.put("a.parquet", content);
+        storage.put("b.parquet", content);
+        storage.put("c.parquet", content);
+        length = content.length;
+
+        List<BlockMetaData> rowGroups = ParquetFiles.footer(file).getBlocks();
+        assertTrue(rowGroups.size() + " row groups", rowGroups.size() >= 3);
+        int half = rowGroups.size() / 2;
+        cut = rowGroups.get(half).getStartingPos();
+        for (BlockMetaData rowGroup : rowGroups.subList(0, half)) {
+            rowsBeforeCut += rowGroup.getRowCount();
+        }
+    }
+
+    @Test
+    public void testEntriesInOrder() throws IOException
+    {
+        for (ParquetUtils.ReaderEngine engine : ParquetUtils.ReaderEngine.values()) {
+            SingleFileProvider provider = new SingleFileProvider(task(engine), 0);
+            try {
+                assertIds(engine + " a", ids(0, ROWS), read(provider.openNextWithHints()));
+                assertIds(engine + " b[0,cut)", ids(0, rowsBeforeCut), read(provider.openNextWithHints()));
+                assertIds(engine + " b[cut,end)", ids(rowsBeforeCut, ROWS), read(provider.openNextWithHints()));
+                assertIds(engine + " c", ids(0, ROWS), read(provider.openNextWithHints()));
+                assertNull(provider.openNextWithHints());
+            }
+            finally {
+                provider.close();
+            }
+            assertEquals(engine.name(), 0, storage.getOpenChannels());
+        }
+    }
+
+    @Test
+    public void testCloseEarly() throws IOException
+    {
+        SingleFileProvider provider = new SingleFileProvider(task(ParquetUtils.ReaderEngine.avro), 0);
+        try (InputStream in = provider.openNextWithHints().getInputStream()) {
+            assertTrue(in.read(new byte[100]) > 0);
+        }
+        provider.close();
+        // b.parquet was opened ahead, and closed with the provider
+        assertTrue(storage.getOpenedBlobs().stream().map(BlobId::getName).anyMatch("b.parquet"::equals));
+        assertEquals(0, storage.getOpenChannels());
+    }
+
+    @Test
+    public void testRequestsPerEntry() throws IOException
+    {
+        SingleFileProvider provider = new SingleFileProvider(task(ParquetUtils.ReaderEngine.avro), 0);
+        try {
+            for (int i = 0; i < 4; i++) {
+                read(provider.openNextWithHints());
+            }
+            assertNull(provider.openNextWithHints());
+        }
+        finally {
+            provider.close();
+        }
+        // a lookup and a reader of the data per entry, and a read of the tail per object
+        assertEquals(4, storage.getGets());
+        assertEquals(4 + 3, storage.getReaders());
+    }
+
+    private PluginTask task(ParquetUtils.ReaderEngine engine)
+    {
+        PluginTask task = Exec.newConfigSource()
+                .set("bucket", "bucket-" + UUID.randomUUID())
+                .set("reader_engine", engine.name())
+                .set("columns", Arrays.asList("id", "name"))
+                .set("read_ahead_row_groups", 0)
+                .loadConfig(PluginTask.class);
+        storage.register(task);
+        FileList.Builder builder = new FileList.Builder().pathMatchPattern(".*").minTaskSize(Long.MAX_VALUE);
+        builder.add("a.parquet", length);
+        builder.add("b.parquet", cut, 0L, cut);
+        builder.add("b.parquet", length - cut, cut, length);
+        builder.add("c.parquet", length);
+        task.setFiles(builder.build());
+        task.setFooters(Collections.emptyMap());
+        task.setRowColumns(Collections.emptyList());
+        return task;
+    }
+
+    private static List<Long> read(InputStreamWithHints stream) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = stream.getInputStream()) {
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = in.read(buf)) != -1) {
+                out.write(buf, 0, len);
+            }
+        }
+        List<Long> ids = new ArrayList<>();
+        for (String line : new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+            Matcher matcher = ID.matcher(line);
+            assertTrue(line, matcher.find());
+            ids.add(Long.parseLong(matcher.group(1)));
+        }
+        return ids;
+    }
+
+    private static List<Long> ids(long from, long to)
+    {
+        List<Long> ids = new ArrayList<>();
+        for (long id = from; id < to; id++) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    private static void assertIds(String message, List<Long> expected, List<Long> actual)
+    {
+        // compared by size first, to keep failure messages short
+        assertEquals(message, expected.size(), actual.size());
+        assertEquals(message, expected, actual);
+    }
+}
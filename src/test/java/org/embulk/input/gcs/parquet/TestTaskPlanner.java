@@ -0,0 +1,35 @@
+package org.embulk.input.gcs.parquet;
+
+import org.embulk.EmbulkTestRuntime;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestTaskPlanner
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Test
+    public void testBalance()
+    {
+        long[] sizes = {100, 10, 20, 30, 50, 1, 40};
+        FileList.Builder builder = new FileList.Builder().pathMatchPattern(".*").minTaskSize(0);
+        double[] costs = new double[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            builder.add("f" + i, sizes[i]);
+            costs[i] = 1024 * (1 + sizes[i]);
+        }
+        FileList files = TaskPlanner.balance(builder.build(), costs, 3);
+
+        // the largest file alone, then the rest by longest processing time first, in listing order
+        assertEquals(3, files.getTaskCount());
+        assertEquals(Arrays.asList("f0"), files.get(0));
+        assertEquals(Arrays.asList("f1", "f2", "f4"), files.get(1));
+        assertEquals(Arrays.asList("f3", "f5", "f6"), files.get(2));
+        assertEquals(4, files.getEntries(1).get(2).getIndex());
+    }
+}
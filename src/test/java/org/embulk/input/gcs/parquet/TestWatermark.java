@@ -0,0 +1,116 @@
+package org.embulk.input.gcs.parquet;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigException;
+import org.embulk.config.ConfigSource;
+import org.embulk.spi.Exec;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestWatermark
+{
+    private static final long T = Instant.parse("2026-01-01T00:00:00.123Z").toEpochMilli();
+
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Test
+    public void testLastPathMode()
+    {
+        assertFalse(Watermark.of(config().loadConfig(PluginTask.class), T).isPresent());
+    }
+
+    @Test
+    public void testFirstRun()
+    {
+        PluginTask task = config().set("incremental_mode", "update_time").loadConfig(PluginTask.class);
+        Watermark watermark = Watermark.of(task, T + 3600000L).get();
+        assertTrue(watermark.accepts("a.parquet", 0L));
+        assertTrue(watermark.accepts("b.parquet", T));
+
+        // nothing loaded keeps the watermark of the last run
+        watermark.store(task);
+        assertEquals(Optional.empty(), task.getNextUpdateTime());
+        assertEquals(Collections.emptyList(), task.getNextUpdateTimePaths());
+    }
+
+    @Test
+    public void testSameMillisecond()
+    {
+        PluginTask task = config()
+                .set("incremental_mode", "update_time")
+                .set("last_update_time", "2026-01-01T00:00:00.123Z")
+                .set("last_update_time_paths", Arrays.asList("a.parquet"))
+                .loadConfig(PluginTask.class);
+        Watermark watermark = Watermark.of(task, T + 3600000L).get();
+        assertFalse(watermark.accepts("old.parquet", T - 1));
+        assertFalse(watermark.accepts("a.parquet", T));
+        assertTrue(watermark.accepts("b.parquet", T));
+        assertTrue(watermark.accepts("c.parquet", T + 1));
+
+        // an object of the same millisecond joins the paths of the watermark
+        watermark.advance("b.parquet", T);
+        watermark.store(task);
+        assertEquals(Optional.of("2026-01-01T00:00:00.123Z"), task.getNextUpdateTime());
+        assertEquals(new HashSet<>(Arrays.asList("a.parquet", "b.parquet")), new HashSet<>(task.getNextUpdateTimePaths()));
+
+        // a later object replaces them
+        watermark.advance("c.parquet", T + 1);
+        watermark.advance("d.parquet", T + 1);
+        watermark.store(task);
+        assertEquals(Optional.of("2026-01-01T00:00:00.124Z"), task.getNextUpdateTime());
+        assertEquals(new HashSet<>(Arrays.asList("c.parquet", "d.parquet")), new HashSet<>(task.getNextUpdateTimePaths()));
+    }
+
+    @Test
+    public void testUpdateTimeMargin()
+    {
+        PluginTask task = config().set("incremental_mode", "update_time").loadConfig(PluginTask.class);
+        Watermark watermark = Watermark.of(task, T).get();
+        assertTrue(watermark.accepts("a.parquet", T - 60000L));
+        // possibly updated after the listing started if the local clock is ahead of GCS
+        assertFalse(watermark.accepts("b.parquet", T - 59999L));
+        assertFalse(watermark.accepts("c.parquet", T + 1));
+
+        PluginTask noMargin = config()
+                .set("incremental_mode", "update_time")
+                .set("update_time_margin_millis", 0)
+                .loadConfig(PluginTask.class);
+        watermark = Watermark.of(noMargin, T).get();
+        assertTrue(watermark.accepts("a.parquet", T));
+        assertFalse(watermark.accepts("b.parquet", T + 1));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void testInvalidLastUpdateTime()
+    {
+        Watermark.of(config()
+                .set("incremental_mode", "update_time")
+                .set("last_update_time", "yesterday")
+                .loadConfig(PluginTask.class), T);
+    }
+
+    @Test(expected = ConfigException.class)
+    public void testNegativeMargin()
+    {
+        Watermark.of(config()
+                .set("incremental_mode", "update_time")
+                .set("update_time_margin_millis", -1)
+                .loadConfig(PluginTask.class), T);
+    }
+
+    private static ConfigSource config()
+    {
+        return Exec.newConfigSource().set("bucket", "bucket");
+    }
+}